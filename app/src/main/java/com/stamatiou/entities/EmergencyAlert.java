@@ -1,7 +1,8 @@
 // -------------------------------------------------------------
 //
 // This is the EmergencyAlert Structure used by the application.
-// EmergencyAlert data: Type, Status, Latitude, Longitude and Timestamp.
+// EmergencyAlert data: Type, Status, Latitude, Longitude, Timestamp, Image Path, CountDown Policy, Fire Confidence,
+// and the age (ms) and accuracy (m) of the location fix.
 //
 // Author: Aggelos Stamatiou, September 2020
 //
@@ -10,6 +11,7 @@
 package com.stamatiou.entities;
 
 import java.util.Date;
+import java.util.Objects;
 
 public class EmergencyAlert {
 
@@ -18,6 +20,11 @@ public class EmergencyAlert {
     private Double latitude;
     private Double longitude;
     private Date timestamp;
+    private String imagePath;
+    private String countDownPolicy;
+    private Double fireConfidence;
+    private Long locationAge;
+    private Double locationAccuracy;
 
     public static class Builder {
 
@@ -26,6 +33,11 @@ public class EmergencyAlert {
         private Double latitude;
         private Double longitude;
         private Date timestamp;
+        private String imagePath;
+        private String countDownPolicy;
+        private Double fireConfidence;
+        private Long locationAge;
+        private Double locationAccuracy;
 
         public Builder() {}
 
@@ -54,6 +66,31 @@ public class EmergencyAlert {
             return this;
         }
 
+        public Builder withImagePath(String imagePath) {
+            this.imagePath = imagePath;
+            return this;
+        }
+
+        public Builder withCountDownPolicy(String countDownPolicy) {
+            this.countDownPolicy = countDownPolicy;
+            return this;
+        }
+
+        public Builder withFireConfidence(Double fireConfidence) {
+            this.fireConfidence = fireConfidence;
+            return this;
+        }
+
+        public Builder withLocationAge(Long locationAge) {
+            this.locationAge = locationAge;
+            return this;
+        }
+
+        public Builder withLocationAccuracy(Double locationAccuracy) {
+            this.locationAccuracy = locationAccuracy;
+            return this;
+        }
+
         public EmergencyAlert build() {
             EmergencyAlert emergencyAlert = new EmergencyAlert();
             emergencyAlert.type = this.type;
@@ -61,6 +98,11 @@ public class EmergencyAlert {
             emergencyAlert.latitude = this.latitude;
             emergencyAlert.longitude = this.longitude;
             emergencyAlert.timestamp = this.timestamp;
+            emergencyAlert.imagePath = this.imagePath;
+            emergencyAlert.countDownPolicy = this.countDownPolicy;
+            emergencyAlert.fireConfidence = this.fireConfidence;
+            emergencyAlert.locationAge = this.locationAge;
+            emergencyAlert.locationAccuracy = this.locationAccuracy;
             return emergencyAlert;
         }
     }
@@ -87,9 +129,49 @@ public class EmergencyAlert {
         return timestamp;
     }
 
+    public String getImagePath() {
+        return imagePath;
+    }
+
+    public String getCountDownPolicy() {
+        return countDownPolicy;
+    }
+
+    public Double getFireConfidence() {
+        return fireConfidence;
+    }
+
+    public Long getLocationAge() {
+        return locationAge;
+    }
+
+    public Double getLocationAccuracy() {
+        return locationAccuracy;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof EmergencyAlert)) {
+            return false;
+        }
+        EmergencyAlert that = (EmergencyAlert) o;
+        return type == that.type && status == that.status && Objects.equals(latitude, that.latitude) && Objects.equals(longitude, that.longitude)
+               && Objects.equals(timestamp, that.timestamp) && Objects.equals(imagePath, that.imagePath)
+               && Objects.equals(countDownPolicy, that.countDownPolicy) && Objects.equals(fireConfidence, that.fireConfidence)
+               && Objects.equals(locationAge, that.locationAge) && Objects.equals(locationAccuracy, that.locationAccuracy);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(type, status, latitude, longitude, timestamp, imagePath, countDownPolicy, fireConfidence, locationAge, locationAccuracy);
+    }
+
     @Override
     public String toString() {
-        return "EmergencyAlert{type=" + type + ", status=" + status + ", latitude=" + latitude + ", longitude=" + longitude + ", timestamp=" + timestamp + "}";
+        return "EmergencyAlert{type=" + type + ", status=" + status + ", latitude=" + latitude + ", longitude=" + longitude + ", timestamp=" + timestamp + ", imagePath=" + imagePath + ", countDownPolicy=" + countDownPolicy + ", fireConfidence=" + fireConfidence + ", locationAge=" + locationAge + ", locationAccuracy=" + locationAccuracy + "}";
     }
 
 }
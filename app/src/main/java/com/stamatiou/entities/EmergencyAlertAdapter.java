@@ -2,6 +2,9 @@
 //
 // This is the EmergencyAlert Adapter used by the application, to
 // populate the corresponding Recycler View in UserEmergencyAlertsHistory Activity.
+// Adapter is diff driven: each submitted list is compared to the displayed
+// one off the main thread, and only changed cards are inserted, rebound
+// or removed. Items have stable ids, derived from their Firebase keys.
 //
 // Author: Aggelos Stamatiou, September 2020
 //
@@ -14,16 +17,32 @@ import android.view.View;
 import android.view.ViewGroup;
 import android.widget.TextView;
 
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.ListAdapter;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.stamatiou.smartalert.R;
 
 import java.text.SimpleDateFormat;
-import java.util.List;
+import java.util.HashMap;
+import java.util.Map;
 
-public class EmergencyAlertAdapter extends RecyclerView.Adapter<EmergencyAlertAdapter.EmergencyAlertViewHolder> {
+public class EmergencyAlertAdapter extends ListAdapter<EmergencyAlertEntry, EmergencyAlertAdapter.EmergencyAlertViewHolder> {
 
-    private List<EmergencyAlert> emergencyAlerts;
+    private static final DiffUtil.ItemCallback<EmergencyAlertEntry> DIFF_CALLBACK = new DiffUtil.ItemCallback<EmergencyAlertEntry>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull EmergencyAlertEntry oldItem, @NonNull EmergencyAlertEntry newItem) {
+            return oldItem.getKey().equals(newItem.getKey());
+        }
+
+        @Override
+        public boolean areContentsTheSame(@NonNull EmergencyAlertEntry oldItem, @NonNull EmergencyAlertEntry newItem) {
+            return oldItem.getEmergencyAlert().equals(newItem.getEmergencyAlert());
+        }
+    };
+
+    private final Map<String, Long> itemIds = new HashMap<>();
     private SimpleDateFormat dateFormatter = new SimpleDateFormat("yyyy-MM-dd hh:mm:ss");
 
     public static class EmergencyAlertViewHolder extends RecyclerView.ViewHolder {
@@ -40,8 +59,9 @@ public class EmergencyAlertAdapter extends RecyclerView.Adapter<EmergencyAlertAd
         }
     }
 
-    public EmergencyAlertAdapter(List<EmergencyAlert> emergencyAlerts) {
-        this.emergencyAlerts = emergencyAlerts;
+    public EmergencyAlertAdapter() {
+        super(DIFF_CALLBACK);
+        setHasStableIds(true);
     }
 
     @Override
@@ -59,17 +79,25 @@ public class EmergencyAlertAdapter extends RecyclerView.Adapter<EmergencyAlertAd
         TextView latitudeView = holder.latitudeView;
         TextView longitudeView = holder.longitudeView;
         TextView timestampView = holder.timestampView;
+        EmergencyAlert emergencyAlert = getItem(position).getEmergencyAlert();
 
-        typeView.setText(typeView.getResources().getString(R.string.type) + emergencyAlerts.get(position).getType().toString().toLowerCase());
-        statusView.setText(statusView.getResources().getString(R.string.status) + emergencyAlerts.get(position).getStatus().toString().toLowerCase());
-        latitudeView.setText(latitudeView.getResources().getString(R.string.latitude) + String.format("%.6f", emergencyAlerts.get(position).getLatitude()));
-        longitudeView.setText(longitudeView.getResources().getString(R.string.longitude) + String.format("%.6f", emergencyAlerts.get(position).getLongitude()));
-        timestampView.setText(timestampView.getResources().getString(R.string.timestamp) + dateFormatter.format(emergencyAlerts.get(position).getTimestamp()));
+        typeView.setText(typeView.getResources().getString(R.string.type) + emergencyAlert.getType().toString().toLowerCase());
+        statusView.setText(statusView.getResources().getString(R.string.status) + emergencyAlert.getStatus().toString().toLowerCase());
+        latitudeView.setText(latitudeView.getResources().getString(R.string.latitude) + String.format("%.6f", emergencyAlert.getLatitude()));
+        longitudeView.setText(longitudeView.getResources().getString(R.string.longitude) + String.format("%.6f", emergencyAlert.getLongitude()));
+        timestampView.setText(timestampView.getResources().getString(R.string.timestamp) + dateFormatter.format(emergencyAlert.getTimestamp()));
     }
 
+    // Stable id of an item, assigned on first sight of its Firebase key.
     @Override
-    public int getItemCount() {
-        return emergencyAlerts.size();
+    public long getItemId(int position) {
+        String key = getItem(position).getKey();
+        Long itemId = itemIds.get(key);
+        if (itemId == null) {
+            itemId = (long) itemIds.size();
+            itemIds.put(key, itemId);
+        }
+        return itemId;
     }
 
 }
@@ -0,0 +1,35 @@
+// -------------------------------------------------------------
+//
+// This is the keyed EmergencyAlert Structure used by the application's lists.
+// EmergencyAlertEntry data: Firebase Key and EmergencyAlert.
+//
+// Author: Aggelos Stamatiou, September 2020
+//
+// --------------------------------------------------------------
+
+package com.stamatiou.entities;
+
+public class EmergencyAlertEntry {
+
+    private final String key;
+    private final EmergencyAlert emergencyAlert;
+
+    public EmergencyAlertEntry(String key, EmergencyAlert emergencyAlert) {
+        this.key = key;
+        this.emergencyAlert = emergencyAlert;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public EmergencyAlert getEmergencyAlert() {
+        return emergencyAlert;
+    }
+
+    @Override
+    public String toString() {
+        return "EmergencyAlertEntry{key=" + key + ", emergencyAlert=" + emergencyAlert + "}";
+    }
+
+}
@@ -0,0 +1,75 @@
+// -------------------------------------------------------------
+//
+// This is the EmergencyAlertStatistics Structure used by the application.
+// EmergencyAlertStatistics data: Day (yyyyMMdd, or null for all days) and
+// the Emergency Alert counters per type and status, as maintained by the
+// rollups of WriteBatch.
+//
+// Author: Aggelos Stamatiou, September 2020
+//
+// --------------------------------------------------------------
+
+package com.stamatiou.entities;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+public class EmergencyAlertStatistics {
+
+    private final String day;
+    private final Map<EmergencyAlertType, Map<EmergencyAlertStatus, Long>> counts;
+
+    public EmergencyAlertStatistics(String day) {
+        this.day = day;
+        this.counts = new EnumMap<>(EmergencyAlertType.class);
+    }
+
+    public String getDay() {
+        return day;
+    }
+
+    public void setCount(EmergencyAlertType type, EmergencyAlertStatus status, long count) {
+        Map<EmergencyAlertStatus, Long> typeCounts = counts.get(type);
+        if (typeCounts == null) {
+            typeCounts = new EnumMap<>(EmergencyAlertStatus.class);
+            counts.put(type, typeCounts);
+        }
+        typeCounts.put(status, count);
+    }
+
+    public long getCount(EmergencyAlertType type, EmergencyAlertStatus status) {
+        Map<EmergencyAlertStatus, Long> typeCounts = counts.get(type);
+        Long count = typeCounts != null ? typeCounts.get(status) : null;
+        return count != null ? count : 0;
+    }
+
+    public long getTypeCount(EmergencyAlertType type) {
+        long count = 0;
+        for (EmergencyAlertStatus status : EmergencyAlertStatus.values()) {
+            count += getCount(type, status);
+        }
+        return count;
+    }
+
+    public long getStatusCount(EmergencyAlertStatus status) {
+        long count = 0;
+        for (EmergencyAlertType type : EmergencyAlertType.values()) {
+            count += getCount(type, status);
+        }
+        return count;
+    }
+
+    public long getTotal() {
+        long count = 0;
+        for (EmergencyAlertType type : EmergencyAlertType.values()) {
+            count += getTypeCount(type);
+        }
+        return count;
+    }
+
+    @Override
+    public String toString() {
+        return "EmergencyAlertStatistics{day=" + day + ", counts=" + counts + "}";
+    }
+
+}
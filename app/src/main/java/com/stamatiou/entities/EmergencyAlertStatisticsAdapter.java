@@ -0,0 +1,93 @@
+// -------------------------------------------------------------
+//
+// This is the EmergencyAlertStatistics Adapter used by the application, to
+// populate the corresponding Recycler View in EmergencyAlertStatistics Activity.
+// Each card displays the counters of a single day.
+//
+// Author: Aggelos Stamatiou, September 2020
+//
+// --------------------------------------------------------------
+
+package com.stamatiou.entities;
+
+import android.content.res.Resources;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import androidx.recyclerview.widget.RecyclerView;
+
+import com.stamatiou.smartalert.R;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.List;
+import java.util.Locale;
+
+public class EmergencyAlertStatisticsAdapter extends RecyclerView.Adapter<EmergencyAlertStatisticsAdapter.EmergencyAlertStatisticsViewHolder> {
+
+    private List<EmergencyAlertStatistics> emergencyAlertStatistics;
+    private SimpleDateFormat dayParser = new SimpleDateFormat("yyyyMMdd", Locale.US);
+    private SimpleDateFormat dayFormatter = new SimpleDateFormat("yyyy-MM-dd");
+
+    public static class EmergencyAlertStatisticsViewHolder extends RecyclerView.ViewHolder {
+
+        TextView dayView, totalView, fallView, fireView, earthquakeView;
+
+        public EmergencyAlertStatisticsViewHolder(View itemView) {
+            super(itemView);
+            this.dayView = itemView.findViewById(R.id.dayView);
+            this.totalView = itemView.findViewById(R.id.totalView);
+            this.fallView = itemView.findViewById(R.id.fallView);
+            this.fireView = itemView.findViewById(R.id.fireView);
+            this.earthquakeView = itemView.findViewById(R.id.earthquakeView);
+        }
+    }
+
+    public EmergencyAlertStatisticsAdapter(List<EmergencyAlertStatistics> emergencyAlertStatistics) {
+        this.emergencyAlertStatistics = emergencyAlertStatistics;
+    }
+
+    @Override
+    public EmergencyAlertStatisticsViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        View view = LayoutInflater.from(parent.getContext()).inflate(R.layout.emergency_alert_statistics_card_layout, parent, false);
+        EmergencyAlertStatisticsViewHolder emergencyAlertStatisticsViewHolder = new EmergencyAlertStatisticsViewHolder(view);
+        return emergencyAlertStatisticsViewHolder;
+    }
+
+    @Override
+    public void onBindViewHolder(EmergencyAlertStatisticsViewHolder holder, int position) {
+        EmergencyAlertStatistics statistics = emergencyAlertStatistics.get(position);
+        Resources resources = holder.itemView.getResources();
+        holder.dayView.setText(resources.getString(R.string.emergency_alert_statistics_day) + formatDay(statistics.getDay()));
+        holder.totalView.setText(formatTotal(resources, statistics));
+        holder.fallView.setText(formatType(resources, statistics, EmergencyAlertType.FALL));
+        holder.fireView.setText(formatType(resources, statistics, EmergencyAlertType.FIRE));
+        holder.earthquakeView.setText(formatType(resources, statistics, EmergencyAlertType.EARTHQUAKE));
+    }
+
+    @Override
+    public int getItemCount() {
+        return emergencyAlertStatistics.size();
+    }
+
+    public static String formatTotal(Resources resources, EmergencyAlertStatistics statistics) {
+        return resources.getString(R.string.emergency_alert_statistics_total, statistics.getTotal(),
+                                   statistics.getStatusCount(EmergencyAlertStatus.EXECUTED), statistics.getStatusCount(EmergencyAlertStatus.ABORTED));
+    }
+
+    private static String formatType(Resources resources, EmergencyAlertStatistics statistics, EmergencyAlertType type) {
+        return resources.getString(R.string.emergency_alert_statistics_type, type.toString().toLowerCase(), statistics.getTypeCount(type),
+                                   statistics.getCount(type, EmergencyAlertStatus.EXECUTED), statistics.getCount(type, EmergencyAlertStatus.ABORTED));
+    }
+
+    private String formatDay(String day) {
+        try {
+            return dayFormatter.format(dayParser.parse(day));
+        } catch (ParseException e) {
+            return day;
+        }
+    }
+
+}
@@ -3,6 +3,8 @@
 // This is the EmergencyContact Adapter used by the application, to
 // populate the corresponding Recycler View in EmergencyContacts Activity.
 // Each generated record can be long-clicked, to edit or delete it.
+// Only the Firebase key of the record is passed to the action screen,
+// which looks the record up in the EmergencyContactStore.
 //
 // Author: Aggelos Stamatiou, September 2020
 //
@@ -26,19 +28,18 @@ import androidx.recyclerview.widget.RecyclerView;
 import com.stamatiou.smartalert.EmergencyContactsActionActivity;
 import com.stamatiou.smartalert.R;
 
-import java.util.ArrayList;
 import java.util.List;
 
 public class EmergencyContactAdapter extends RecyclerView.Adapter<EmergencyContactAdapter.EmergencyContactViewHolder> {
 
-    private List<EmergencyContact> emergencyContacts;
+    private List<EmergencyContactEntry> emergencyContacts;
 
     public static class EmergencyContactViewHolder extends RecyclerView.ViewHolder {
 
-        private List<EmergencyContact> emergencyContacts;
+        private List<EmergencyContactEntry> emergencyContacts;
         private TextView nameView, surnameView, phoneView;
 
-        public EmergencyContactViewHolder(final View itemView, List<EmergencyContact> emergencyContactsList) {
+        public EmergencyContactViewHolder(final View itemView, List<EmergencyContactEntry> emergencyContactsList) {
             super(itemView);
             this.emergencyContacts = emergencyContactsList;
             this.nameView = itemView.findViewById(R.id.nameView);
@@ -57,10 +58,7 @@ public class EmergencyContactAdapter extends RecyclerView.Adapter<EmergencyConta
                         public boolean onMenuItemClick(MenuItem item) {
                             Intent intent = new Intent(itemView.getContext(), EmergencyContactsActionActivity.class);
                             intent.putExtra("mode", item.getItemId());
-                            intent.putExtra("emergencyContacts", new ArrayList<>(emergencyContacts));
-                            intent.putExtra("name", nameView.getText().toString().replace("Name: ", ""));
-                            intent.putExtra("surname", surnameView.getText().toString().replace("Surname: ", ""));
-                            intent.putExtra("phone", phoneView.getText().toString().replace("Phone: ", ""));
+                            intent.putExtra("key", emergencyContacts.get(getAdapterPosition()).getKey());
                             itemView.getContext().startActivity(intent);
                             return true;
                         }
@@ -72,7 +70,7 @@ public class EmergencyContactAdapter extends RecyclerView.Adapter<EmergencyConta
         }
     }
 
-    public EmergencyContactAdapter(List<EmergencyContact> emergencyContacts) {
+    public EmergencyContactAdapter(List<EmergencyContactEntry> emergencyContacts) {
         this.emergencyContacts = emergencyContacts;
     }
 
@@ -88,9 +86,10 @@ public class EmergencyContactAdapter extends RecyclerView.Adapter<EmergencyConta
         TextView nameView = holder.nameView;
         TextView surnameView = holder.surnameView;
         TextView phoneView = holder.phoneView;
-        nameView.setText(nameView.getResources().getString(R.string.name) + emergencyContacts.get(position).getName());
-        surnameView.setText(surnameView.getResources().getString(R.string.surname) + emergencyContacts.get(position).getSurname());
-        phoneView.setText(phoneView.getResources().getString(R.string.phone) + emergencyContacts.get(position).getPhone());
+        EmergencyContact emergencyContact = emergencyContacts.get(position).getEmergencyContact();
+        nameView.setText(nameView.getResources().getString(R.string.name) + emergencyContact.getName());
+        surnameView.setText(surnameView.getResources().getString(R.string.surname) + emergencyContact.getSurname());
+        phoneView.setText(phoneView.getResources().getString(R.string.phone) + emergencyContact.getPhone());
     }
 
     @Override
@@ -0,0 +1,36 @@
+// -------------------------------------------------------------
+//
+// This is the keyed EmergencyContact Structure used by the application's lists.
+// EmergencyContactEntry data: Firebase Key and EmergencyContact.
+// Key identifies the record in edit and delete actions.
+//
+// Author: Aggelos Stamatiou, September 2020
+//
+// --------------------------------------------------------------
+
+package com.stamatiou.entities;
+
+public class EmergencyContactEntry {
+
+    private final String key;
+    private final EmergencyContact emergencyContact;
+
+    public EmergencyContactEntry(String key, EmergencyContact emergencyContact) {
+        this.key = key;
+        this.emergencyContact = emergencyContact;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public EmergencyContact getEmergencyContact() {
+        return emergencyContact;
+    }
+
+    @Override
+    public String toString() {
+        return "EmergencyContactEntry{key=" + key + ", emergencyContact=" + emergencyContact + "}";
+    }
+
+}
@@ -0,0 +1,95 @@
+// -------------------------------------------------------------
+//
+// This is the SmsOutcome Structure used by the application.
+// SmsOutcome data: Phone, Status, Attempts, Error Code and Timestamp.
+//
+// Author: Aggelos Stamatiou, September 2020
+//
+// --------------------------------------------------------------
+
+package com.stamatiou.entities;
+
+import java.util.Date;
+
+public class SmsOutcome {
+
+    private String phone;
+    private SmsOutcomeStatus status;
+    private Integer attempts;
+    private Integer errorCode;
+    private Date timestamp;
+
+    public static class Builder {
+
+        private String phone;
+        private SmsOutcomeStatus status;
+        private Integer attempts;
+        private Integer errorCode;
+        private Date timestamp;
+
+        public Builder() {}
+
+        public Builder withPhone(String phone) {
+            this.phone = phone;
+            return this;
+        }
+
+        public Builder withStatus(SmsOutcomeStatus status) {
+            this.status = status;
+            return this;
+        }
+
+        public Builder withAttempts(Integer attempts) {
+            this.attempts = attempts;
+            return this;
+        }
+
+        public Builder withErrorCode(Integer errorCode) {
+            this.errorCode = errorCode;
+            return this;
+        }
+
+        public Builder withTimestamp(Date timestamp) {
+            this.timestamp = timestamp;
+            return this;
+        }
+
+        public SmsOutcome build() {
+            SmsOutcome smsOutcome = new SmsOutcome();
+            smsOutcome.phone = this.phone;
+            smsOutcome.status = this.status;
+            smsOutcome.attempts = this.attempts;
+            smsOutcome.errorCode = this.errorCode;
+            smsOutcome.timestamp = this.timestamp;
+            return smsOutcome;
+        }
+    }
+
+    private SmsOutcome() {}
+
+    public String getPhone() {
+        return phone;
+    }
+
+    public SmsOutcomeStatus getStatus() {
+        return status;
+    }
+
+    public Integer getAttempts() {
+        return attempts;
+    }
+
+    public Integer getErrorCode() {
+        return errorCode;
+    }
+
+    public Date getTimestamp() {
+        return timestamp;
+    }
+
+    @Override
+    public String toString() {
+        return "SmsOutcome{phone=" + phone + ", status=" + status + ", attempts=" + attempts + ", errorCode=" + errorCode + ", timestamp=" + timestamp + "}";
+    }
+
+}
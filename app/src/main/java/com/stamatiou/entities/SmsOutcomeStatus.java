@@ -0,0 +1,16 @@
+// -------------------------------------------------------------
+//
+// Each SmsOutcomeStatus enum represents the final state of an
+// Emergency Alert SMS message, sent to an emergency contact.
+//
+// Author: Aggelos Stamatiou, September 2020
+//
+// --------------------------------------------------------------
+
+package com.stamatiou.entities;
+
+public enum SmsOutcomeStatus {
+    SENT,
+    DELIVERED,
+    FAILED;
+}
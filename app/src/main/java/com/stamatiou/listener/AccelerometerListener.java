@@ -2,10 +2,11 @@
 //
 // This auxiliary class is used by the application to detect fall
 // and earthquake events, using devices accelerometer sensor.
-// Class extends BroadcastReceiver to enable earthquake mode, when
-// phone is charging and connected to internet.
+// Class subscribes to the DeviceStateMonitor to enable earthquake mode,
+// when phone is charging and connected to internet.
 // To verify an earthquake is happening, application checks records
-// from close users submitted at the same time.
+// from close users submitted at the same time, through a FirebaseSubscriptions
+// subscription of the Detection records.
 //
 // Author: Aggelos Stamatiou, September 2020
 //
@@ -14,16 +15,12 @@
 package com.stamatiou.listener;
 
 import android.app.Activity;
-import android.content.BroadcastReceiver;
 import android.content.Context;
-import android.content.Intent;
-import android.content.IntentFilter;
 import android.hardware.Sensor;
 import android.hardware.SensorEvent;
 import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
 import android.location.Location;
-import android.os.BatteryManager;
 import android.os.Handler;
 import android.util.Log;
 import android.widget.Toast;
@@ -35,33 +32,48 @@ import com.google.firebase.database.DataSnapshot;
 import com.google.firebase.database.DatabaseError;
 import com.google.firebase.database.DatabaseReference;
 import com.google.firebase.database.FirebaseDatabase;
+import com.google.firebase.database.Query;
 import com.google.firebase.database.ValueEventListener;
 import com.stamatiou.entities.Detection;
 import com.stamatiou.entities.EmergencyAlertType;
+import com.stamatiou.smartalert.AlertLocationManager;
+import com.stamatiou.smartalert.AlertOutbox;
+import com.stamatiou.smartalert.DeviceStateMonitor;
+import com.stamatiou.smartalert.FirebaseConnectionManager;
+import com.stamatiou.smartalert.FirebaseSubscriptions;
 import com.stamatiou.smartalert.R;
-import com.treebo.internetavailabilitychecker.InternetAvailabilityChecker;
-import com.treebo.internetavailabilitychecker.InternetConnectivityListener;
+import com.stamatiou.smartalert.WriteBatch;
+
+import org.json.JSONException;
 
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 
-public class AccelerometerListener extends BroadcastReceiver implements SensorEventListener, InternetConnectivityListener {
+public class AccelerometerListener implements SensorEventListener, DeviceStateMonitor.Listener {
 
+    private static final double FALL_DETECTION_CONFIDENCE = 0.5;
+    private static final double INACTIVITY_CONFIRMED_CONFIDENCE = 0.95;
+    private static final long IMPACT_SETTLE_TIME = 1000;
+    private static final long INACTIVITY_DURATION = 3000;
+    private static final double INACTIVITY_TOLERANCE = 1.0;
+    private static final double EARTHQUAKE_BASE_CONFIDENCE = 0.5;
+    private static final double EARTHQUAKE_CLOSE_USER_CONFIDENCE = 0.25;
     private final Activity activity;
     private final SensorManager sensorManager;
     private final CountDown countDown;
     private Boolean earthquakeMode;
-    private Location location;
     private int finishMessage;
     private EmergencyAlertType type;
-    private Boolean isPowerConnected;
-    private Boolean isNetworkConnected;
     private long lastUpdateTime;
     private float lastUpdatePositionsSum;
     private Boolean earthquakeDetecting;
+    private long fallTime;
+    private long inactivityStartTime;
+    private Boolean inactivityConfirmed;
     private final DatabaseReference otherUsersDetectionsReference;
     private List<Detection> otherUsersDetections;
+    private Query otherUsersDetectionsQuery;
     private ValueEventListener valueEventListener;
 
     public AccelerometerListener(Activity activity) {
@@ -71,34 +83,27 @@ public class AccelerometerListener extends BroadcastReceiver implements SensorEv
         this.earthquakeMode = false;
         this.finishMessage = R.string.user_fallen;
         this.type = EmergencyAlertType.FALL;
-        this.isPowerConnected = false;
-        this.isNetworkConnected = false;
         this.earthquakeDetecting = false;
+        this.inactivityConfirmed = false;
         this.otherUsersDetections = new ArrayList<>();
         this.otherUsersDetectionsReference = FirebaseDatabase.getInstance().getReference("detections");
         accelerometerListenerInit();
     }
 
+    // Best available location fix, cached by the AlertLocationManager.
     public Location getLocation() {
-        return location;
-    }
-
-    public void setLocation(Location location) {
-        this.location = location;
+        return AlertLocationManager.getInstance(activity).getBestLocation();
     }
 
     // Class initialization method.
-    // Application register the class as an accelerometer listener and a broadcast receiver.
+    // Application register the class as an accelerometer listener and a device state subscriber.
+    // Firebase connection is kept warm while monitoring is active.
     private void accelerometerListenerInit() {
         Log.i("message","accelerometerListenerInit method started.");
         try {
             sensorManager.registerListener(this, sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER), SensorManager.SENSOR_DELAY_NORMAL);
-            IntentFilter filter = new IntentFilter();
-            filter.addAction(Intent.ACTION_POWER_CONNECTED);
-            filter.addAction(Intent.ACTION_POWER_DISCONNECTED);
-            activity.registerReceiver(this, filter);
-            InternetAvailabilityChecker.init(activity);
-            InternetAvailabilityChecker.getInstance().addInternetConnectivityListener(this);
+            DeviceStateMonitor.getInstance(activity).subscribe(this);
+            FirebaseConnectionManager.getInstance().start();
             Log.i("message","accelerometerListenerInit method completed successfully.");
         } catch (Exception e) {
             e.printStackTrace();
@@ -126,11 +131,36 @@ public class AccelerometerListener extends BroadcastReceiver implements SensorEv
     }
 
     // Fall detection mechanism.
+    // A free fall starts the countdown with default confidence.
+    // While countdown is running, post-impact inactivity confirms the fall, shortening the countdown.
     private void fallDetection(SensorEvent sensorEvent) {
         double rootSquare = Math.sqrt(Math.pow(sensorEvent.values[0], 2) + Math.pow(sensorEvent.values[1], 2) + Math.pow(sensorEvent.values[2], 2));
-        if (rootSquare < 2.0) {
+        if (rootSquare < 2.0 && !countDown.isRunning()) {
             Log.i("message","Fall detected!");
-            countDown.setTimer(location, finishMessage, type);
+            fallTime = System.currentTimeMillis();
+            inactivityStartTime = 0;
+            inactivityConfirmed = false;
+            countDown.setTimer(getLocation(), finishMessage, type, FALL_DETECTION_CONFIDENCE);
+        } else if (countDown.isRunning() && !inactivityConfirmed) {
+            postImpactInactivityDetection(rootSquare);
+        }
+    }
+
+    // Post-impact inactivity detection mechanism.
+    // After the impact settles, device must stay still (only gravity is measured) for a period of time.
+    private void postImpactInactivityDetection(double rootSquare) {
+        long currentTime = System.currentTimeMillis();
+        if (currentTime - fallTime < IMPACT_SETTLE_TIME) {
+            return;
+        }
+        if (Math.abs(rootSquare - SensorManager.GRAVITY_EARTH) > INACTIVITY_TOLERANCE) {
+            inactivityStartTime = 0;
+        } else if (inactivityStartTime == 0) {
+            inactivityStartTime = currentTime;
+        } else if (currentTime - inactivityStartTime >= INACTIVITY_DURATION) {
+            Log.i("message","Post-impact inactivity confirmed.");
+            inactivityConfirmed = true;
+            countDown.updateConfidence(INACTIVITY_CONFIRMED_CONFIDENCE);
         }
     }
 
@@ -145,9 +175,10 @@ public class AccelerometerListener extends BroadcastReceiver implements SensorEv
             float positionsSum = sensorEvent.values[0] + sensorEvent.values[1] + sensorEvent.values[2];
             float speed = Math.abs(positionsSum - lastUpdatePositionsSum) / difference * 10000;
             if (speed > 200 && !earthquakeDetecting) {
+                Location location = getLocation();
                 if (location != null) {
                     earthquakeDetecting = true;
-                    checkCloseUsers();
+                    checkCloseUsers(location);
                 } else {
                     Log.i("message","Location missing. Earthquake detection failed.");
                     earthquakeDetecting = false;
@@ -159,7 +190,7 @@ public class AccelerometerListener extends BroadcastReceiver implements SensorEv
 
     // Application creates an event listened which reads Firebase Detection records for 10 seconds.
     // Users with distance less than 5km are considered close.
-    private void checkCloseUsers() {
+    private void checkCloseUsers(Location location) {
         Log.i("message", "Starting earthquake detection...");
         String uid = FirebaseAuth.getInstance().getCurrentUser().getUid();
         valueEventListener = new ValueEventListener() {
@@ -180,23 +211,30 @@ public class AccelerometerListener extends BroadcastReceiver implements SensorEv
                 Toast.makeText(activity, activity.getString(R.string.exception), Toast.LENGTH_SHORT).show();
             }
         };
-        otherUsersDetectionsReference.orderByChild("timestamp").startAt(String.valueOf(new Date().getTime())).addValueEventListener(valueEventListener);
+        otherUsersDetectionsQuery = otherUsersDetectionsReference.orderByChild("timestamp").startAt(String.valueOf(new Date().getTime()));
+        FirebaseSubscriptions.getInstance().attach(otherUsersDetectionsQuery, valueEventListener);
         Detection detection = new Detection.Builder()
                                            .withUid(uid)
                                            .withLongitude(location.getLongitude())
                                            .withLatitude(location.getLatitude())
                                            .withTimestamp(String.valueOf(new Date().getTime()))
                                            .build();
-        otherUsersDetectionsReference.push().setValue(detection);
-        (new Handler()).postDelayed(this::checkCloseUsersResults, 10000);
+        AlertOutbox alertOutbox = AlertOutbox.getInstance(activity);
+        try {
+            alertOutbox.append(WriteBatch.forDetection(alertOutbox.newKey(), detection));
+        } catch (JSONException e) {
+            Log.i("message","Exception during Detection record generation:" + e.getMessage());
+        }
+        (new Handler()).postDelayed(() -> checkCloseUsersResults(location), 10000);
     }
 
     // Application checks close users records, after the 10 second delay.
     // If close users report an earthquake detection, an earthquake emergency event is created.
-    private void checkCloseUsersResults() {
-        otherUsersDetectionsReference.removeEventListener(valueEventListener);
+    // Detection confidence increases with the number of close users reporting it.
+    private void checkCloseUsersResults(Location location) {
+        FirebaseSubscriptions.getInstance().detach(otherUsersDetectionsQuery, valueEventListener);
         if (otherUsersDetections.size() > 0) {
-            countDown.setTimer(location, finishMessage, type);
+            countDown.setTimer(location, finishMessage, type, Math.min(1.0, EARTHQUAKE_BASE_CONFIDENCE + EARTHQUAKE_CLOSE_USER_CONFIDENCE * otherUsersDetections.size()));
         }
         earthquakeDetecting = false;
         Log.i("message", "Earthquake detection finished.");
@@ -224,6 +262,9 @@ public class AccelerometerListener extends BroadcastReceiver implements SensorEv
             }
             earthquakeDetecting = false;
             sensorManager.unregisterListener(this);
+            DeviceStateMonitor.getInstance(activity).unsubscribe(this);
+            countDown.releaseAlarm();
+            FirebaseConnectionManager.getInstance().stop();
             Log.i("message","StopListener method completed successfully.");
         } catch (Exception e) {
             e.printStackTrace();
@@ -232,46 +273,40 @@ public class AccelerometerListener extends BroadcastReceiver implements SensorEv
         }
     }
 
+    // Preloads the count down mechanism alarm sound.
+    public void preloadAlarm() {
+        countDown.preloadAlarm();
+    }
+
     // Cancel count down mechanism.
     public void cancelTimer() {
         earthquakeDetecting = false;
         countDown.cancelTimer();
     }
 
-    // Earthquake mode check is executed on broadcast receiver events.
-    @Override
-    public void onReceive(Context context, Intent intent) {
-        Log.i("message","OnReceive method started.");
-        try {
-            isPowerConnected = intent.getAction().equals(Intent.ACTION_POWER_CONNECTED);
-            enableEarthquakeMode();
-            Log.i("message","OnReceive method completed successfully.");
-        } catch (Exception e) {
-            e.printStackTrace();
-            Log.i("message","Exception during OnReceive method:" + e.getMessage());
-            Toast.makeText(activity, activity.getString(R.string.exception), Toast.LENGTH_SHORT).show();
-        }
-    }
-
-    // Earthquake mode check is executed on connectivity change events.
+    // Earthquake mode check is executed on device state changes.
     @Override
-    public void onInternetConnectivityChanged(boolean isConnected) {
-        Log.i("message","OnInternetConnectivityChanged method started.");
+    public void onDeviceStateChanged(DeviceStateMonitor.DeviceState previousState, DeviceStateMonitor.DeviceState state) {
+        Log.i("message","OnDeviceStateChanged method started.");
         try {
-            isNetworkConnected = isConnected;
-            enableEarthquakeMode();
-            Log.i("message","OnInternetConnectivityChanged method completed successfully.");
+            enableEarthquakeMode(state);
+            Log.i("message","OnDeviceStateChanged method completed successfully.");
         } catch (Exception e) {
             e.printStackTrace();
-            Log.i("message","Exception during OnInternetConnectivityChanged method:" + e.getMessage());
+            Log.i("message","Exception during OnDeviceStateChanged method:" + e.getMessage());
             Toast.makeText(activity, activity.getString(R.string.exception), Toast.LENGTH_SHORT).show();
         }
     }
 
     // Earthquake mode check.
     // Phone must be connected to the internet and a power source.
-    private void enableEarthquakeMode() {
-        if (isNetworkConnected && (isPowerConnected || ((BatteryManager) activity.getSystemService(Context.BATTERY_SERVICE)).isCharging())) {
+    // User is informed only when the mode is actually enabled.
+    private void enableEarthquakeMode(DeviceStateMonitor.DeviceState state) {
+        Boolean enabled = state.isConnected() && state.isCharging();
+        if (enabled == earthquakeMode) {
+            return;
+        }
+        if (enabled) {
             earthquakeMode = true;
             finishMessage = R.string.earthquake_detected;
             type = EmergencyAlertType.EARTHQUAKE;
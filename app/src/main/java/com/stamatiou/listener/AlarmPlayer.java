@@ -0,0 +1,153 @@
+// -------------------------------------------------------------
+//
+// This auxiliary class implements the alarm sound playback, used by
+// the countdown mechanism.
+// Alarm clip is prepared once by a MediaPlayer, asynchronously off the
+// main thread, so playback starts with minimal latency when an emergency
+// is detected. The clip is too long to be decoded into a SoundPool sample
+// (about 1MB of PCM), which would silently truncate the looped alarm.
+// Fallback player uses the same alarm audio attributes as the prepared clip.
+// Preload cost and trigger-to-start latency, up to the playback start
+// request returning, are recorded as metrics.
+//
+// Author: Aggelos Stamatiou, September 2020
+//
+// --------------------------------------------------------------
+
+package com.stamatiou.listener;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.media.AudioAttributes;
+import android.media.AudioManager;
+import android.media.MediaPlayer;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.google.firebase.auth.FirebaseAuth;
+import com.google.firebase.auth.FirebaseUser;
+import com.stamatiou.smartalert.AlertOutbox;
+import com.stamatiou.smartalert.R;
+import com.stamatiou.smartalert.WriteBatch;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+
+public class AlarmPlayer {
+
+    private static final AudioAttributes ALARM_ATTRIBUTES = new AudioAttributes.Builder()
+                                                                               .setUsage(AudioAttributes.USAGE_ALARM)
+                                                                               .setContentType(AudioAttributes.CONTENT_TYPE_SONIFICATION)
+                                                                               .build();
+
+    private final Context context;
+    private MediaPlayer mediaPlayer;
+    private MediaPlayer fallbackPlayer;
+    private Boolean prepared;
+    private long preloadStartTime;
+    private Long preloadDuration;
+
+    public AlarmPlayer(Context context) {
+        this.context = context.getApplicationContext();
+        this.prepared = false;
+    }
+
+    // Preloads the alarm clip.
+    // MediaPlayer prepares the clip asynchronously and informs when it is ready.
+    public synchronized void preload() {
+        if (mediaPlayer != null) {
+            return;
+        }
+        Log.i("message","Alarm preload started.");
+        preloadStartTime = SystemClock.elapsedRealtime();
+        mediaPlayer = new MediaPlayer();
+        try (AssetFileDescriptor assetFileDescriptor = context.getResources().openRawResourceFd(R.raw.alert_sound)) {
+            mediaPlayer.setAudioAttributes(ALARM_ATTRIBUTES);
+            mediaPlayer.setDataSource(assetFileDescriptor.getFileDescriptor(), assetFileDescriptor.getStartOffset(), assetFileDescriptor.getLength());
+            mediaPlayer.setLooping(true);
+            mediaPlayer.setOnPreparedListener(player -> {
+                synchronized (AlarmPlayer.this) {
+                    prepared = true;
+                    preloadDuration = SystemClock.elapsedRealtime() - preloadStartTime;
+                }
+                Log.i("message","Metric alarm_preload_ms=" + preloadDuration);
+            });
+            mediaPlayer.prepareAsync();
+        } catch (IOException | IllegalStateException e) {
+            Log.i("message","Exception during alarm preload:" + e.getMessage());
+            mediaPlayer.release();
+            mediaPlayer = null;
+        }
+    }
+
+    // Starts the alarm playback in a loop.
+    // In case the clip is not prepared yet, a MediaPlayer is created synchronously instead, on the alarm stream.
+    public synchronized void start(long triggerTime) {
+        Boolean preloaded = prepared;
+        if (preloaded) {
+            mediaPlayer.seekTo(0);
+            mediaPlayer.start();
+        } else {
+            Log.i("message","Alarm clip not preloaded yet, falling back to MediaPlayer.");
+            AudioManager audioManager = (AudioManager) context.getSystemService(Context.AUDIO_SERVICE);
+            fallbackPlayer = MediaPlayer.create(context, R.raw.alert_sound, ALARM_ATTRIBUTES, audioManager.generateAudioSessionId());
+            if (fallbackPlayer != null) {
+                fallbackPlayer.setLooping(true);
+                fallbackPlayer.start();
+            } else {
+                Log.i("message","Alarm fallback MediaPlayer could not be created.");
+            }
+            preload();
+        }
+        long triggerToStart = SystemClock.elapsedRealtime() - triggerTime;
+        Log.i("message","Metric alarm_trigger_to_start_ms=" + triggerToStart + " preloaded=" + preloaded);
+        recordMetrics(triggerToStart, preloaded);
+    }
+
+    // Stops the alarm playback. Prepared clip is kept, so it can be played again.
+    public synchronized void stop() {
+        if (prepared && mediaPlayer.isPlaying()) {
+            mediaPlayer.pause();
+        }
+        if (fallbackPlayer != null) {
+            fallbackPlayer.release();
+            fallbackPlayer = null;
+        }
+    }
+
+    // Releases the prepared clip, when monitoring stops.
+    public synchronized void release() {
+        stop();
+        if (mediaPlayer != null) {
+            mediaPlayer.release();
+            mediaPlayer = null;
+            prepared = false;
+        }
+        Log.i("message","Alarm resources released.");
+    }
+
+    // Records the alarm latency metrics, through the AlertOutbox.
+    private void recordMetrics(long triggerToStart, Boolean preloaded) {
+        FirebaseUser user = FirebaseAuth.getInstance().getCurrentUser();
+        if (user == null) {
+            return;
+        }
+        try {
+            AlertOutbox alertOutbox = AlertOutbox.getInstance(context);
+            String metricsKey = alertOutbox.newKey();
+            String metricsPath = "alarm_metrics/" + user.getUid() + "/" + metricsKey;
+            WriteBatch writeBatch = new WriteBatch("alarm_metrics_" + metricsKey)
+                                                 .put(metricsPath + "/triggerToStart", triggerToStart)
+                                                 .put(metricsPath + "/preloaded", preloaded)
+                                                 .put(metricsPath + "/timestamp", System.currentTimeMillis());
+            if (preloadDuration != null) {
+                writeBatch.put(metricsPath + "/preload", preloadDuration);
+            }
+            alertOutbox.append(writeBatch);
+        } catch (JSONException e) {
+            Log.i("message","Exception during alarm metrics recording:" + e.getMessage());
+        }
+    }
+
+}
@@ -4,6 +4,11 @@
 // enabling users to abort false emergencies.
 // When a fall or earthquake emergency is detected, an alarm sound
 // starts playing and a countdown starts.
+// Countdown duration is defined by a CountDownPolicy, selected from the
+// detector confidence, and can be shortened or extended while running.
+// Location updates are escalated to high accuracy while the countdown runs,
+// and the alert is dispatched with a fix acquired during the countdown,
+// if one arrived, otherwise with the best cached fix.
 //
 // Author: Aggelos Stamatiou, September 2020
 //
@@ -12,47 +17,65 @@
 package com.stamatiou.listener;
 
 import android.app.Activity;
-import android.content.Intent;
 import android.location.Location;
-import android.media.MediaPlayer;
-import android.os.CountDownTimer;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.util.Log;
-import android.view.View;
 import android.widget.Button;
 import android.widget.TextView;
 import android.widget.Toast;
 
 import com.stamatiou.entities.EmergencyAlertStatus;
 import com.stamatiou.entities.EmergencyAlertType;
-import com.stamatiou.smartalert.EmergencyAlertHandler;
+import com.stamatiou.smartalert.AlertLocationManager;
+import com.stamatiou.smartalert.EmergencyAlertDispatcher;
+import com.stamatiou.smartalert.FirebaseConnectionManager;
 import com.stamatiou.smartalert.R;
 
-public class CountDown extends CountDownTimer {
+public class CountDown {
 
+    private static final long TICK_INTERVAL = 1000;
+    private static final long MIN_ADJUSTED_REMAINING = 5000;
     private Boolean running;
     private final Activity activity;
     private final TextView countDownTimerView;
     private final Button abortButton;
-    private final MediaPlayer mediaPlayer;
+    private final AlarmPlayer alarmPlayer;
     private Location location;
     private int finishMessage;
     private EmergencyAlertType type;
+    private CountDownPolicy policy;
+    private final Handler handler;
+    private final Runnable tick;
+    private long startTime;
+    private long deadline;
 
     public CountDown(Activity activity) {
-        super(30000, 1000);
         this.running = false;
         this.activity = activity;
-        this.mediaPlayer = MediaPlayer.create(activity.getApplicationContext(), R.raw.alert_sound);
-        this.mediaPlayer.setLooping(true);
+        this.handler = new Handler(Looper.getMainLooper());
+        this.tick = new Runnable() {
+            @Override
+            public void run() {
+                long remaining = deadline - SystemClock.elapsedRealtime();
+                if (remaining <= 0) {
+                    onFinish();
+                } else {
+                    onTick(remaining);
+                    handler.postDelayed(this, Math.min(TICK_INTERVAL, remaining));
+                }
+            }
+        };
+        this.alarmPlayer = new AlarmPlayer(activity);
         this.countDownTimerView = (TextView) activity.findViewById(R.id.countDownTimerView);
         this.abortButton = (Button) activity.findViewById(R.id.abortButton);
     }
 
-    @Override
-    public void onTick(long millisUntilFinished) {
+    private void onTick(long millisUntilFinished) {
         //Log.i("message","OnTick method started.");
         try {
-            countDownTimerView.setText(activity.getString(R.string.seconds_remaining) + millisUntilFinished / 1000);
+            countDownTimerView.setText(activity.getString(R.string.seconds_remaining) + (millisUntilFinished + 999) / 1000);
             //Log.i("message","OnTick method completed successfully.");
         } catch (Exception e) {
             e.printStackTrace();
@@ -61,28 +84,29 @@ public class CountDown extends CountDownTimer {
         }
     }
 
-    // When countdown finishes, emergency alert is reported by calling the EmergencyAlertHandler class.
-    @Override
-    public void onFinish() {
+    // When countdown finishes, emergency alert is reported by calling the EmergencyAlertDispatcher service.
+    private void onFinish() {
         Log.i("message","OnFinish method started.");
         try {
-            activity.findViewById(R.id.progressBar_cyclic).setVisibility(View.VISIBLE);
             running = false;
             countDownTimerView.setText(finishMessage);
             disableAlert();
-            startEmergencyAlertHandlerActivity(EmergencyAlertStatus.EXECUTED);
-            activity.findViewById(R.id.progressBar_cyclic).setVisibility(View.INVISIBLE);
+            EmergencyAlertDispatcher.dispatch(activity, bestLocation(), type, EmergencyAlertStatus.EXECUTED, null, policy.getName());
+            AlertLocationManager.getInstance(activity).relax();
             Log.i("message","OnFinish method completed successfully.");
         } catch (Exception e) {
             e.printStackTrace();
             Log.i("message","Exception during OnFinish method:" + e.getMessage());
             Toast.makeText(activity, activity.getString(R.string.exception), Toast.LENGTH_SHORT).show();
-            activity.findViewById(R.id.progressBar_cyclic).setVisibility(View.INVISIBLE);
         }
     }
 
     // Start the alarm mechanism.
-    public void setTimer(Location location, int finishMessage, EmergencyAlertType type) {
+    // Countdown duration is selected from the emergency type and the detector confidence.
+    // Firebase connection is warmed up, so the alert is written over an open connection when countdown finishes,
+    // and location updates are escalated, so the alert carries a fresh, accurate fix.
+    public void setTimer(Location location, int finishMessage, EmergencyAlertType type, double confidence) {
+        long triggerTime = SystemClock.elapsedRealtime();
         Log.i("message","SetTimer method started.");
         try {
             if (!running) {
@@ -90,9 +114,15 @@ public class CountDown extends CountDownTimer {
                 this.location = location;
                 this.finishMessage = finishMessage;
                 this.type = type;
+                this.policy = CountDownPolicy.select(type, confidence);
                 abortButton.setEnabled(true);
-                mediaPlayer.start();
-                this.start();
+                alarmPlayer.start(triggerTime);
+                FirebaseConnectionManager.getInstance().warm();
+                AlertLocationManager.getInstance(activity).escalate();
+                startTime = SystemClock.elapsedRealtime();
+                deadline = startTime + policy.getDuration();
+                Log.i("message","Countdown started with policy: " + policy);
+                handler.post(tick);
             }
             Log.i("message","SetTimer method completed successfully.");
         } catch (Exception e) {
@@ -102,35 +132,68 @@ public class CountDown extends CountDownTimer {
         }
     }
 
-    // Cancel the alarm mechanism. Aborted emergency alert is reported by calling the EmergencyAlertHandler class.
+    // Updates the detector confidence of the running countdown.
+    // If a different policy is selected, countdown is shortened or extended accordingly,
+    // always leaving the user a minimum time to abort.
+    public void updateConfidence(double confidence) {
+        Log.i("message","UpdateConfidence method started.");
+        try {
+            if (running) {
+                CountDownPolicy newPolicy = CountDownPolicy.select(type, confidence);
+                if (newPolicy != policy) {
+                    long now = SystemClock.elapsedRealtime();
+                    policy = newPolicy;
+                    deadline = Math.max(startTime + policy.getDuration(), Math.min(deadline, now + MIN_ADJUSTED_REMAINING));
+                    Log.i("message","Countdown adjusted with policy: " + policy + ", remaining: " + (deadline - now));
+                    handler.removeCallbacks(tick);
+                    handler.post(tick);
+                }
+            }
+            Log.i("message","UpdateConfidence method completed successfully.");
+        } catch (Exception e) {
+            e.printStackTrace();
+            Log.i("message","Exception during UpdateConfidence method:" + e.getMessage());
+            Toast.makeText(activity, activity.getString(R.string.exception), Toast.LENGTH_SHORT).show();
+        }
+    }
+
+    // Cancel the alarm mechanism. Aborted emergency alert is reported by calling the EmergencyAlertDispatcher service.
     public void cancelTimer() {
         Log.i("message","CancelTimer method started.");
         try {
-            activity.findViewById(R.id.progressBar_cyclic).setVisibility(View.VISIBLE);
-            this.cancel();
+            handler.removeCallbacks(tick);
             running = false;
             countDownTimerView.setText(activity.getString(R.string.crisis_aborted));
             disableAlert();
-            startEmergencyAlertHandlerActivity(EmergencyAlertStatus.ABORTED);
-            activity.findViewById(R.id.progressBar_cyclic).setVisibility(View.INVISIBLE);
+            EmergencyAlertDispatcher.dispatch(activity, bestLocation(), type, EmergencyAlertStatus.ABORTED, null, policy != null ? policy.getName() : null);
+            AlertLocationManager.getInstance(activity).relax();
             Log.i("message","CancelTimer method completed successfully.");
         } catch (Exception e) {
             e.printStackTrace();
             Log.i("message","Exception during CancelTimer method:" + e.getMessage());
             Toast.makeText(activity, activity.getString(R.string.exception), Toast.LENGTH_SHORT).show();
-            activity.findViewById(R.id.progressBar_cyclic).setVisibility(View.INVISIBLE);
         }
     }
 
+    // Fix acquired since the countdown started, if one arrived, otherwise the best fix cached by the
+    // AlertLocationManager, or the fix of the detection if none is available.
+    private Location bestLocation() {
+        AlertLocationManager alertLocationManager = AlertLocationManager.getInstance(activity);
+        Location countDownLocation = alertLocationManager.getBestLocationSince(startTime);
+        if (countDownLocation != null) {
+            return countDownLocation;
+        }
+        Location bestLocation = alertLocationManager.getBestLocation();
+        Log.i("message","No location fix since countdown start. Cached fix age: " + alertLocationManager.getBestLocationAge() + "ms");
+        return bestLocation != null ? bestLocation : location;
+    }
+
     // Disables the alarm sound.
     private void disableAlert() {
         Log.i("message","DisableAlert method started.");
         try {
             abortButton.setEnabled(false);
-            if (mediaPlayer.isPlaying()) {
-                mediaPlayer.pause();
-                mediaPlayer.seekTo(0);
-            }
+            alarmPlayer.stop();
             Log.i("message","DisableAlert method completed successfully.");
         } catch (Exception e) {
             e.printStackTrace();
@@ -139,17 +202,18 @@ public class CountDown extends CountDownTimer {
         }
     }
 
-    public Boolean isRunning() {
-        return running;
+    // Preloads the alarm sound, so playback starts without delay.
+    public void preloadAlarm() {
+        alarmPlayer.preload();
     }
 
-    // Emergency alert is reported by calling the EmergencyAlertHandler class.
-    private void startEmergencyAlertHandlerActivity(EmergencyAlertStatus status) {
-        Intent intent = new Intent(activity.getApplicationContext(), EmergencyAlertHandler.class);
-        intent.putExtra("location", location);
-        intent.putExtra("type", type);
-        intent.putExtra("status", status);
-        activity.startActivity(intent);
+    // Releases the alarm sound resources.
+    public void releaseAlarm() {
+        alarmPlayer.release();
+    }
+
+    public Boolean isRunning() {
+        return running;
     }
 
 }
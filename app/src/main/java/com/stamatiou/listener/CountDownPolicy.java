@@ -0,0 +1,58 @@
+// -------------------------------------------------------------
+//
+// This auxiliary class defines the countdown duration policies.
+// Policy is selected based on the Emergency Alert type and the
+// detector confidence, so confirmed emergencies notify the user's
+// emergency contacts sooner, while uncertain ones can still be aborted.
+//
+// Author: Aggelos Stamatiou, September 2020
+//
+// --------------------------------------------------------------
+
+package com.stamatiou.listener;
+
+import com.stamatiou.entities.EmergencyAlertType;
+
+public class CountDownPolicy {
+
+    public static final CountDownPolicy FALL_DEFAULT = new CountDownPolicy("FALL_DEFAULT", 30000);
+    public static final CountDownPolicy FALL_INACTIVITY_CONFIRMED = new CountDownPolicy("FALL_INACTIVITY_CONFIRMED", 10000);
+    public static final CountDownPolicy EARTHQUAKE_DEFAULT = new CountDownPolicy("EARTHQUAKE_DEFAULT", 30000);
+    public static final CountDownPolicy EARTHQUAKE_CONFIRMED = new CountDownPolicy("EARTHQUAKE_CONFIRMED", 10000);
+    public static final CountDownPolicy DEFAULT = new CountDownPolicy("DEFAULT", 30000);
+
+    private static final double FALL_CONFIRMED_CONFIDENCE = 0.9;
+    private static final double EARTHQUAKE_CONFIRMED_CONFIDENCE = 0.9;
+
+    private final String name;
+    private final long duration;
+
+    private CountDownPolicy(String name, long duration) {
+        this.name = name;
+        this.duration = duration;
+    }
+
+    // Selects the countdown policy of an emergency, based on its type and detector confidence (0 to 1).
+    public static CountDownPolicy select(EmergencyAlertType type, double confidence) {
+        if (type == EmergencyAlertType.FALL) {
+            return confidence >= FALL_CONFIRMED_CONFIDENCE ? FALL_INACTIVITY_CONFIRMED : FALL_DEFAULT;
+        } else if (type == EmergencyAlertType.EARTHQUAKE) {
+            return confidence >= EARTHQUAKE_CONFIRMED_CONFIDENCE ? EARTHQUAKE_CONFIRMED : EARTHQUAKE_DEFAULT;
+        }
+        return DEFAULT;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getDuration() {
+        return duration;
+    }
+
+    @Override
+    public String toString() {
+        return "CountDownPolicy{name=" + name + ", duration=" + duration + "}";
+    }
+
+}
@@ -0,0 +1,109 @@
+// -------------------------------------------------------------
+//
+// This auxiliary class implements a fast on-device fire/smoke
+// pre-screen of a captured photograph.
+// It works on a downsampled ARGB pixel buffer (primitive int[]),
+// combining flame color rules, a hue histogram of the saturated pixels
+// and a grey smoke rule into a confidence score from 0 to 1.
+// It is pure Java with no per-pixel allocation, so it runs in a few
+// milliseconds and can also be benchmarked on the JVM.
+// Instances reuse their buffers and are not thread-safe.
+//
+// Author: Aggelos Stamatiou, September 2020
+//
+// --------------------------------------------------------------
+
+package com.stamatiou.listener;
+
+public class FireImagePreScreen {
+
+    public static final int SAMPLE_WIDTH = 64;
+    public static final int SAMPLE_HEIGHT = 64;
+
+    private static final int HUE_BINS = 12;
+    private static final int WARM_HUE_BINS = 2;
+    private static final int FLAME_MIN_RED = 180;
+    private static final int FLAME_MAX_HUE = 65;
+    private static final int SATURATED_MIN_CHROMA = 60;
+    private static final int SMOKE_MAX_CHROMA = 30;
+    private static final int SMOKE_MIN_BRIGHTNESS = 80;
+    private static final int SMOKE_MAX_BRIGHTNESS = 220;
+    private static final double FLAME_SATURATION_RATIO = 0.05;
+    private static final double FLAME_PRESENCE_RATIO = 0.005;
+    private static final double SMOKE_SATURATION_RATIO = 0.3;
+    private static final double FLAME_WEIGHT = 0.6;
+    private static final double WARM_HUE_WEIGHT = 0.25;
+    private static final double SMOKE_WEIGHT = 0.15;
+
+    private final int[] hueHistogram = new int[HUE_BINS];
+    private final int[] sample = new int[SAMPLE_WIDTH * SAMPLE_HEIGHT];
+
+    // Scores an image of any size, by downsampling it first (nearest neighbour) to the sample size.
+    public double score(int[] pixels, int width, int height) {
+        for (int y = 0; y < SAMPLE_HEIGHT; y++) {
+            int sourceRow = (y * height / SAMPLE_HEIGHT) * width;
+            for (int x = 0; x < SAMPLE_WIDTH; x++) {
+                sample[y * SAMPLE_WIDTH + x] = pixels[sourceRow + x * width / SAMPLE_WIDTH];
+            }
+        }
+        return scoreSample(sample, SAMPLE_WIDTH * SAMPLE_HEIGHT);
+    }
+
+    // Scores an already downsampled pixel buffer of the given length.
+    public double scoreSample(int[] pixels, int length) {
+        if (length <= 0) {
+            return 0;
+        }
+        for (int i = 0; i < HUE_BINS; i++) {
+            hueHistogram[i] = 0;
+        }
+        int flamePixels = 0;
+        int smokePixels = 0;
+        int saturatedPixels = 0;
+        for (int i = 0; i < length; i++) {
+            int pixel = pixels[i];
+            int red = (pixel >> 16) & 0xff;
+            int green = (pixel >> 8) & 0xff;
+            int blue = pixel & 0xff;
+            int max = Math.max(red, Math.max(green, blue));
+            int min = Math.min(red, Math.min(green, blue));
+            int chroma = max - min;
+            if (chroma >= SATURATED_MIN_CHROMA) {
+                saturatedPixels++;
+                hueHistogram[hue(red, green, blue, max, chroma) * HUE_BINS / 360]++;
+                // Flame rule: bright red channel, R >= G > B, hue between red and yellow.
+                if (red >= FLAME_MIN_RED && red >= green && green > blue && 60 * (green - blue) <= FLAME_MAX_HUE * chroma) {
+                    flamePixels++;
+                }
+            } else if (chroma <= SMOKE_MAX_CHROMA && max >= SMOKE_MIN_BRIGHTNESS && max <= SMOKE_MAX_BRIGHTNESS) {
+                // Smoke rule: greyish pixels of medium brightness.
+                smokePixels++;
+            }
+        }
+        double flameRatio = (double) flamePixels / length;
+        double smokeRatio = (double) smokePixels / length;
+        int warmPixels = 0;
+        for (int i = 0; i < WARM_HUE_BINS; i++) {
+            warmPixels += hueHistogram[i];
+        }
+        double warmShare = saturatedPixels > 0 ? (double) warmPixels / saturatedPixels : 0;
+        double flameScore = Math.min(1, flameRatio / FLAME_SATURATION_RATIO);
+        double warmScore = warmShare * (flameRatio >= FLAME_PRESENCE_RATIO ? 1 : 0.3);
+        double smokeScore = Math.min(1, smokeRatio / SMOKE_SATURATION_RATIO);
+        return Math.min(1, FLAME_WEIGHT * flameScore + WARM_HUE_WEIGHT * warmScore + SMOKE_WEIGHT * smokeScore);
+    }
+
+    // Integer hue in degrees [0, 360) of a pixel with non-zero chroma.
+    private static int hue(int red, int green, int blue, int max, int chroma) {
+        int hue;
+        if (max == red) {
+            hue = 60 * (green - blue) / chroma;
+        } else if (max == green) {
+            hue = 120 + 60 * (blue - red) / chroma;
+        } else {
+            hue = 240 + 60 * (red - green) / chroma;
+        }
+        return hue < 0 ? hue + 360 : (hue >= 360 ? hue - 360 : hue);
+    }
+
+}
@@ -2,6 +2,17 @@
 //
 // This Activity is used to create Emergency Alert records of
 // Fire type, by submitting a photograph.
+// Camera application writes the full resolution photograph directly
+// to a FileProvider backed file, which is downscaled to fit the current
+// network's byte budget by the ImagePreparer, and handed to the persistent
+// ImageUploadQueue. Fire alert is dispatched without waiting for the upload,
+// and is patched with the on-device fire pre-screen confidence.
+// Images are stored under their content hash, and near-duplicates of an
+// image uploaded within the last minutes (by perceptual hash) are linked
+// to the stored image instead of being uploaded again.
+// Image processing and file IO run off the UI thread.
+// Activity finishes with RESULT_OK once the fire alert is dispatched,
+// and with RESULT_CANCELED otherwise.
 //
 // Author: Aggelos Stamatiou, September 2020
 //
@@ -9,9 +20,10 @@
 
 package com.stamatiou.listener;
 
+import android.content.Context;
 import android.content.Intent;
-import android.graphics.Bitmap;
 import android.location.Location;
+import android.net.Uri;
 import android.os.Bundle;
 import android.provider.MediaStore;
 import android.util.Log;
@@ -19,51 +31,97 @@ import android.widget.Toast;
 
 import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.core.content.FileProvider;
 
-import com.google.android.gms.tasks.OnFailureListener;
-import com.google.android.gms.tasks.OnSuccessListener;
 import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.storage.FirebaseStorage;
 import com.google.firebase.storage.StorageReference;
-import com.google.firebase.storage.UploadTask;
 import com.stamatiou.entities.EmergencyAlertStatus;
 import com.stamatiou.entities.EmergencyAlertType;
-import com.stamatiou.smartalert.EmergencyAlertHandler;
+import com.stamatiou.smartalert.AlertOutbox;
+import com.stamatiou.smartalert.EmergencyAlertDispatcher;
+import com.stamatiou.smartalert.ImageUploadQueue;
 import com.stamatiou.smartalert.R;
-import com.stamatiou.smartalert.SmartAlertActivity;
+import com.stamatiou.smartalert.WriteBatch;
 
-import java.io.ByteArrayOutputStream;
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import org.json.JSONException;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class FireListener extends AppCompatActivity {
 
     private static final int REQUEST_IMAGE_CAPTURE = 1;
+    private static final String IMAGES_DIRECTORY = "fire_images";
+    private static final long NEAR_DUPLICATE_WINDOW = 600000;
+    private static final int NEAR_DUPLICATE_MAX_DISTANCE = 10;
+    private static final ExecutorService ioExecutor = Executors.newSingleThreadExecutor();
+    private static final RecentImageIndex recentImages = new RecentImageIndex(NEAR_DUPLICATE_WINDOW, NEAR_DUPLICATE_MAX_DISTANCE);
     private StorageReference userImagesReference;
     private Location location;
-    private SimpleDateFormat fileNameFormatter = new SimpleDateFormat("yyMMdd_hh_mm_ss'.jpg'");
+    private File imageFile;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
-        fireListenerInit();
+        if (savedInstanceState != null && savedInstanceState.getString("imageFile") != null) {
+            // Activity was recreated while the camera application was open.
+            userImagesReference = FirebaseStorage.getInstance().getReference("images/" + FirebaseAuth.getInstance().getCurrentUser().getUid());
+            location = (Location) getIntent().getExtras().get("location");
+            imageFile = new File(savedInstanceState.getString("imageFile"));
+        } else {
+            fireListenerInit();
+        }
+    }
+
+    @Override
+    protected void onSaveInstanceState(@NonNull Bundle outState) {
+        super.onSaveInstanceState(outState);
+        if (imageFile != null) {
+            outState.putString("imageFile", imageFile.getAbsolutePath());
+        }
     }
 
     // Activity initialization method.
-    // Application executes an image capture intent, which open users camera.
+    // Photograph file is created in the background and
+    // application executes an image capture intent, which open users camera.
     public void fireListenerInit() {
         Log.i("message","FireListenerInit method started.");
         try {
             userImagesReference = FirebaseStorage.getInstance().getReference("images/" + FirebaseAuth.getInstance().getCurrentUser().getUid());
             location = (Location) getIntent().getExtras().get("location");
             if (location != null) {
-                Intent takePictureIntent = new Intent(MediaStore.ACTION_IMAGE_CAPTURE);
-                if (takePictureIntent.resolveActivity(getPackageManager()) != null) {
-                    startActivityForResult(takePictureIntent, REQUEST_IMAGE_CAPTURE);
-                }
+                File imagesDirectory = new File(getFilesDir(), IMAGES_DIRECTORY);
+                ioExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            if (!imagesDirectory.isDirectory() && !imagesDirectory.mkdirs()) {
+                                throw new IOException("Could not create directory " + imagesDirectory);
+                            }
+                            File file = File.createTempFile("fire_", ".jpg", imagesDirectory);
+                            runOnUiThread(new Runnable() {
+                                @Override
+                                public void run() {
+                                    startImageCapture(file);
+                                }
+                            });
+                        } catch (IOException e) {
+                            Log.i("message","Exception during photograph file creation:" + e.getMessage());
+                            runOnUiThread(new Runnable() {
+                                @Override
+                                public void run() {
+                                    Toast.makeText(getApplicationContext(), getString(R.string.exception), Toast.LENGTH_SHORT).show();
+                                    finish();
+                                }
+                            });
+                        }
+                    }
+                });
             } else {
                 Toast.makeText(this, getString(R.string.location_fire_event), Toast.LENGTH_SHORT).show();
-                SmartAlertActivity.disableProgressBar();
                 finish();
             }
             Log.i("message","FireListenerInit method completed successfully.");
@@ -74,58 +132,107 @@ public class FireListener extends AppCompatActivity {
         }
     }
 
+    // Executes the image capture intent.
+    // Camera application is granted write access to the photograph file, through the FileProvider.
+    private void startImageCapture(File file) {
+        Log.i("message","StartImageCapture method started.");
+        try {
+            imageFile = file;
+            Uri imageUri = FileProvider.getUriForFile(this, getPackageName() + ".fileprovider", imageFile);
+            Intent takePictureIntent = new Intent(MediaStore.ACTION_IMAGE_CAPTURE);
+            takePictureIntent.putExtra(MediaStore.EXTRA_OUTPUT, imageUri);
+            takePictureIntent.addFlags(Intent.FLAG_GRANT_WRITE_URI_PERMISSION);
+            if (takePictureIntent.resolveActivity(getPackageManager()) != null) {
+                startActivityForResult(takePictureIntent, REQUEST_IMAGE_CAPTURE);
+            }
+            Log.i("message","StartImageCapture method completed successfully.");
+        } catch (Exception e) {
+            e.printStackTrace();
+            Log.i("message","Exception during StartImageCapture method:" + e.getMessage());
+            Toast.makeText(this, getString(R.string.exception), Toast.LENGTH_SHORT).show();
+            deleteImageFile(file);
+            finish();
+        }
+    }
+
     // Image capture intent result processing.
-    // If user actually took a picture, file is uploaded to Firebase.
-    // Fire emergency alert is created.
+    // If user actually took a picture, fire emergency alert is created immediately,
+    // while the file is prepared and queued for upload to Firebase concurrently.
+    // Alert record is patched with the image path once the upload completes.
     @Override
     protected void onActivityResult(int requestCode, int resultCode, Intent data) {
         Log.i("message","OnActivityResult method started.");
         try {
             super.onActivityResult(requestCode, resultCode, data);
-            if (requestCode == REQUEST_IMAGE_CAPTURE && resultCode == RESULT_OK) {
+            if (requestCode == REQUEST_IMAGE_CAPTURE && resultCode == RESULT_OK && imageFile != null) {
                 Log.i("message","Fire report operation started.");
-                StorageReference imageRef = userImagesReference.child(fileNameFormatter.format(new Date()));
-                Bundle extras = data.getExtras();
-                Bitmap imageBitmap = (Bitmap) extras.get("data");
-                ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                imageBitmap.compress(Bitmap.CompressFormat.JPEG, 100, baos);
-                byte[] imageData = baos.toByteArray();
-                UploadTask uploadTask = imageRef.putBytes(imageData);
-                uploadTask.addOnFailureListener(new OnFailureListener() {
-                    @Override
-                    public void onFailure(@NonNull Exception exception) {
-                        Log.i("message","Exception during file upload:" + exception.getMessage());
-                        Toast.makeText(getApplicationContext(), getString(R.string.exception_file_upload), Toast.LENGTH_SHORT).show();
-                        SmartAlertActivity.disableProgressBar();
-                    }
-                }).addOnSuccessListener(new OnSuccessListener<UploadTask.TaskSnapshot>() {
-                    @Override
-                    public void onSuccess(UploadTask.TaskSnapshot taskSnapshot) {
-                        Log.i("message","File upload was successful!");
-                        startEmergencyAlertHandlerActivity(EmergencyAlertStatus.EXECUTED);
-                    }
-                });
+                String emergencyAlertKey = EmergencyAlertDispatcher.dispatch(getApplicationContext(), location, EmergencyAlertType.FIRE, EmergencyAlertStatus.EXECUTED, null, null);
+                if (emergencyAlertKey != null) {
+                    setResult(RESULT_OK);
+                    String uid = FirebaseAuth.getInstance().getCurrentUser().getUid();
+                    StorageReference imagesReference = userImagesReference;
+                    Context applicationContext = getApplicationContext();
+                    ImagePreparer.prepare(applicationContext, imageFile, new ImagePreparer.Callback() {
+                        @Override
+                        public void onImagePrepared(ImagePreparer.PreparedImage preparedImage) {
+                            try {
+                                AlertOutbox alertOutbox = AlertOutbox.getInstance(applicationContext);
+                                if (preparedImage.getFireConfidence() != null) {
+                                    alertOutbox.append(WriteBatch.forEmergencyAlertFireConfidence(uid, emergencyAlertKey, preparedImage.getFireConfidence()));
+                                }
+                                long now = System.currentTimeMillis();
+                                String duplicatePath = preparedImage.getPerceptualHash() != null ? recentImages.findNearDuplicate(preparedImage.getPerceptualHash(), now) : null;
+                                if (duplicatePath != null) {
+                                    Log.i("message","Near-duplicate image, linked to: " + duplicatePath);
+                                    alertOutbox.append(WriteBatch.forEmergencyAlertImage(uid, emergencyAlertKey, duplicatePath));
+                                    deleteImageFile(preparedImage.getFile());
+                                    return;
+                                }
+                                String imageName = (preparedImage.getContentHash() != null ? preparedImage.getContentHash() : emergencyAlertKey) + ".jpg";
+                                String imagePath = imagesReference.child(imageName).getPath();
+                                Long perceptualHash = preparedImage.getPerceptualHash();
+                                // Image is indexed only once it is stored, so near-duplicates never link to a failed upload.
+                                ImageUploadQueue.getInstance(applicationContext).enqueue(preparedImage.getFile(), imagePath, uid, emergencyAlertKey, perceptualHash == null ? null : new ImageUploadQueue.CompletionListener() {
+                                    @Override
+                                    public void onUploadCompleted(String storagePath) {
+                                        recentImages.add(perceptualHash, storagePath, System.currentTimeMillis());
+                                    }
+                                });
+                            } catch (JSONException e) {
+                                Log.i("message","Exception during prepared image processing:" + e.getMessage());
+                            }
+                        }
+                    });
+                } else {
+                    deleteImageFile(imageFile);
+                }
             } else {
                 Log.i("message","Fire report operation cancelled.");
-                startEmergencyAlertHandlerActivity(EmergencyAlertStatus.ABORTED);
+                deleteImageFile(imageFile);
+                EmergencyAlertDispatcher.dispatch(getApplicationContext(), location, EmergencyAlertType.FIRE, EmergencyAlertStatus.ABORTED, null, null);
             }
             Log.i("message","OnActivityResult method completed successfully.");
         } catch (Exception e) {
             e.printStackTrace();
             Log.i("message","Exception during OnActivityResult method:" + e.getMessage());
             Toast.makeText(this, getString(R.string.exception), Toast.LENGTH_SHORT).show();
-            SmartAlertActivity.disableProgressBar();
         }
         finish();
     }
 
-    // Emergency alert is reported by calling the EmergencyAlertHandler class.
-    private void startEmergencyAlertHandlerActivity(EmergencyAlertStatus status) {
-        Intent intent = new Intent(getApplicationContext(), EmergencyAlertHandler.class);
-        intent.putExtra("location", location);
-        intent.putExtra("type", EmergencyAlertType.FIRE);
-        intent.putExtra("status", status);
-        startActivity(intent);
+    // Photograph file is deleted in the background, once it is no longer needed.
+    private static void deleteImageFile(File file) {
+        if (file == null) {
+            return;
+        }
+        ioExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (file.exists() && !file.delete()) {
+                    Log.i("message","Photograph file could not be deleted: " + file);
+                }
+            }
+        });
     }
 
 }
@@ -0,0 +1,349 @@
+// -------------------------------------------------------------
+//
+// This auxiliary class prepares the fire photograph before upload.
+// Image is decoded directly at a target resolution (inSampleSize plus
+// density scaling) and JPEG quality is binary searched, so the encoded
+// file fits a byte budget selected by the current network bandwidth.
+// Decoded image is also pre-screened for fire or smoke by the
+// FireImagePreScreen and perceptually hashed, over a small downsampled
+// pixel buffer, and the prepared file is content hashed (SHA-256).
+// Decoded bitmap, pixel and encoding buffers are pooled and reused,
+// and all the work runs on a background executor.
+//
+// Author: Aggelos Stamatiou, September 2020
+//
+// --------------------------------------------------------------
+
+package com.stamatiou.listener;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.media.ExifInterface;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.stamatiou.smartalert.DeviceStateMonitor;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class ImagePreparer {
+
+    // Target long edge and byte budget of the prepared image, per network class.
+    public enum Profile {
+
+        UNMETERED(1920, 1500000),
+        FAST_CELLULAR(1600, 600000),
+        SLOW_CELLULAR(1280, 250000),
+        VERY_SLOW_CELLULAR(800, 100000);
+
+        private final int longEdge;
+        private final int byteBudget;
+
+        Profile(int longEdge, int byteBudget) {
+            this.longEdge = longEdge;
+            this.byteBudget = byteBudget;
+        }
+
+        public int getLongEdge() {
+            return longEdge;
+        }
+
+        public int getByteBudget() {
+            return byteBudget;
+        }
+    }
+
+    public interface Callback {
+        // Called on the main thread, with the prepared image, or the source image if preparation failed.
+        void onImagePrepared(PreparedImage preparedImage);
+    }
+
+    // Prepared file, along with its content hash and the pre-screen results.
+    // Hashes and fire confidence are null if they could not be computed.
+    public static class PreparedImage {
+
+        private final File file;
+        private final Boolean prepared;
+        private final String contentHash;
+        private final Long perceptualHash;
+        private final Double fireConfidence;
+
+        private PreparedImage(File file, Boolean prepared, String contentHash, Long perceptualHash, Double fireConfidence) {
+            this.file = file;
+            this.prepared = prepared;
+            this.contentHash = contentHash;
+            this.perceptualHash = perceptualHash;
+            this.fireConfidence = fireConfidence;
+        }
+
+        public File getFile() {
+            return file;
+        }
+
+        public Boolean getPrepared() {
+            return prepared;
+        }
+
+        public String getContentHash() {
+            return contentHash;
+        }
+
+        public Long getPerceptualHash() {
+            return perceptualHash;
+        }
+
+        public Double getFireConfidence() {
+            return fireConfidence;
+        }
+    }
+
+    private static final int MAX_QUALITY = 90;
+    private static final int MIN_QUALITY = 30;
+    private static final int MIN_LONG_EDGE = 480;
+    private static final int FAST_CELLULAR_KBPS = 5000;
+    private static final int SLOW_CELLULAR_KBPS = 500;
+
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private static final Handler mainHandler = new Handler(Looper.getMainLooper());
+    // Pools are only accessed by the executor thread.
+    private static SoftReference<Bitmap> bitmapPool = new SoftReference<>(null);
+    private static SoftReference<ByteArrayOutputStream> bufferPool = new SoftReference<>(null);
+    private static final byte[] hashBuffer = new byte[8192];
+    private static final int[] samplePixels = new int[FireImagePreScreen.SAMPLE_WIDTH * FireImagePreScreen.SAMPLE_HEIGHT];
+    private static final FireImagePreScreen fireImagePreScreen = new FireImagePreScreen();
+
+    private ImagePreparer() {}
+
+    // Prepares the source image in the background.
+    // Source file is replaced by the prepared one, on success.
+    public static void prepare(Context context, File source, Callback callback) {
+        Profile profile = selectProfile(context);
+        executor.execute(() -> {
+            PreparedImage preparedImage;
+            try {
+                preparedImage = prepare(source, profile);
+            } catch (Exception e) {
+                Log.i("message","Exception during image preparation:" + e.getMessage());
+                preparedImage = new PreparedImage(source, false, contentHash(source), null, null);
+            }
+            PreparedImage result = preparedImage;
+            mainHandler.post(() -> callback.onImagePrepared(result));
+        });
+    }
+
+    // Selects the preparation profile, based on the current network type and downstream bandwidth.
+    // Network state is read from the DeviceStateMonitor snapshot, without IPC calls.
+    public static Profile selectProfile(Context context) {
+        try {
+            DeviceStateMonitor.DeviceState state = DeviceStateMonitor.getInstance(context).getState();
+            if (!state.isConnected()) {
+                return Profile.VERY_SLOW_CELLULAR;
+            }
+            if (!state.isMetered()) {
+                return Profile.UNMETERED;
+            }
+            int downstreamKbps = state.getDownstreamKbps();
+            if (downstreamKbps >= FAST_CELLULAR_KBPS) {
+                return Profile.FAST_CELLULAR;
+            } else if (downstreamKbps >= SLOW_CELLULAR_KBPS) {
+                return Profile.SLOW_CELLULAR;
+            }
+            return Profile.VERY_SLOW_CELLULAR;
+        } catch (Exception e) {
+            Log.i("message","Exception during image profile selection:" + e.getMessage());
+            return Profile.SLOW_CELLULAR;
+        }
+    }
+
+    // Downscales and encodes the source image until it fits the profile byte budget.
+    // If the budget cannot be met at the minimum quality, the target resolution is reduced.
+    // First decoded bitmap is pre-screened for fire or smoke, and perceptually hashed.
+    private static PreparedImage prepare(File source, Profile profile) throws IOException {
+        long startTime = SystemClock.elapsedRealtime();
+        BitmapFactory.Options bounds = new BitmapFactory.Options();
+        bounds.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(source.getAbsolutePath(), bounds);
+        if (bounds.outWidth <= 0 || bounds.outHeight <= 0) {
+            throw new IOException("Image could not be decoded: " + source);
+        }
+        ByteArrayOutputStream buffer = buffer(profile.getByteBudget());
+        int longEdge = profile.getLongEdge();
+        int quality;
+        double fireConfidence = -1;
+        long perceptualHash = 0;
+        while (true) {
+            Bitmap bitmap = decode(source, bounds.outWidth, bounds.outHeight, longEdge);
+            if (fireConfidence < 0) {
+                sample(bitmap);
+                fireConfidence = preScreen();
+                perceptualHash = PerceptualHash.dHash(samplePixels, FireImagePreScreen.SAMPLE_WIDTH, FireImagePreScreen.SAMPLE_HEIGHT);
+            }
+            quality = encode(bitmap, profile.getByteBudget(), buffer);
+            if (buffer.size() <= profile.getByteBudget() || longEdge <= MIN_LONG_EDGE) {
+                break;
+            }
+            longEdge = Math.max(MIN_LONG_EDGE, longEdge * 3 / 4);
+        }
+        File prepared = new File(source.getParentFile(), "prepared_" + source.getName());
+        try (FileOutputStream outputStream = new FileOutputStream(prepared)) {
+            buffer.writeTo(outputStream);
+            outputStream.getFD().sync();
+        }
+        copyOrientation(source, prepared);
+        if (!source.delete()) {
+            Log.i("message","Source image could not be deleted: " + source);
+        }
+        String contentHash = contentHash(prepared);
+        Log.i("message","Metric image_prepare_ms=" + (SystemClock.elapsedRealtime() - startTime) + " profile=" + profile
+                        + " source=" + bounds.outWidth + "x" + bounds.outHeight + " long_edge=" + longEdge
+                        + " quality=" + quality + " bytes=" + buffer.size() + " fire_confidence=" + fireConfidence
+                        + " content_hash=" + contentHash + " perceptual_hash=" + Long.toHexString(perceptualHash));
+        return new PreparedImage(prepared, true, contentHash, perceptualHash, fireConfidence);
+    }
+
+    // Downsamples the bitmap pixels into the pooled sample buffer.
+    private static void sample(Bitmap bitmap) {
+        Bitmap sample = Bitmap.createScaledBitmap(bitmap, FireImagePreScreen.SAMPLE_WIDTH, FireImagePreScreen.SAMPLE_HEIGHT, true);
+        sample.getPixels(samplePixels, 0, FireImagePreScreen.SAMPLE_WIDTH, 0, 0, FireImagePreScreen.SAMPLE_WIDTH, FireImagePreScreen.SAMPLE_HEIGHT);
+        if (sample != bitmap) {
+            sample.recycle();
+        }
+    }
+
+    // Pre-screens the sample buffer for fire or smoke.
+    private static double preScreen() {
+        long startTime = SystemClock.elapsedRealtime();
+        double fireConfidence = fireImagePreScreen.scoreSample(samplePixels, samplePixels.length);
+        Log.i("message","Metric fire_prescreen_ms=" + (SystemClock.elapsedRealtime() - startTime) + " fire_confidence=" + fireConfidence);
+        return fireConfidence;
+    }
+
+    // Hex SHA-256 hash of the file content, or null if it could not be computed.
+    private static String contentHash(File file) {
+        try (FileInputStream inputStream = new FileInputStream(file)) {
+            MessageDigest messageDigest = MessageDigest.getInstance("SHA-256");
+            int read;
+            while ((read = inputStream.read(hashBuffer)) > 0) {
+                messageDigest.update(hashBuffer, 0, read);
+            }
+            StringBuilder contentHash = new StringBuilder();
+            for (byte b : messageDigest.digest()) {
+                contentHash.append(String.format("%02x", b));
+            }
+            return contentHash.toString();
+        } catch (IOException | NoSuchAlgorithmException e) {
+            Log.i("message","Exception during image content hashing:" + e.getMessage());
+            return null;
+        }
+    }
+
+    // Decodes the image with its long edge at most equal to the target.
+    // Power of two subsampling is applied by the decoder, and the remaining
+    // scaling through density, into the pooled bitmap when its allocation can hold the result.
+    private static Bitmap decode(File source, int width, int height, int targetLongEdge) throws IOException {
+        int sourceLongEdge = Math.max(width, height);
+        int sampleSize = 1;
+        while (sourceLongEdge / (sampleSize * 2) >= targetLongEdge) {
+            sampleSize *= 2;
+        }
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = sampleSize;
+        options.inMutable = true;
+        int sampledLongEdge = sourceLongEdge / sampleSize;
+        float scale = 1;
+        if (sampledLongEdge > targetLongEdge) {
+            options.inScaled = true;
+            options.inDensity = sampledLongEdge;
+            options.inTargetDensity = targetLongEdge;
+            scale = targetLongEdge / (float) sampledLongEdge;
+        }
+        // Decoder rounds the scaled dimensions, and decodes to ARGB_8888 (4 bytes per pixel).
+        long decodedBytes = 4L * (int) ((width / sampleSize) * scale + 0.5f) * (int) ((height / sampleSize) * scale + 0.5f);
+        Bitmap pooled = bitmapPool.get();
+        if (pooled != null && !pooled.isRecycled() && pooled.getAllocationByteCount() >= decodedBytes) {
+            options.inBitmap = pooled;
+        }
+        Bitmap bitmap = BitmapFactory.decodeFile(source.getAbsolutePath(), options);
+        if (bitmap == null && options.inBitmap != null) {
+            // Decoder does not throw when the pooled bitmap cannot be reused, it returns null.
+            options.inBitmap = null;
+            bitmap = BitmapFactory.decodeFile(source.getAbsolutePath(), options);
+        }
+        if (bitmap == null) {
+            throw new IOException("Image could not be decoded: " + source);
+        }
+        if (bitmap != pooled) {
+            if (pooled != null) {
+                pooled.recycle();
+            }
+            bitmapPool = new SoftReference<>(bitmap);
+        }
+        return bitmap;
+    }
+
+    // Binary searches the highest JPEG quality that fits the byte budget.
+    // Buffer holds the encoding of the returned quality.
+    private static int encode(Bitmap bitmap, int byteBudget, ByteArrayOutputStream buffer) {
+        buffer.reset();
+        bitmap.compress(Bitmap.CompressFormat.JPEG, MAX_QUALITY, buffer);
+        if (buffer.size() <= byteBudget) {
+            return MAX_QUALITY;
+        }
+        int low = MIN_QUALITY;
+        int high = MAX_QUALITY - 1;
+        int best = -1;
+        while (low <= high) {
+            int quality = (low + high) / 2;
+            buffer.reset();
+            bitmap.compress(Bitmap.CompressFormat.JPEG, quality, buffer);
+            if (buffer.size() <= byteBudget) {
+                best = quality;
+                low = quality + 1;
+            } else {
+                high = quality - 1;
+            }
+        }
+        int quality = best >= 0 ? best : MIN_QUALITY;
+        buffer.reset();
+        bitmap.compress(Bitmap.CompressFormat.JPEG, quality, buffer);
+        return quality;
+    }
+
+    // Returns the pooled encoding buffer, sized after the byte budget.
+    private static ByteArrayOutputStream buffer(int byteBudget) {
+        ByteArrayOutputStream buffer = bufferPool.get();
+        if (buffer == null) {
+            buffer = new ByteArrayOutputStream(byteBudget + byteBudget / 4);
+            bufferPool = new SoftReference<>(buffer);
+        }
+        buffer.reset();
+        return buffer;
+    }
+
+    // Decoding drops the EXIF metadata, so the camera orientation is copied to the prepared image.
+    private static void copyOrientation(File source, File prepared) {
+        try {
+            String orientation = new ExifInterface(source.getAbsolutePath()).getAttribute(ExifInterface.TAG_ORIENTATION);
+            if (orientation != null) {
+                ExifInterface preparedExif = new ExifInterface(prepared.getAbsolutePath());
+                preparedExif.setAttribute(ExifInterface.TAG_ORIENTATION, orientation);
+                preparedExif.saveAttributes();
+            }
+        } catch (IOException e) {
+            Log.i("message","Image orientation could not be copied:" + e.getMessage());
+        }
+    }
+
+}
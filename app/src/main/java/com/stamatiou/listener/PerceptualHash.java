@@ -0,0 +1,59 @@
+// -------------------------------------------------------------
+//
+// This auxiliary class computes the difference hash (dHash) of an
+// image, a 64 bit perceptual hash which changes little between
+// repeated shots of the same scene.
+// Image is reduced to a 9x8 grey grid, and each bit records whether
+// a cell is brighter than its right neighbour. Near-duplicate images
+// have hashes within a small Hamming distance.
+// It is pure Java and works on a downsampled ARGB pixel buffer.
+//
+// Author: Aggelos Stamatiou, September 2020
+//
+// --------------------------------------------------------------
+
+package com.stamatiou.listener;
+
+public class PerceptualHash {
+
+    private static final int GRID_WIDTH = 9;
+    private static final int GRID_HEIGHT = 8;
+
+    private PerceptualHash() {}
+
+    // Computes the dHash of an ARGB pixel buffer, box averaging it to the 9x8 grid.
+    public static long dHash(int[] pixels, int width, int height) {
+        long hash = 0;
+        long[] row = new long[GRID_WIDTH];
+        for (int gridY = 0; gridY < GRID_HEIGHT; gridY++) {
+            int startY = gridY * height / GRID_HEIGHT;
+            int endY = Math.max(startY + 1, (gridY + 1) * height / GRID_HEIGHT);
+            for (int gridX = 0; gridX < GRID_WIDTH; gridX++) {
+                int startX = gridX * width / GRID_WIDTH;
+                int endX = Math.max(startX + 1, (gridX + 1) * width / GRID_WIDTH);
+                long sum = 0;
+                for (int y = startY; y < endY; y++) {
+                    for (int x = startX; x < endX; x++) {
+                        sum += luminance(pixels[y * width + x]);
+                    }
+                }
+                row[gridX] = sum / ((long) (endY - startY) * (endX - startX));
+            }
+            for (int gridX = 0; gridX < GRID_WIDTH - 1; gridX++) {
+                hash = (hash << 1) | (row[gridX] > row[gridX + 1] ? 1 : 0);
+            }
+        }
+        return hash;
+    }
+
+    // Number of differing bits between two hashes.
+    public static int distance(long hash, long otherHash) {
+        return Long.bitCount(hash ^ otherHash);
+    }
+
+    // Integer luminance (ITU-R BT.601) of an ARGB pixel, scaled by 1000.
+    private static int luminance(int pixel) {
+        return 299 * ((pixel >> 16) & 0xff) + 587 * ((pixel >> 8) & 0xff) + 114 * (pixel & 0xff);
+    }
+
+}
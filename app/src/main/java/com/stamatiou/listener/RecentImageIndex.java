@@ -0,0 +1,72 @@
+// -------------------------------------------------------------
+//
+// This auxiliary class keeps the perceptual hashes of the images
+// reported within a short time window, along with their storage paths,
+// so near-duplicate shots of the same scene can be linked to the
+// already stored image instead of being uploaded again.
+//
+// Author: Aggelos Stamatiou, September 2020
+//
+// --------------------------------------------------------------
+
+package com.stamatiou.listener;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+
+public class RecentImageIndex {
+
+    private static class Entry {
+
+        private final long perceptualHash;
+        private final String storagePath;
+        private final long timestamp;
+
+        private Entry(long perceptualHash, String storagePath, long timestamp) {
+            this.perceptualHash = perceptualHash;
+            this.storagePath = storagePath;
+            this.timestamp = timestamp;
+        }
+    }
+
+    private final long window;
+    private final int maxDistance;
+    private final Deque<Entry> entries;
+
+    // Images within the time window (ms) and Hamming distance of each other are near-duplicates.
+    public RecentImageIndex(long window, int maxDistance) {
+        this.window = window;
+        this.maxDistance = maxDistance;
+        this.entries = new ArrayDeque<>();
+    }
+
+    // Returns the storage path of the closest recent near-duplicate, or null if there is none.
+    public synchronized String findNearDuplicate(long perceptualHash, long timestamp) {
+        evict(timestamp);
+        String storagePath = null;
+        int closestDistance = maxDistance + 1;
+        for (Entry entry : entries) {
+            int distance = PerceptualHash.distance(perceptualHash, entry.perceptualHash);
+            if (distance < closestDistance) {
+                closestDistance = distance;
+                storagePath = entry.storagePath;
+            }
+        }
+        return storagePath;
+    }
+
+    public synchronized void add(long perceptualHash, String storagePath, long timestamp) {
+        evict(timestamp);
+        entries.addLast(new Entry(perceptualHash, storagePath, timestamp));
+    }
+
+    // Removes the entries older than the time window.
+    private void evict(long timestamp) {
+        Iterator<Entry> iterator = entries.iterator();
+        while (iterator.hasNext() && iterator.next().timestamp < timestamp - window) {
+            iterator.remove();
+        }
+    }
+
+}
@@ -0,0 +1,33 @@
+// -------------------------------------------------------------
+//
+// This interface represents a channel used to notify user's
+// emergency contacts for an Emergency Alert (e.g. SMS, database
+// notification or local notification).
+// Each channel reports asynchronously whether notification succeeded.
+//
+// Author: Aggelos Stamatiou, September 2020
+//
+// --------------------------------------------------------------
+
+package com.stamatiou.smartalert;
+
+import com.stamatiou.entities.EmergencyAlert;
+import com.stamatiou.entities.EmergencyContact;
+
+import java.util.List;
+
+public interface AlertChannel {
+
+    interface Callback {
+        void onComplete(Boolean success);
+    }
+
+    String getName();
+
+    // Whether the channel reaches the emergency contacts themselves.
+    // Only such channels define the alert's time-to-notify.
+    Boolean notifiesContacts();
+
+    void send(String emergencyAlertKey, EmergencyAlert emergencyAlert, List<EmergencyContact> emergencyContacts, Callback callback);
+
+}
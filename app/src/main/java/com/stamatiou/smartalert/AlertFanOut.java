@@ -0,0 +1,185 @@
+// -------------------------------------------------------------
+//
+// This auxiliary class sends an Emergency Alert over multiple
+// AlertChannels concurrently.
+// Latency and success of each channel are tracked, while the first
+// channel to reach the emergency contacts defines the alert's time-to-notify.
+// Channels that do not complete within the fan out timeout are marked
+// as failed, so the fan out always completes.
+// Class does not depend on Android, so channels can be replaced by
+// local stand-in implementations.
+//
+// Author: Aggelos Stamatiou, September 2020
+//
+// --------------------------------------------------------------
+
+package com.stamatiou.smartalert;
+
+import com.stamatiou.entities.EmergencyAlert;
+import com.stamatiou.entities.EmergencyContact;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+public class AlertFanOut {
+
+    private static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "alert-fan-out-timeout");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final List<AlertChannel> channels;
+    private final long timeout;
+
+    // Result of a single channel.
+    public static class ChannelResult {
+
+        private final String name;
+        private final Long latency;
+        private final Boolean success;
+        private final Boolean timedOut;
+
+        private ChannelResult(String name, Long latency, Boolean success, Boolean timedOut) {
+            this.name = name;
+            this.latency = latency;
+            this.success = success;
+            this.timedOut = timedOut;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public Long getLatency() {
+            return latency;
+        }
+
+        public Boolean getSuccess() {
+            return success;
+        }
+
+        public Boolean getTimedOut() {
+            return timedOut;
+        }
+
+        @Override
+        public String toString() {
+            return "ChannelResult{name=" + name + ", latency=" + latency + ", success=" + success + ", timedOut=" + timedOut + "}";
+        }
+    }
+
+    // Callback used to inform the caller when every channel has completed or timed out.
+    // Time-to-notify and first channel are null, if no channel reached the emergency contacts.
+    // Callback may be invoked on a channel's thread or on the timeout thread.
+    public interface Callback {
+        void onFanOutCompleted(Long timeToNotify, String firstChannel, List<ChannelResult> results);
+    }
+
+    // Timeout is given in milliseconds.
+    public AlertFanOut(List<AlertChannel> channels, long timeout) {
+        this.channels = channels;
+        this.timeout = timeout;
+    }
+
+    // Sends the alert over every channel, without waiting for any of them.
+    public void dispatch(String emergencyAlertKey, EmergencyAlert emergencyAlert, List<EmergencyContact> emergencyContacts, Callback callback) {
+        if (channels.isEmpty() && callback != null) {
+            callback.onFanOutCompleted(null, null, new ArrayList<>());
+            return;
+        }
+        FanOut fanOut = new FanOut(callback);
+        fanOut.timeoutFuture = scheduler.schedule(fanOut::onTimeout, timeout, TimeUnit.MILLISECONDS);
+        for (int i = 0; i < channels.size(); i++) {
+            final int index = i;
+            try {
+                channels.get(i).send(emergencyAlertKey, emergencyAlert, emergencyContacts, success -> fanOut.onChannelCompleted(index, success));
+            } catch (Exception e) {
+                fanOut.onChannelCompleted(index, false);
+            }
+        }
+    }
+
+    // State of a single alert fan out.
+    private class FanOut {
+
+        private final Callback callback;
+        private final long startTime;
+        private final ChannelResult[] results;
+        private int remaining;
+        private Long timeToNotify;
+        private String firstChannel;
+        private ScheduledFuture<?> timeoutFuture;
+
+        private FanOut(Callback callback) {
+            this.callback = callback;
+            this.startTime = System.nanoTime();
+            this.results = new ChannelResult[channels.size()];
+            this.remaining = channels.size();
+        }
+
+        // Records the channel result. Repeated and late results of the same channel are ignored.
+        // Local channels are reported, but do not define the time-to-notify.
+        private void onChannelCompleted(int index, Boolean success) {
+            List<ChannelResult> completedResults;
+            synchronized (this) {
+                if (results[index] != null) {
+                    return;
+                }
+                long latency = (System.nanoTime() - startTime) / 1000000;
+                AlertChannel channel = channels.get(index);
+                results[index] = new ChannelResult(channel.getName(), latency, success != null && success, false);
+                if (results[index].getSuccess() && channel.notifiesContacts() && timeToNotify == null) {
+                    timeToNotify = latency;
+                    firstChannel = results[index].getName();
+                }
+                if (--remaining > 0) {
+                    return;
+                }
+                completedResults = collectResults();
+            }
+            complete(completedResults);
+        }
+
+        // Marks every pending channel as failed.
+        private void onTimeout() {
+            List<ChannelResult> completedResults;
+            synchronized (this) {
+                if (remaining == 0) {
+                    return;
+                }
+                long latency = (System.nanoTime() - startTime) / 1000000;
+                for (int i = 0; i < results.length; i++) {
+                    if (results[i] == null) {
+                        results[i] = new ChannelResult(channels.get(i).getName(), latency, false, true);
+                    }
+                }
+                remaining = 0;
+                completedResults = collectResults();
+            }
+            complete(completedResults);
+        }
+
+        private List<ChannelResult> collectResults() {
+            List<ChannelResult> completedResults = new ArrayList<>();
+            for (ChannelResult result : results) {
+                completedResults.add(result);
+            }
+            return completedResults;
+        }
+
+        private void complete(List<ChannelResult> completedResults) {
+            if (timeoutFuture != null) {
+                timeoutFuture.cancel(false);
+            }
+            if (callback != null) {
+                callback.onFanOutCompleted(timeToNotify, firstChannel, completedResults);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,203 @@
+// -------------------------------------------------------------
+//
+// This auxiliary class acquires the user's location for Emergency Alerts,
+// through the fused location provider.
+// While monitoring is idle, balanced power updates are requested at a low
+// rate; when a countdown starts, updates are escalated to high accuracy,
+// and relaxed again once the alert is dispatched or aborted.
+// Best fix is cached, with its age and accuracy, so alerts always attach
+// the best available location without keeping GPS on constantly; a fix
+// acquired after a given time (e.g. a countdown start) can be requested.
+// Location permissions are required.
+//
+// Author: Aggelos Stamatiou, September 2020
+//
+// --------------------------------------------------------------
+
+package com.stamatiou.smartalert;
+
+import android.annotation.SuppressLint;
+import android.content.Context;
+import android.location.Location;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.google.android.gms.location.FusedLocationProviderClient;
+import com.google.android.gms.location.LocationAvailability;
+import com.google.android.gms.location.LocationCallback;
+import com.google.android.gms.location.LocationRequest;
+import com.google.android.gms.location.LocationResult;
+import com.google.android.gms.location.LocationServices;
+
+public class AlertLocationManager {
+
+    public interface Listener {
+        void onLocationAvailabilityChanged(Boolean available);
+    }
+
+    private static final long IDLE_INTERVAL = 60000;
+    private static final long IDLE_FASTEST_INTERVAL = 15000;
+    private static final float IDLE_SMALLEST_DISPLACEMENT = 25;
+    private static final long ESCALATED_INTERVAL = 2000;
+    private static final long ESCALATED_FASTEST_INTERVAL = 1000;
+    private static final long STALE_FIX_AGE = 120000;
+    private static final float ACCURACY_TOLERANCE = 50;
+    private static AlertLocationManager instance;
+
+    private final FusedLocationProviderClient fusedLocationProviderClient;
+    private final LocationCallback locationCallback;
+    private Listener listener;
+    private Location bestLocation;
+    private Location latestLocation;
+    private Boolean started;
+    private Boolean escalated;
+
+    private AlertLocationManager(Context context) {
+        this.fusedLocationProviderClient = LocationServices.getFusedLocationProviderClient(context);
+        this.started = false;
+        this.escalated = false;
+        this.locationCallback = new LocationCallback() {
+            @Override
+            public void onLocationResult(LocationResult locationResult) {
+                for (Location location : locationResult.getLocations()) {
+                    offer(location);
+                }
+            }
+
+            @Override
+            public void onLocationAvailability(LocationAvailability locationAvailability) {
+                if (listener != null) {
+                    listener.onLocationAvailabilityChanged(locationAvailability.isLocationAvailable());
+                }
+            }
+        };
+    }
+
+    public static synchronized AlertLocationManager getInstance(Context context) {
+        if (instance == null) {
+            instance = new AlertLocationManager(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    // Clears the listener, unless another one has been set meanwhile.
+    public void removeListener(Listener listener) {
+        if (this.listener == listener) {
+            this.listener = null;
+        }
+    }
+
+    // Starts the idle location updates, seeded with the last known location.
+    // Location permissions must be granted. Starting again has no effect.
+    @SuppressLint("MissingPermission")
+    public synchronized void start() {
+        if (started) {
+            return;
+        }
+        started = true;
+        Log.i("message","AlertLocationManager started.");
+        fusedLocationProviderClient.getLastLocation().addOnSuccessListener(location -> {
+            if (location != null) {
+                offer(location);
+            }
+        });
+        requestUpdates();
+    }
+
+    public synchronized void stop() {
+        if (!started) {
+            return;
+        }
+        started = false;
+        escalated = false;
+        fusedLocationProviderClient.removeLocationUpdates(locationCallback);
+        Log.i("message","AlertLocationManager stopped.");
+    }
+
+    // Escalates to high accuracy updates, when a countdown starts.
+    public synchronized void escalate() {
+        if (started && !escalated) {
+            escalated = true;
+            requestUpdates();
+        }
+    }
+
+    // Returns to balanced power updates, once the alert is dispatched or aborted.
+    public synchronized void relax() {
+        if (started && escalated) {
+            escalated = false;
+            requestUpdates();
+        }
+    }
+
+    // Best available fix, or null if no fix was acquired yet.
+    public synchronized Location getBestLocation() {
+        return bestLocation;
+    }
+
+    // Best fix acquired at or after the given time (SystemClock.elapsedRealtime), or the latest one
+    // if the best fix is older, or null if no fix was acquired since.
+    public synchronized Location getBestLocationSince(long elapsedRealtime) {
+        long since = elapsedRealtime * 1000000;
+        if (bestLocation != null && bestLocation.getElapsedRealtimeNanos() >= since) {
+            return bestLocation;
+        }
+        if (latestLocation != null && latestLocation.getElapsedRealtimeNanos() >= since) {
+            return latestLocation;
+        }
+        return null;
+    }
+
+    // Age of the best fix, in milliseconds, or Long.MAX_VALUE if no fix was acquired yet.
+    public synchronized long getBestLocationAge() {
+        return bestLocation != null ? age(bestLocation) : Long.MAX_VALUE;
+    }
+
+    // Requesting updates with the same callback replaces the previous request.
+    @SuppressLint("MissingPermission")
+    private void requestUpdates() {
+        LocationRequest locationRequest = LocationRequest.create();
+        if (escalated) {
+            locationRequest.setPriority(LocationRequest.PRIORITY_HIGH_ACCURACY)
+                           .setInterval(ESCALATED_INTERVAL)
+                           .setFastestInterval(ESCALATED_FASTEST_INTERVAL);
+        } else {
+            locationRequest.setPriority(LocationRequest.PRIORITY_BALANCED_POWER_ACCURACY)
+                           .setInterval(IDLE_INTERVAL)
+                           .setFastestInterval(IDLE_FASTEST_INTERVAL)
+                           .setSmallestDisplacement(IDLE_SMALLEST_DISPLACEMENT);
+        }
+        fusedLocationProviderClient.requestLocationUpdates(locationRequest, locationCallback, Looper.getMainLooper());
+        Log.i("message","Location updates requested. Escalated: " + escalated);
+    }
+
+    // Keeps the fix, if it is better than the cached one:
+    // a newer fix wins, unless it is much less accurate while the cached fix is still fresh.
+    private synchronized void offer(Location location) {
+        if (latestLocation == null || location.getElapsedRealtimeNanos() > latestLocation.getElapsedRealtimeNanos()) {
+            latestLocation = location;
+        }
+        if (bestLocation == null || !bestLocation.hasAccuracy()) {
+            bestLocation = location;
+            return;
+        }
+        if (age(location) >= age(bestLocation)) {
+            return;
+        }
+        Boolean stale = age(bestLocation) > STALE_FIX_AGE;
+        Boolean accurateEnough = location.hasAccuracy() && location.getAccuracy() <= bestLocation.getAccuracy() + ACCURACY_TOLERANCE;
+        if (stale || accurateEnough) {
+            bestLocation = location;
+        }
+    }
+
+    private static long age(Location location) {
+        return (SystemClock.elapsedRealtimeNanos() - location.getElapsedRealtimeNanos()) / 1000000;
+    }
+
+}
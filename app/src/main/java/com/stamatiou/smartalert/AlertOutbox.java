@@ -0,0 +1,280 @@
+// -------------------------------------------------------------
+//
+// This auxiliary class implements a durable outbox for the records
+// generated during an emergency: Emergency Alerts, Detections and
+// image references.
+// Records are appended to a local write-ahead log file as write batches,
+// so they survive application kill and offline periods, and are flushed
+// to Firebase in batched multi-path updates when connectivity is available.
+// Each batch carries an idempotency key (its Firebase push key), and is
+// never split across updates, so every event is written atomically.
+// Entries carry a format version, and entries of unknown versions are
+// skipped on replay.
+// Log file is only accessed by a single-thread executor, so synced appends
+// never block the caller (e.g. the main thread), and keep their order.
+// Failed flushes are retried with exponential backoff. Updates rejected by
+// the database rules are retried one batch at a time, and a batch rejected
+// on its own is acknowledged as rejected, so it never blocks later batches.
+//
+// Author: Aggelos Stamatiou, September 2020
+//
+// --------------------------------------------------------------
+
+package com.stamatiou.smartalert;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.FirebaseDatabase;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class AlertOutbox {
+
+    private static final String OUTBOX_FILE_NAME = "alert_outbox.log";
+    private static final int FLUSH_BATCH_SIZE = 100;
+    private static final long INITIAL_RETRY_DELAY = 5000;
+    private static final long MAX_RETRY_DELAY = 300000;
+    private static AlertOutbox instance;
+
+    private final File outboxFile;
+    private final DatabaseReference rootReference;
+    private final ExecutorService logExecutor;
+    private final Handler handler;
+    private final LinkedHashMap<String, JSONObject> pendingEntries;
+    private Boolean flushing;
+    private Boolean retryScheduled;
+    private int failedAttempts;
+    private int isolatedEntries;
+
+    private AlertOutbox(Context context) {
+        this.outboxFile = new File(context.getFilesDir(), OUTBOX_FILE_NAME);
+        this.rootReference = FirebaseDatabase.getInstance().getReference();
+        this.pendingEntries = new LinkedHashMap<>();
+        this.flushing = false;
+        this.retryScheduled = false;
+        this.failedAttempts = 0;
+        this.isolatedEntries = 0;
+        this.handler = new Handler(Looper.getMainLooper());
+        this.logExecutor = Executors.newSingleThreadExecutor();
+        logExecutor.execute(() -> {
+            replay();
+            flush();
+        });
+        ((ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE)).registerDefaultNetworkCallback(new ConnectivityManager.NetworkCallback() {
+            @Override
+            public void onAvailable(@NonNull Network network) {
+                flush();
+            }
+        });
+    }
+
+    public static synchronized AlertOutbox getInstance(Context context) {
+        if (instance == null) {
+            instance = new AlertOutbox(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    // Generates a new idempotency key.
+    // Firebase push keys are generated locally, so no network access is required.
+    public String newKey() {
+        return rootReference.push().getKey();
+    }
+
+    // Appends a write batch to the write-ahead log and schedules a flush.
+    // Batch is serialized on the calling thread, and is written in the append order on the log executor.
+    // Batch key is used as its idempotency key.
+    public void append(WriteBatch writeBatch) {
+        JSONObject entry;
+        try {
+            entry = writeBatch.toJSON();
+        } catch (JSONException e) {
+            Log.i("message","Exception during outbox append:" + e.getMessage());
+            return;
+        }
+        logExecutor.execute(() -> {
+            writeLine(entry);
+            synchronized (AlertOutbox.this) {
+                pendingEntries.put(writeBatch.getKey(), entry);
+            }
+            Log.i("message","Outbox entry appended: " + writeBatch.getKey());
+            flush();
+        });
+    }
+
+    // Flushes pending entries to Firebase, using a single multi-path update per batch.
+    // While rejected entries are isolated, each update carries a single batch.
+    // Acknowledged entries are recorded in the log, so they are not replayed.
+    public synchronized void flush() {
+        if (flushing || pendingEntries.isEmpty()) {
+            return;
+        }
+        flushing = true;
+        int batchSize = isolatedEntries > 0 ? 1 : FLUSH_BATCH_SIZE;
+        Map<String, Object> updates = new HashMap<>();
+        List<String> keys = new ArrayList<>();
+        Iterator<JSONObject> iterator = pendingEntries.values().iterator();
+        while (iterator.hasNext() && keys.size() < batchSize) {
+            JSONObject entry = iterator.next();
+            try {
+                if (!WriteBatch.addUpdates(entry, updates)) {
+                    // Overlapping batch is flushed with the next update, preserving the append order.
+                    break;
+                }
+                keys.add(entry.getString("key"));
+            } catch (JSONException | IllegalArgumentException e) {
+                Log.i("message","Dropping malformed outbox entry:" + e.getMessage());
+                iterator.remove();
+            }
+        }
+        if (updates.isEmpty()) {
+            flushing = false;
+            return;
+        }
+        Log.i("message","Flushing " + keys.size() + " outbox entries...");
+        rootReference.updateChildren(updates, new DatabaseReference.CompletionListener() {
+            @Override
+            public void onComplete(DatabaseError databaseError, @NonNull DatabaseReference databaseReference) {
+                synchronized (AlertOutbox.this) {
+                    flushing = false;
+                    if (databaseError != null) {
+                        Log.i("message","Outbox flush failed. Error: " + databaseError.toException());
+                        if (databaseError.getCode() != DatabaseError.PERMISSION_DENIED) {
+                            failedAttempts++;
+                            scheduleRetry();
+                            return;
+                        }
+                        if (keys.size() > 1) {
+                            Log.i("message","Outbox update rejected. Retrying " + keys.size() + " entries one at a time.");
+                            isolatedEntries = keys.size();
+                        } else {
+                            Log.i("message","Dropping rejected outbox entry: " + keys.get(0));
+                            pendingEntries.remove(keys.get(0));
+                            isolatedEntries = Math.max(0, isolatedEntries - 1);
+                            acknowledge(keys, true);
+                        }
+                    } else {
+                        for (String key : keys) {
+                            pendingEntries.remove(key);
+                        }
+                        isolatedEntries = Math.max(0, isolatedEntries - keys.size());
+                        failedAttempts = 0;
+                        Log.i("message","Outbox flush completed successfully.");
+                        acknowledge(keys, false);
+                    }
+                }
+                flush();
+            }
+        });
+    }
+
+    // Retries the flush after a transient failure, e.g. a dropped connection.
+    private synchronized void scheduleRetry() {
+        if (retryScheduled) {
+            return;
+        }
+        retryScheduled = true;
+        long delay = Math.min(MAX_RETRY_DELAY, INITIAL_RETRY_DELAY << Math.min(failedAttempts - 1, 16));
+        handler.postDelayed(() -> {
+            synchronized (AlertOutbox.this) {
+                retryScheduled = false;
+            }
+            flush();
+        }, delay);
+    }
+
+    // Records the acknowledged (or rejected) entries in the log, and truncates it once nothing is pending.
+    // Appends queued before the acknowledgement are already pending, so they are never truncated.
+    private void acknowledge(List<String> keys, Boolean rejected) {
+        logExecutor.execute(() -> {
+            for (String key : keys) {
+                try {
+                    JSONObject line = new JSONObject().put("ack", key);
+                    if (rejected) {
+                        line.put("rejected", true);
+                    }
+                    writeLine(line);
+                } catch (JSONException e) {
+                    Log.i("message","Exception during outbox acknowledgement:" + e.getMessage());
+                }
+            }
+            synchronized (AlertOutbox.this) {
+                if (pendingEntries.isEmpty()) {
+                    compact();
+                }
+            }
+        });
+    }
+
+    // Replays the write-ahead log, restoring entries that were not acknowledged.
+    private synchronized void replay() {
+        if (!outboxFile.exists()) {
+            return;
+        }
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(outboxFile), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                try {
+                    JSONObject entry = new JSONObject(line);
+                    if (entry.has("ack")) {
+                        pendingEntries.remove(entry.getString("ack"));
+                    } else {
+                        WriteBatch.checkVersion(entry);
+                        pendingEntries.put(entry.getString("key"), entry);
+                    }
+                } catch (JSONException e) {
+                    Log.i("message","Skipping incomplete outbox line:" + e.getMessage());
+                }
+            }
+            Log.i("message","Outbox replayed. Pending entries: " + pendingEntries.size());
+        } catch (IOException e) {
+            e.printStackTrace();
+            Log.i("message","Exception during outbox replay:" + e.getMessage());
+        }
+    }
+
+    // Appends a line to the write-ahead log, syncing it to disk.
+    private void writeLine(JSONObject line) {
+        try (FileOutputStream outputStream = new FileOutputStream(outboxFile, true)) {
+            outputStream.write((line.toString() + "\n").getBytes(StandardCharsets.UTF_8));
+            outputStream.getFD().sync();
+        } catch (IOException e) {
+            e.printStackTrace();
+            Log.i("message","Exception during outbox write:" + e.getMessage());
+        }
+    }
+
+    // Truncates the write-ahead log, once every entry has been acknowledged.
+    private void compact() {
+        if (!outboxFile.delete()) {
+            Log.i("message","Outbox compaction failed.");
+        }
+    }
+
+}
@@ -0,0 +1,266 @@
+// -------------------------------------------------------------
+//
+// This auxiliary class implements a keyed collection of records,
+// cached in the LocalCache SQLite database, per user.
+// Records are kept by their Firebase key, so they can be read in
+// key ranges (pages) and synchronized incrementally: only a trailing
+// window of the newest cached records, and the records after them,
+// are requested from Firebase, so recent patches are also picked up.
+// Collections are defined by a Mapper, so the same approach can serve
+// any keyed collection.
+// Blocking methods must be called off the main thread, e.g. through
+// read/write, which use the LocalCache executor.
+//
+// Author: Aggelos Stamatiou, September 2020
+//
+// --------------------------------------------------------------
+
+package com.stamatiou.smartalert;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.Query;
+import com.google.firebase.database.ValueEventListener;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class CachedCollection<T> {
+
+    // Maps records to table columns and back.
+    public interface Mapper<T> {
+
+        // Column definitions of the record, besides uid and key.
+        String getColumnsDefinition();
+
+        ContentValues toContentValues(T record);
+
+        T fromCursor(Cursor cursor);
+
+        Class<T> getType();
+    }
+
+    public interface Reader<R> {
+        R read();
+    }
+
+    public interface Callback<R> {
+        void onResult(R result);
+    }
+
+    private static final long QUERY_TIMEOUT = 15000;
+
+    private final LocalCache localCache;
+    private final String table;
+    private final Mapper<T> mapper;
+
+    CachedCollection(LocalCache localCache, String table, Mapper<T> mapper) {
+        this.localCache = localCache;
+        this.table = table;
+        this.mapper = mapper;
+    }
+
+    void createTable(SQLiteDatabase database) {
+        database.execSQL("CREATE TABLE " + table + " (uid TEXT NOT NULL, key TEXT NOT NULL, " + mapper.getColumnsDefinition() + ", PRIMARY KEY (uid, key))");
+    }
+
+    void dropTable(SQLiteDatabase database) {
+        database.execSQL("DROP TABLE IF EXISTS " + table);
+    }
+
+    // Reads in the background and returns the result on the main thread.
+    public <R> void read(Reader<R> reader, Callback<R> callback) {
+        localCache.execute(() -> {
+            R result = reader.read();
+            localCache.postToMain(() -> callback.onResult(result));
+        });
+    }
+
+    // Writes in the background.
+    public void write(Runnable writer) {
+        localCache.execute(writer);
+    }
+
+    // Newest records, sorted by key.
+    public LinkedHashMap<String, T> loadLatest(String uid, int limit) {
+        return reversed(load("uid = ?", new String[] {uid}, "key DESC", limit));
+    }
+
+    // Records before the key, sorted by key.
+    public LinkedHashMap<String, T> loadBefore(String uid, String key, int limit) {
+        return reversed(load("uid = ? AND key < ?", new String[] {uid, key}, "key DESC", limit));
+    }
+
+    // Records after the key, sorted by key.
+    public LinkedHashMap<String, T> loadAfter(String uid, String key, int limit) {
+        return load("uid = ? AND key > ?", new String[] {uid, key}, "key ASC", limit);
+    }
+
+    // All the records, sorted by key.
+    public LinkedHashMap<String, T> loadAll(String uid) {
+        return load("uid = ?", new String[] {uid}, "key ASC", 0);
+    }
+
+    public void putAll(String uid, Map<String, T> records) {
+        SQLiteDatabase database = localCache.getWritableDatabase();
+        database.beginTransaction();
+        try {
+            for (Map.Entry<String, T> record : records.entrySet()) {
+                ContentValues contentValues = mapper.toContentValues(record.getValue());
+                contentValues.put("uid", uid);
+                contentValues.put("key", record.getKey());
+                database.insertWithOnConflict(table, null, contentValues, SQLiteDatabase.CONFLICT_REPLACE);
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    public void remove(String uid, String key) {
+        localCache.getWritableDatabase().delete(table, "uid = ? AND key = ?", new String[] {uid, key});
+    }
+
+    // Replaces all the records of the user, e.g. after a full snapshot of a small collection.
+    public void replaceAll(String uid, Map<String, T> records) {
+        SQLiteDatabase database = localCache.getWritableDatabase();
+        database.beginTransaction();
+        try {
+            database.delete(table, "uid = ?", new String[] {uid});
+            putAll(uid, records);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    // Oldest key of the newest cached records (at most the window), or null if nothing is cached.
+    public String getWindowStartKey(String uid, int window) {
+        try (Cursor cursor = localCache.getReadableDatabase().query(table, new String[] {"key"}, "uid = ?", new String[] {uid}, null, null, "key DESC", String.valueOf(window))) {
+            return cursor.moveToLast() ? cursor.getString(0) : null;
+        }
+    }
+
+    // Removes the cached records from the key on, which are not among the given keys.
+    public void retainFrom(String uid, String key, Collection<String> keys) {
+        SQLiteDatabase database = localCache.getWritableDatabase();
+        database.beginTransaction();
+        try {
+            for (String cachedKey : load("uid = ? AND key >= ?", new String[] {uid, key}, "key ASC", 0).keySet()) {
+                if (!keys.contains(cachedKey)) {
+                    remove(uid, cachedKey);
+                }
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    // Whether the cached records reach back to the first record of the collection.
+    public Boolean isStartReached(String uid) {
+        return localCache.isStartReached(table, uid);
+    }
+
+    public void setStartReached(String uid) {
+        localCache.setStartReached(table, uid);
+    }
+
+    // Synchronizes the collection incrementally: the newest cached records (refresh window) and the records after them
+    // are requested, or only the newest records if nothing is cached yet, and stored.
+    // Records removed within the refresh window are removed from the cache too.
+    // Synchronized records are returned on the main thread, or the failure if Firebase could not be reached.
+    public void sync(DatabaseReference reference, String uid, int initialLimit, int refreshWindow, Callback<LinkedHashMap<String, T>> callback, Callback<Exception> failureCallback) {
+        read(() -> getWindowStartKey(uid, refreshWindow), startKey -> {
+            Query query = startKey != null ? reference.orderByKey().startAt(startKey) : reference.orderByKey().limitToLast(initialLimit);
+            query(query, dataSnapshot -> {
+                LinkedHashMap<String, T> records = toRecords(dataSnapshot);
+                Log.i("message","Cache " + table + " synchronized from key " + startKey + ". Records: " + records.size());
+                write(() -> {
+                    if (startKey != null) {
+                        retainFrom(uid, startKey, records.keySet());
+                    }
+                    putAll(uid, records);
+                    if (startKey == null && records.size() < initialLimit) {
+                        setStartReached(uid);
+                    }
+                });
+                callback.onResult(records);
+            }, exception -> {
+                Log.i("message","Cache " + table + " synchronization failed. Error: " + exception);
+                failureCallback.onResult(exception);
+            });
+        });
+    }
+
+    // Single value read of the query, which fails if Firebase does not respond in time,
+    // e.g. while offline, since single value events are not served from disk.
+    public void query(Query query, Callback<DataSnapshot> callback, Callback<Exception> failureCallback) {
+        AtomicBoolean settled = new AtomicBoolean(false);
+        query.addListenerForSingleValueEvent(new ValueEventListener() {
+            @Override
+            public void onDataChange(@NonNull DataSnapshot dataSnapshot) {
+                if (settled.compareAndSet(false, true)) {
+                    callback.onResult(dataSnapshot);
+                }
+            }
+
+            @Override
+            public void onCancelled(@NonNull DatabaseError databaseError) {
+                if (settled.compareAndSet(false, true)) {
+                    failureCallback.onResult(databaseError.toException());
+                }
+            }
+        });
+        localCache.postToMainDelayed(() -> {
+            if (settled.compareAndSet(false, true)) {
+                failureCallback.onResult(new TimeoutException("Query of " + table + " timed out."));
+            }
+        }, QUERY_TIMEOUT);
+    }
+
+    // Converts the children of a snapshot to records, sorted by key.
+    public LinkedHashMap<String, T> toRecords(DataSnapshot dataSnapshot) {
+        LinkedHashMap<String, T> records = new LinkedHashMap<>();
+        for (DataSnapshot record : dataSnapshot.getChildren()) {
+            records.put(record.getKey(), record.getValue(mapper.getType()));
+        }
+        return records;
+    }
+
+    private LinkedHashMap<String, T> load(String selection, String[] selectionArgs, String orderBy, int limit) {
+        LinkedHashMap<String, T> records = new LinkedHashMap<>();
+        try (Cursor cursor = localCache.getReadableDatabase().query(table, null, selection, selectionArgs, null, null, orderBy, limit > 0 ? String.valueOf(limit) : null)) {
+            int keyIndex = cursor.getColumnIndexOrThrow("key");
+            while (cursor.moveToNext()) {
+                records.put(cursor.getString(keyIndex), mapper.fromCursor(cursor));
+            }
+        }
+        return records;
+    }
+
+    private static <T> LinkedHashMap<String, T> reversed(LinkedHashMap<String, T> records) {
+        List<Map.Entry<String, T>> entries = new ArrayList<>(records.entrySet());
+        Collections.reverse(entries);
+        LinkedHashMap<String, T> reversedRecords = new LinkedHashMap<>();
+        for (Map.Entry<String, T> entry : entries) {
+            reversedRecords.put(entry.getKey(), entry.getValue());
+        }
+        return reversedRecords;
+    }
+
+}
@@ -0,0 +1,72 @@
+// -------------------------------------------------------------
+//
+// This AlertChannel notifies user's emergency contacts via Firebase.
+// A notification record is written under each emergency contact's
+// phone, in a single multi-path update, so the application of an
+// emergency contact can subscribe to its own notifications node.
+//
+// Author: Aggelos Stamatiou, September 2020
+//
+// --------------------------------------------------------------
+
+package com.stamatiou.smartalert;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.FirebaseDatabase;
+import com.stamatiou.entities.EmergencyAlert;
+import com.stamatiou.entities.EmergencyContact;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class DatabaseAlertChannel implements AlertChannel {
+
+    private final String uid;
+
+    public DatabaseAlertChannel(String uid) {
+        this.uid = uid;
+    }
+
+    @Override
+    public String getName() {
+        return "database";
+    }
+
+    @Override
+    public Boolean notifiesContacts() {
+        return true;
+    }
+
+    // Writes a notification record per emergency contact.
+    // Channel succeeds when Firebase acknowledges the update.
+    @Override
+    public void send(String emergencyAlertKey, EmergencyAlert emergencyAlert, List<EmergencyContact> emergencyContacts, Callback callback) {
+        Log.i("message","Database channel send started.");
+        Map<String, Object> notification = new HashMap<>();
+        notification.put("uid", uid);
+        notification.put("type", emergencyAlert.getType().name());
+        notification.put("latitude", emergencyAlert.getLatitude());
+        notification.put("longitude", emergencyAlert.getLongitude());
+        notification.put("timestamp", emergencyAlert.getTimestamp().getTime());
+        Map<String, Object> updates = new HashMap<>();
+        for (EmergencyContact emergencyContact : emergencyContacts) {
+            updates.put("alert_notifications/" + emergencyContact.getPhone() + "/" + emergencyAlertKey, notification);
+        }
+        FirebaseDatabase.getInstance().getReference().updateChildren(updates, new DatabaseReference.CompletionListener() {
+            @Override
+            public void onComplete(DatabaseError databaseError, @NonNull DatabaseReference databaseReference) {
+                if (databaseError != null) {
+                    Log.i("message","Database channel send failed. Error: " + databaseError.toException());
+                }
+                callback.onComplete(databaseError == null);
+            }
+        });
+    }
+
+}
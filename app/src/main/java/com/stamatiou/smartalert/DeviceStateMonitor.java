@@ -0,0 +1,278 @@
+// -------------------------------------------------------------
+//
+// This auxiliary class implements the app-wide monitor of the device's
+// connectivity and power state.
+// State is tracked through a default NetworkCallback and the sticky
+// battery broadcast, while there is at least one subscriber (reference
+// counted). Bursts of changes are debounced, and an immutable DeviceState
+// snapshot is published to the subscribers on the main thread, only when
+// connectivity, metering or charging change, or the battery level crosses
+// a 10% step. Bandwidth estimates and single percent battery changes are
+// tracked, but not published.
+// While there are subscribers, the latest snapshot is read without IPC
+// calls, e.g. by the earthquake mode switch and the image upload policies;
+// otherwise the state is read from the system services on demand.
+//
+// Author: Aggelos Stamatiou, September 2020
+//
+// --------------------------------------------------------------
+
+package com.stamatiou.smartalert;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.os.BatteryManager;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+public class DeviceStateMonitor {
+
+    public interface Listener {
+
+        // Called with the previous published state (null on subscription) and the current one.
+        void onDeviceStateChanged(DeviceState previousState, DeviceState state);
+    }
+
+    // Immutable snapshot of the device's connectivity and power state.
+    public static class DeviceState {
+
+        private final Boolean connected;
+        private final Boolean validated;
+        private final Boolean metered;
+        private final int downstreamKbps;
+        private final Boolean charging;
+        private final int batteryLevel;
+
+        private DeviceState(Boolean connected, Boolean validated, Boolean metered, int downstreamKbps, Boolean charging, int batteryLevel) {
+            this.connected = connected;
+            this.validated = validated;
+            this.metered = metered;
+            this.downstreamKbps = downstreamKbps;
+            this.charging = charging;
+            this.batteryLevel = batteryLevel;
+        }
+
+        public Boolean isConnected() {
+            return connected;
+        }
+
+        // Whether the network was validated to actually reach the internet.
+        public Boolean isValidated() {
+            return validated;
+        }
+
+        public Boolean isMetered() {
+            return metered;
+        }
+
+        public int getDownstreamKbps() {
+            return downstreamKbps;
+        }
+
+        public Boolean isCharging() {
+            return charging;
+        }
+
+        // Battery level percentage, or -1 if unknown.
+        public int getBatteryLevel() {
+            return batteryLevel;
+        }
+
+        private DeviceState withNetwork(Boolean connected, Boolean validated, Boolean metered, int downstreamKbps) {
+            return new DeviceState(connected, validated, metered, downstreamKbps, charging, batteryLevel);
+        }
+
+        private DeviceState withPower(Boolean charging, int batteryLevel) {
+            return new DeviceState(connected, validated, metered, downstreamKbps, charging, batteryLevel);
+        }
+
+        // Whether the state differs from the published one enough to be published.
+        private Boolean isPublishableChange(DeviceState publishedState) {
+            return publishedState == null || !connected.equals(publishedState.connected) || !validated.equals(publishedState.validated)
+                    || !metered.equals(publishedState.metered) || !charging.equals(publishedState.charging)
+                    || Math.floorDiv(batteryLevel, BATTERY_LEVEL_STEP) != Math.floorDiv(publishedState.batteryLevel, BATTERY_LEVEL_STEP);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            DeviceState that = (DeviceState) o;
+            return downstreamKbps == that.downstreamKbps && batteryLevel == that.batteryLevel && connected.equals(that.connected)
+                    && validated.equals(that.validated) && metered.equals(that.metered) && charging.equals(that.charging);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = connected.hashCode();
+            result = 31 * result + validated.hashCode();
+            result = 31 * result + metered.hashCode();
+            result = 31 * result + downstreamKbps;
+            result = 31 * result + charging.hashCode();
+            result = 31 * result + batteryLevel;
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            return "DeviceState{connected=" + connected + ", validated=" + validated + ", metered=" + metered + ", downstreamKbps=" + downstreamKbps
+                    + ", charging=" + charging + ", batteryLevel=" + batteryLevel + "}";
+        }
+    }
+
+    private static final long DEBOUNCE_DELAY = 500;
+    private static final int BATTERY_LEVEL_STEP = 10;
+    private static DeviceStateMonitor instance;
+
+    private final Context context;
+    private final ConnectivityManager connectivityManager;
+    private final Handler mainHandler;
+    private final Set<Listener> listeners;
+    private final Runnable publishRunnable;
+    private final ConnectivityManager.NetworkCallback networkCallback;
+    private final BroadcastReceiver batteryReceiver;
+    private volatile DeviceState state;
+    private DeviceState publishedState;
+    private volatile int subscribers;
+
+    private DeviceStateMonitor(Context context) {
+        this.context = context;
+        this.connectivityManager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        this.mainHandler = new Handler(Looper.getMainLooper());
+        this.listeners = new LinkedHashSet<>();
+        this.publishRunnable = this::publish;
+        this.subscribers = 0;
+        this.state = readState();
+        this.networkCallback = new ConnectivityManager.NetworkCallback() {
+            // Network callbacks run on a connectivity thread, so updates are moved to the main thread.
+            @Override
+            public void onCapabilitiesChanged(@NonNull Network network, @NonNull NetworkCapabilities capabilities) {
+                Boolean validated = capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_VALIDATED);
+                Boolean metered = !capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_NOT_METERED);
+                int downstreamKbps = capabilities.getLinkDownstreamBandwidthKbps();
+                mainHandler.post(() -> update(state.withNetwork(true, validated, metered, downstreamKbps)));
+            }
+
+            @Override
+            public void onLost(@NonNull Network network) {
+                mainHandler.post(() -> update(state.withNetwork(false, false, true, 0)));
+            }
+        };
+        this.batteryReceiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                update(state.withPower(isCharging(intent), batteryLevel(intent)));
+            }
+        };
+    }
+
+    public static synchronized DeviceStateMonitor getInstance(Context context) {
+        if (instance == null) {
+            instance = new DeviceStateMonitor(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    // Current device state. Tracked state is returned while there are subscribers,
+    // otherwise it could be stale, so the state is read from the system services.
+    public DeviceState getState() {
+        if (subscribers == 0) {
+            state = readState();
+        }
+        return state;
+    }
+
+    // Subscribes the listener, which immediately receives the current state.
+    // Device state tracking starts with the first subscriber. Must be called on the main thread.
+    public void subscribe(Listener listener) {
+        if (!listeners.add(listener)) {
+            return;
+        }
+        if (subscribers++ == 0) {
+            Log.i("message","DeviceStateMonitor started.");
+            state = readState();
+            publishedState = state;
+            connectivityManager.registerDefaultNetworkCallback(networkCallback);
+            context.registerReceiver(batteryReceiver, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        }
+        DeviceState currentState = publishedState;
+        mainHandler.post(() -> {
+            if (listeners.contains(listener)) {
+                listener.onDeviceStateChanged(null, currentState);
+            }
+        });
+    }
+
+    // Unsubscribes the listener. Device state tracking stops with the last subscriber. Must be called on the main thread.
+    public void unsubscribe(Listener listener) {
+        if (!listeners.remove(listener)) {
+            return;
+        }
+        if (--subscribers == 0) {
+            Log.i("message","DeviceStateMonitor stopped.");
+            mainHandler.removeCallbacks(publishRunnable);
+            connectivityManager.unregisterNetworkCallback(networkCallback);
+            context.unregisterReceiver(batteryReceiver);
+        }
+    }
+
+    // Records a state change, and schedules its (debounced) publication, if it is publishable.
+    private void update(DeviceState newState) {
+        state = newState;
+        mainHandler.removeCallbacks(publishRunnable);
+        if (newState.isPublishableChange(publishedState)) {
+            mainHandler.postDelayed(publishRunnable, DEBOUNCE_DELAY);
+        }
+    }
+
+    private void publish() {
+        DeviceState currentState = state;
+        if (subscribers == 0 || !currentState.isPublishableChange(publishedState)) {
+            return;
+        }
+        DeviceState previousState = publishedState;
+        publishedState = currentState;
+        Log.i("message","Device state changed: " + currentState);
+        for (Listener listener : new ArrayList<>(listeners)) {
+            listener.onDeviceStateChanged(previousState, currentState);
+        }
+    }
+
+    // Reads the current state through system services, when tracking starts.
+    private DeviceState readState() {
+        Network network = connectivityManager.getActiveNetwork();
+        NetworkCapabilities capabilities = network != null ? connectivityManager.getNetworkCapabilities(network) : null;
+        Intent batteryIntent = context.registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        return new DeviceState(capabilities != null,
+                               capabilities != null && capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_VALIDATED),
+                               capabilities == null || !capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_NOT_METERED),
+                               capabilities != null ? capabilities.getLinkDownstreamBandwidthKbps() : 0,
+                               batteryIntent != null && isCharging(batteryIntent),
+                               batteryIntent != null ? batteryLevel(batteryIntent) : -1);
+    }
+
+    private static Boolean isCharging(Intent batteryIntent) {
+        int status = batteryIntent.getIntExtra(BatteryManager.EXTRA_STATUS, -1);
+        return batteryIntent.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0
+                || status == BatteryManager.BATTERY_STATUS_CHARGING || status == BatteryManager.BATTERY_STATUS_FULL;
+    }
+
+    private static int batteryLevel(Intent batteryIntent) {
+        int level = batteryIntent.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+        int scale = batteryIntent.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+        return level >= 0 && scale > 0 ? level * 100 / scale : -1;
+    }
+
+}
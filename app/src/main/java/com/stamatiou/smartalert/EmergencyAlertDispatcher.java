@@ -0,0 +1,313 @@
+// -------------------------------------------------------------
+//
+// This Service is used to create Emergency Alert records
+// and notify user's emergency contacts, via SMS, database and
+// local notifications.
+// Alerts are submitted as compact commands (type, status, coordinates,
+// timestamp and countdown policy), so no Activity or layout is involved and dispatching
+// continues while the screen is off.
+// SMS permissions are required.
+//
+// Author: Aggelos Stamatiou, September 2020
+//
+// --------------------------------------------------------------
+
+package com.stamatiou.smartalert;
+
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.Service;
+import android.content.Context;
+import android.content.Intent;
+import android.location.Location;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.Build;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
+import android.os.PowerManager;
+import android.os.SystemClock;
+import android.util.Log;
+import android.widget.Toast;
+
+import androidx.annotation.NonNull;
+import androidx.core.app.NotificationCompat;
+import androidx.core.content.ContextCompat;
+
+import com.google.firebase.auth.FirebaseAuth;
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.FirebaseDatabase;
+import com.google.firebase.database.ValueEventListener;
+import com.stamatiou.entities.EmergencyAlert;
+import com.stamatiou.entities.EmergencyAlertStatus;
+import com.stamatiou.entities.EmergencyAlertType;
+import com.stamatiou.entities.EmergencyContact;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class EmergencyAlertDispatcher extends Service {
+
+    private static final String NOTIFICATION_CHANNEL_ID = "emergency_alert_dispatch";
+    private static final int NOTIFICATION_ID = 1;
+    private static final long WAKE_LOCK_TIMEOUT = 180000;
+    private static final long CONTACTS_READ_TIMEOUT = 15000;
+    private static final long FAN_OUT_TIMEOUT = 90000;
+    private PowerManager.WakeLock wakeLock;
+    private Handler mainHandler;
+    private int activeCommands;
+
+    // Submits an Emergency Alert command to the dispatcher.
+    // Alert and its index entries are appended to the local outbox as a single write batch, before the key is returned,
+    // so later patches of the record (e.g. with its image path) are always written after it.
+    // Age and accuracy of the location fix are stored with the alert.
+    // Only the alert coordinates are passed to the dispatcher, instead of the whole Location object.
+    public static String dispatch(Context context, Location location, EmergencyAlertType type, EmergencyAlertStatus status, String imagePath, String countDownPolicy) {
+        Log.i("message","Dispatch method started.");
+        if (location == null) {
+            Log.i("message","Location missing. EmergencyAlert record generation failed.");
+            Toast.makeText(context, context.getString(R.string.location_emergency_alert_event), Toast.LENGTH_SHORT).show();
+            return null;
+        }
+        try {
+            AlertOutbox alertOutbox = AlertOutbox.getInstance(context);
+            String emergencyAlertKey = alertOutbox.newKey();
+            long timestamp = new Date().getTime();
+            EmergencyAlert emergencyAlert = new EmergencyAlert.Builder()
+                                                              .withEmergencyAlertType(type)
+                                                              .withEmergencyAlertStatus(status)
+                                                              .withLatitude(location.getLatitude())
+                                                              .withLongitude(location.getLongitude())
+                                                              .withTimestamp(new Date(timestamp))
+                                                              .withImagePath(imagePath)
+                                                              .withCountDownPolicy(countDownPolicy)
+                                                              .withLocationAge((SystemClock.elapsedRealtimeNanos() - location.getElapsedRealtimeNanos()) / 1000000)
+                                                              .withLocationAccuracy(location.hasAccuracy() ? (double) location.getAccuracy() : null)
+                                                              .build();
+            alertOutbox.append(WriteBatch.forEmergencyAlert(FirebaseAuth.getInstance().getCurrentUser().getUid(), emergencyAlertKey, emergencyAlert));
+            Log.i("message","EmergencyAlert record generated successfully.");
+            Intent intent = new Intent(context.getApplicationContext(), EmergencyAlertDispatcher.class);
+            intent.putExtra("emergencyAlertKey", emergencyAlertKey);
+            intent.putExtra("type", type.name());
+            intent.putExtra("status", status.name());
+            intent.putExtra("latitude", location.getLatitude());
+            intent.putExtra("longitude", location.getLongitude());
+            intent.putExtra("timestamp", timestamp);
+            intent.putExtra("imagePath", imagePath);
+            intent.putExtra("countDownPolicy", countDownPolicy);
+            ContextCompat.startForegroundService(context.getApplicationContext(), intent);
+            Log.i("message","Dispatch method completed successfully.");
+            return emergencyAlertKey;
+        } catch (Exception e) {
+            e.printStackTrace();
+            Log.i("message","Exception during Dispatch method:" + e.getMessage());
+            Toast.makeText(context, context.getString(R.string.exception), Toast.LENGTH_SHORT).show();
+            return null;
+        }
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            NotificationChannel notificationChannel = new NotificationChannel(NOTIFICATION_CHANNEL_ID, getString(R.string.emergency_alert_dispatch_channel), NotificationManager.IMPORTANCE_LOW);
+            ((NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE)).createNotificationChannel(notificationChannel);
+        }
+        wakeLock = ((PowerManager) getSystemService(Context.POWER_SERVICE)).newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, "smartalert:emergency_alert_dispatch");
+        wakeLock.setReferenceCounted(false);
+        mainHandler = new Handler(Looper.getMainLooper());
+        activeCommands = 0;
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        Notification notification = new NotificationCompat.Builder(this, NOTIFICATION_CHANNEL_ID)
+                                                           .setSmallIcon(R.mipmap.ic_launcher)
+                                                           .setContentTitle(getString(R.string.app_name))
+                                                           .setContentText(getString(R.string.emergency_alert_dispatch_notification))
+                                                           .build();
+        startForeground(NOTIFICATION_ID, notification);
+        wakeLock.acquire(WAKE_LOCK_TIMEOUT);
+        activeCommands++;
+        if (intent != null) {
+            handle(intent);
+        } else {
+            onCommandCompleted();
+        }
+        return START_NOT_STICKY;
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return null;
+    }
+
+    @Override
+    public void onDestroy() {
+        if (wakeLock.isHeld()) {
+            wakeLock.release();
+        }
+        super.onDestroy();
+    }
+
+    // Emergency Alert command handle.
+    // Alert record has already been appended to the local outbox by dispatch.
+    // Depending on alert status, SMS sending process is executed.
+    private void handle(Intent intent) {
+        Log.i("message","Handle method started.");
+        try {
+            EmergencyAlertStatus status = EmergencyAlertStatus.valueOf(intent.getStringExtra("status"));
+            Log.i("message","Generating EmergencyAlert record...");
+            EmergencyAlert emergencyAlert = new EmergencyAlert.Builder()
+                                                              .withEmergencyAlertType(EmergencyAlertType.valueOf(intent.getStringExtra("type")))
+                                                              .withEmergencyAlertStatus(status)
+                                                              .withLatitude(intent.getDoubleExtra("latitude", 0))
+                                                              .withLongitude(intent.getDoubleExtra("longitude", 0))
+                                                              .withTimestamp(new Date(intent.getLongExtra("timestamp", new Date().getTime())))
+                                                              .withImagePath(intent.getStringExtra("imagePath"))
+                                                              .withCountDownPolicy(intent.getStringExtra("countDownPolicy"))
+                                                              .build();
+            String emergencyAlertKey = intent.getStringExtra("emergencyAlertKey");
+            Toast.makeText(this, getString(R.string.emergency_alert_submitted), Toast.LENGTH_SHORT).show();
+            if (status.equals(EmergencyAlertStatus.EXECUTED)) {
+                initEmergencyContactsNotification(emergencyAlert, emergencyAlertKey);
+            } else {
+                onCommandCompleted();
+            }
+            Log.i("message","Handle method completed successfully.");
+        } catch (Exception e) {
+            e.printStackTrace();
+            Log.i("message","Exception during Handle method:" + e.getMessage());
+            Toast.makeText(this, getString(R.string.exception), Toast.LENGTH_SHORT).show();
+            onCommandCompleted();
+        }
+    }
+
+    // Initialization of emergency contacts notification process.
+    // User's emergency contacts are retrieved from Firebase.
+    // Process works in an asynchronous manner, and is abandoned if contacts are not retrieved in time.
+    private void initEmergencyContactsNotification(EmergencyAlert emergencyAlert, String emergencyAlertKey) {
+        Log.i("message","Setting emergency contacts async notification.");
+        NetworkInfo activeNetworkInfo = ((ConnectivityManager) this.getSystemService(Context.CONNECTIVITY_SERVICE)).getActiveNetworkInfo();
+        if (activeNetworkInfo != null && activeNetworkInfo.isConnected()) {
+            DatabaseReference userEmergencyContactsReference = FirebaseDatabase.getInstance().getReference("emergency_contacts/" + FirebaseAuth.getInstance().getCurrentUser().getUid());
+            AtomicBoolean contactsReadSettled = new AtomicBoolean(false);
+            Object contactsReadToken = new Object();
+            userEmergencyContactsReference.addListenerForSingleValueEvent(new ValueEventListener() {
+                @Override
+                public void onDataChange(@NonNull DataSnapshot dataSnapshot) {
+                    if (!contactsReadSettled.compareAndSet(false, true)) {
+                        return;
+                    }
+                    mainHandler.removeCallbacksAndMessages(contactsReadToken);
+                    Log.i("message","OnDataChange method started.");
+                    try {
+                        List<EmergencyContact> emergencyContacts = new ArrayList<>();
+                        for (DataSnapshot emergencyContact : dataSnapshot.getChildren()) {
+                            emergencyContacts.add(0, emergencyContact.getValue(EmergencyContact.class));
+                        }
+                        if (emergencyContacts.isEmpty()) {
+                            Log.i("message","No emergency contacts exists.");
+                            Toast.makeText(getApplicationContext(), getString(R.string.no_emergency_contacts), Toast.LENGTH_SHORT).show();
+                            onCommandCompleted();
+                        } else {
+                            notifyEmergencyContacts(emergencyAlert, emergencyAlertKey, emergencyContacts);
+                        }
+                    } catch (Exception e) {
+                        Log.i("message","Exception during OnDataChange method:" + e.getMessage());
+                        Toast.makeText(getApplicationContext(), getString(R.string.exception), Toast.LENGTH_SHORT).show();
+                        onCommandCompleted();
+                    }
+                }
+
+                @Override
+                public void onCancelled(@NonNull DatabaseError databaseError) {
+                    if (!contactsReadSettled.compareAndSet(false, true)) {
+                        return;
+                    }
+                    mainHandler.removeCallbacksAndMessages(contactsReadToken);
+                    Log.i("message", "Failed to retrieve user emergency contacts. Error: " + databaseError.toException());
+                    Toast.makeText(getApplicationContext(), getString(R.string.exception_emergency_contacts), Toast.LENGTH_SHORT).show();
+                    onCommandCompleted();
+                }
+            });
+            mainHandler.postAtTime(() -> {
+                if (!contactsReadSettled.compareAndSet(false, true)) {
+                    return;
+                }
+                Log.i("message", "Failed to retrieve user emergency contacts. Read timed out.");
+                Toast.makeText(getApplicationContext(), getString(R.string.exception_emergency_contacts), Toast.LENGTH_SHORT).show();
+                onCommandCompleted();
+            }, contactsReadToken, SystemClock.uptimeMillis() + CONTACTS_READ_TIMEOUT);
+        } else {
+            Log.i("message","Internet provider is disabled...");
+            Toast.makeText(this, getString(R.string.sms_internet_disabled), Toast.LENGTH_SHORT).show();
+            onCommandCompleted();
+        }
+    }
+
+    // Notifies user's emergency contacts over every AlertChannel concurrently: SMS, database notification and local notification.
+    // Per channel latency and success, along with the alert's time-to-notify, are recorded as alert metrics.
+    // Channels that do not complete within FAN_OUT_TIMEOUT are recorded as failed, so the dispatcher always stops.
+    private void notifyEmergencyContacts(EmergencyAlert emergencyAlert, String emergencyAlertKey, List<EmergencyContact> emergencyContacts) {
+        Log.i("message","NotifyEmergencyContacts method started.");
+        try {
+            Log.i("message","Notifying emergency contacts...");
+            String uid = FirebaseAuth.getInstance().getCurrentUser().getUid();
+            DatabaseReference smsOutcomesReference = FirebaseDatabase.getInstance().getReference("sms_outcomes/" + uid + "/" + emergencyAlertKey);
+            List<AlertChannel> channels = new ArrayList<>();
+            channels.add(new SmsAlertChannel(this, uid, smsOutcomesReference));
+            channels.add(new DatabaseAlertChannel(uid));
+            channels.add(new LocalAlertChannel(this));
+            new AlertFanOut(channels, FAN_OUT_TIMEOUT).dispatch(emergencyAlertKey, emergencyAlert, emergencyContacts, new AlertFanOut.Callback() {
+                @Override
+                public void onFanOutCompleted(Long timeToNotify, String firstChannel, List<AlertFanOut.ChannelResult> results) {
+                    mainHandler.post(() -> recordAlertMetrics(uid, emergencyAlertKey, timeToNotify, firstChannel, results));
+                }
+            });
+            Log.i("message","NotifyEmergencyContacts method completed successfully.");
+        } catch (Exception e) {
+            Log.i("message","Exception during NotifyEmergencyContacts method:" + e.getMessage());
+            Toast.makeText(getApplicationContext(), getString(R.string.exception), Toast.LENGTH_SHORT).show();
+            onCommandCompleted();
+        }
+    }
+
+    // Records the fan out results as alert metrics, and completes the command.
+    private void recordAlertMetrics(String uid, String emergencyAlertKey, Long timeToNotify, String firstChannel, List<AlertFanOut.ChannelResult> results) {
+        Log.i("message","Metric time_to_notify_ms=" + timeToNotify + " first_channel=" + firstChannel + " channels=" + results);
+        try {
+            WriteBatch writeBatch = new WriteBatch("metrics_" + emergencyAlertKey);
+            String metricsPath = "alert_metrics/" + uid + "/" + emergencyAlertKey;
+            if (timeToNotify != null) {
+                writeBatch.put(metricsPath + "/timeToNotify", timeToNotify).put(metricsPath + "/firstChannel", firstChannel);
+            }
+            for (AlertFanOut.ChannelResult result : results) {
+                writeBatch.put(metricsPath + "/channels/" + result.getName() + "/latency", result.getLatency())
+                          .put(metricsPath + "/channels/" + result.getName() + "/success", result.getSuccess())
+                          .put(metricsPath + "/channels/" + result.getName() + "/timedOut", result.getTimedOut());
+            }
+            AlertOutbox.getInstance(getApplicationContext()).append(writeBatch);
+        } catch (Exception e) {
+            Log.i("message","Exception during alert metrics recording:" + e.getMessage());
+        }
+        onCommandCompleted();
+    }
+
+    // Service stops itself when every submitted command has been completed.
+    private void onCommandCompleted() {
+        activeCommands--;
+        if (activeCommands <= 0) {
+            Log.i("message","Every EmergencyAlert command completed. Stopping dispatcher.");
+            stopForeground(true);
+            stopSelf();
+        }
+    }
+
+}
@@ -0,0 +1,356 @@
+// -------------------------------------------------------------
+//
+// This auxiliary class implements keyset pagination of the user's
+// emergency alerts history.
+// Alerts are loaded in pages of orderByKey queries (limitToLast for
+// older pages, limitToFirst for newer ones), as the displayed list
+// approaches either of its ends, and only a bounded number of pages
+// is kept in memory. Newest page is kept live through a child event
+// listener, so new or patched alerts are displayed immediately. The
+// listener starts at the oldest key of the newest page, so it downloads a
+// single page regardless of the history size, and it is detached while
+// the newest pages are trimmed.
+// Pages are read from the LocalCache first, so the newest page renders
+// immediately, also offline, while the cache is synchronized incrementally
+// from a trailing window of its newest keys. Cache paging never waits for
+// the synchronization. Remote pages and live events are written through.
+// Alerts are kept sorted by key (i.e. creation time).
+//
+// Author: Aggelos Stamatiou, September 2020
+//
+// --------------------------------------------------------------
+
+package com.stamatiou.smartalert;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.google.firebase.database.ChildEventListener;
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.Query;
+import com.stamatiou.entities.EmergencyAlert;
+import com.stamatiou.entities.EmergencyAlertEntry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class EmergencyAlertHistoryPager {
+
+    public interface Listener {
+
+        // Called whenever the loaded alerts change, sorted by key.
+        void onEmergencyAlertsChanged(List<EmergencyAlertEntry> emergencyAlerts);
+
+        // Called once the first page has been loaded, from the cache or Firebase.
+        void onInitialLoadCompleted();
+
+        // Called when Firebase could not be reached, or denied the read. Cached alerts remain loaded.
+        void onLoadFailed(Exception exception);
+    }
+
+    public static final int PAGE_SIZE = 25;
+    public static final int PREFETCH_DISTANCE = 10;
+    public static final int MAX_PAGES = 4;
+    public static final int REFRESH_WINDOW = PAGE_SIZE;
+
+    private final DatabaseReference userEmergencyAlertsReference;
+    private final CachedCollection<EmergencyAlert> cachedEmergencyAlerts;
+    private final String uid;
+    private final Listener listener;
+    private final List<EmergencyAlertEntry> emergencyAlerts;
+    private Query liveQuery;
+    private ChildEventListener liveListener;
+    private Boolean loading;
+    private Boolean oldestLoaded;
+    private Boolean newestTrimmed;
+    private Boolean initialLoadCompleted;
+    private Boolean active;
+
+    public EmergencyAlertHistoryPager(DatabaseReference userEmergencyAlertsReference, CachedCollection<EmergencyAlert> cachedEmergencyAlerts, String uid, Listener listener) {
+        this.userEmergencyAlertsReference = userEmergencyAlertsReference;
+        this.cachedEmergencyAlerts = cachedEmergencyAlerts;
+        this.uid = uid;
+        this.listener = listener;
+        this.emergencyAlerts = new ArrayList<>();
+        this.loading = false;
+        this.oldestLoaded = false;
+        this.newestTrimmed = false;
+        this.initialLoadCompleted = false;
+        this.active = false;
+    }
+
+    // Renders the newest cached page, then synchronizes the cache and keeps the newest page live.
+    public void start() {
+        active = true;
+        loading = true;
+        cachedEmergencyAlerts.read(() -> cachedEmergencyAlerts.loadLatest(uid, PAGE_SIZE), page -> {
+            putAll(page);
+            Log.i("message","Emergency alerts newest cached page loaded: " + page.size());
+            loading = false;
+            if (!page.isEmpty()) {
+                listener.onEmergencyAlertsChanged(emergencyAlerts);
+                completeInitialLoad();
+            }
+            if (active) {
+                sync();
+            }
+        });
+    }
+
+    // Merges the alerts of the refresh window and the ones created since, and restarts the live listener of the newest page.
+    // Live listener is not restarted, if the pager was stopped meanwhile.
+    // On failure (e.g. offline), cached alerts remain loaded and browsable.
+    public void sync() {
+        active = true;
+        cachedEmergencyAlerts.sync(userEmergencyAlertsReference, uid, PAGE_SIZE, REFRESH_WINDOW, records -> {
+            if (emergencyAlerts.isEmpty()) {
+                oldestLoaded = records.size() < PAGE_SIZE;
+            }
+            if (!newestTrimmed) {
+                // Refreshed alerts before the loaded range are left to the older pages.
+                String oldestKey = emergencyAlerts.isEmpty() || oldestLoaded ? null : emergencyAlerts.get(0).getKey();
+                LinkedHashMap<String, EmergencyAlert> loadedRecords = new LinkedHashMap<>(records);
+                if (oldestKey != null) {
+                    loadedRecords.keySet().removeIf(key -> key.compareTo(oldestKey) < 0);
+                }
+                putAll(loadedRecords);
+                int excess = emergencyAlerts.size() - MAX_PAGES * PAGE_SIZE;
+                if (excess > 0) {
+                    emergencyAlerts.subList(0, excess).clear();
+                    oldestLoaded = false;
+                }
+            }
+            Log.i("message","Emergency alerts synchronized: " + records.size());
+            restartLiveListener();
+            listener.onEmergencyAlertsChanged(emergencyAlerts);
+            completeInitialLoad();
+        }, exception -> {
+            completeInitialLoad();
+            listener.onLoadFailed(exception);
+        });
+    }
+
+    public void stop() {
+        active = false;
+        removeLiveListener();
+    }
+
+    private void removeLiveListener() {
+        if (liveListener != null) {
+            liveQuery.removeEventListener(liveListener);
+            liveListener = null;
+        }
+    }
+
+    private void completeInitialLoad() {
+        if (!initialLoadCompleted) {
+            initialLoadCompleted = true;
+            listener.onInitialLoadCompleted();
+        }
+    }
+
+    // Informs the pager about the displayed range, in newest first positions.
+    // Older or newer pages are loaded when the range is within the prefetch distance of the respective end.
+    public void onVisibleRangeChanged(int firstVisiblePosition, int lastVisiblePosition) {
+        if (loading || emergencyAlerts.isEmpty()) {
+            return;
+        }
+        if (!oldestLoaded && lastVisiblePosition >= emergencyAlerts.size() - 1 - PREFETCH_DISTANCE) {
+            loadOlderPage();
+        } else if (newestTrimmed && firstVisiblePosition <= PREFETCH_DISTANCE) {
+            loadNewerPage();
+        }
+    }
+
+    // Loads the page before the oldest loaded alert, from the cache if it holds a full page
+    // (or the start of the history), otherwise from Firebase.
+    // A partial cached page is displayed first, so cached alerts remain browsable offline.
+    // Newest pages are trimmed, when more than the maximum pages are loaded.
+    private void loadOlderPage() {
+        loading = true;
+        String oldestKey = emergencyAlerts.get(0).getKey();
+        cachedEmergencyAlerts.read(() -> cachedEmergencyAlerts.loadBefore(uid, oldestKey, PAGE_SIZE), page -> {
+            if (page.size() == PAGE_SIZE) {
+                addOlderPage(page, false);
+                return;
+            }
+            cachedEmergencyAlerts.read(() -> cachedEmergencyAlerts.isStartReached(uid), startReached -> {
+                if (startReached) {
+                    addOlderPage(page, true);
+                } else if (!page.isEmpty()) {
+                    addOlderPage(page, false);
+                } else {
+                    loadRemoteOlderPage(oldestKey);
+                }
+            });
+        });
+    }
+
+    private void loadRemoteOlderPage(String oldestKey) {
+        cachedEmergencyAlerts.query(userEmergencyAlertsReference.orderByKey().endAt(oldestKey).limitToLast(PAGE_SIZE + 1), dataSnapshot -> {
+            LinkedHashMap<String, EmergencyAlert> page = cachedEmergencyAlerts.toRecords(dataSnapshot);
+            Boolean startReached = page.size() < PAGE_SIZE + 1;
+            page.remove(oldestKey);
+            cachedEmergencyAlerts.write(() -> {
+                cachedEmergencyAlerts.putAll(uid, page);
+                if (startReached) {
+                    cachedEmergencyAlerts.setStartReached(uid);
+                }
+            });
+            addOlderPage(page, startReached);
+        }, exception -> {
+            loading = false;
+            listener.onLoadFailed(exception);
+        });
+    }
+
+    private void addOlderPage(Map<String, EmergencyAlert> page, Boolean startReached) {
+        loading = false;
+        oldestLoaded = startReached;
+        putAll(page);
+        int excess = emergencyAlerts.size() - MAX_PAGES * PAGE_SIZE;
+        if (excess > 0) {
+            emergencyAlerts.subList(emergencyAlerts.size() - excess, emergencyAlerts.size()).clear();
+            newestTrimmed = true;
+            removeLiveListener();
+        }
+        Log.i("message","Emergency alerts older page loaded: " + page.size() + ", in memory: " + emergencyAlerts.size());
+        listener.onEmergencyAlertsChanged(emergencyAlerts);
+    }
+
+    // Loads the page after the newest loaded alert, when newest pages were trimmed.
+    // Cache always holds the newest alerts, since it is synchronized and live alerts are written through.
+    // Oldest pages are trimmed, when more than the maximum pages are loaded.
+    private void loadNewerPage() {
+        loading = true;
+        String newestKey = emergencyAlerts.get(emergencyAlerts.size() - 1).getKey();
+        cachedEmergencyAlerts.read(() -> cachedEmergencyAlerts.loadAfter(uid, newestKey, PAGE_SIZE + 1), page -> {
+            loading = false;
+            newestTrimmed = page.size() == PAGE_SIZE + 1;
+            if (newestTrimmed) {
+                page.remove(new ArrayList<>(page.keySet()).get(PAGE_SIZE));
+            }
+            putAll(page);
+            int excess = emergencyAlerts.size() - MAX_PAGES * PAGE_SIZE;
+            if (excess > 0) {
+                emergencyAlerts.subList(0, excess).clear();
+                oldestLoaded = false;
+            }
+            Log.i("message","Emergency alerts newer page loaded: " + page.size() + ", in memory: " + emergencyAlerts.size());
+            if (!newestTrimmed) {
+                restartLiveListener();
+            }
+            listener.onEmergencyAlertsChanged(emergencyAlerts);
+        });
+    }
+
+    // Restarts the live listener from the oldest key of the newest page, unless the pager is stopped
+    // or the newest pages are trimmed.
+    private void restartLiveListener() {
+        removeLiveListener();
+        if (!active || newestTrimmed) {
+            return;
+        }
+        startLiveListener(emergencyAlerts.isEmpty() ? null : emergencyAlerts.get(Math.max(0, emergencyAlerts.size() - PAGE_SIZE)).getKey());
+    }
+
+    // Live listener of the alerts from the newest page on.
+    // Its events are applied only within the loaded key range, or beyond it while the newest pages are loaded.
+    private void startLiveListener(String startKey) {
+        liveQuery = startKey != null ? userEmergencyAlertsReference.orderByKey().startAt(startKey) : userEmergencyAlertsReference.orderByKey();
+        liveListener = liveQuery.addChildEventListener(new ChildEventListener() {
+            @Override
+            public void onChildAdded(@NonNull DataSnapshot dataSnapshot, String previousChildName) {
+                putEmergencyAlert(dataSnapshot);
+            }
+
+            @Override
+            public void onChildChanged(@NonNull DataSnapshot dataSnapshot, String previousChildName) {
+                putEmergencyAlert(dataSnapshot);
+            }
+
+            @Override
+            public void onChildRemoved(@NonNull DataSnapshot dataSnapshot) {
+                cachedEmergencyAlerts.write(() -> cachedEmergencyAlerts.remove(uid, dataSnapshot.getKey()));
+                int index = indexOf(dataSnapshot.getKey());
+                if (index >= 0) {
+                    emergencyAlerts.remove(index);
+                    listener.onEmergencyAlertsChanged(emergencyAlerts);
+                }
+            }
+
+            @Override
+            public void onChildMoved(@NonNull DataSnapshot dataSnapshot, String previousChildName) {}
+
+            @Override
+            public void onCancelled(@NonNull DatabaseError databaseError) {
+                listener.onLoadFailed(databaseError.toException());
+            }
+        });
+    }
+
+    // Adds or replaces an alert of the live listener, if it falls within the loaded key range.
+    // Every live alert is written through to the cache.
+    private void putEmergencyAlert(DataSnapshot dataSnapshot) {
+        String key = dataSnapshot.getKey();
+        EmergencyAlert emergencyAlert = dataSnapshot.getValue(EmergencyAlert.class);
+        cachedEmergencyAlerts.write(() -> cachedEmergencyAlerts.putAll(uid, Collections.singletonMap(key, emergencyAlert)));
+        int index = indexOf(key);
+        if (index < 0) {
+            int insertionPoint = -index - 1;
+            Boolean beforeOldest = insertionPoint == 0 && !emergencyAlerts.isEmpty() && !oldestLoaded;
+            Boolean afterNewest = insertionPoint == emergencyAlerts.size() && newestTrimmed;
+            if (beforeOldest || afterNewest) {
+                return;
+            }
+        }
+        EmergencyAlertEntry emergencyAlertEntry = new EmergencyAlertEntry(key, emergencyAlert);
+        if (index >= 0) {
+            if (emergencyAlerts.get(index).getEmergencyAlert().equals(emergencyAlertEntry.getEmergencyAlert())) {
+                return;
+            }
+            emergencyAlerts.set(index, emergencyAlertEntry);
+        } else {
+            emergencyAlerts.add(-index - 1, emergencyAlertEntry);
+        }
+        listener.onEmergencyAlertsChanged(emergencyAlerts);
+    }
+
+    // Index of the key in the sorted alerts, or (-(insertion point) - 1) if it is missing.
+    private int indexOf(String key) {
+        int low = 0;
+        int high = emergencyAlerts.size() - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int comparison = emergencyAlerts.get(middle).getKey().compareTo(key);
+            if (comparison < 0) {
+                low = middle + 1;
+            } else if (comparison > 0) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -(low + 1);
+    }
+
+    // Adds or replaces the records, keeping the alerts sorted by key.
+    private void putAll(Map<String, EmergencyAlert> records) {
+        for (Map.Entry<String, EmergencyAlert> record : records.entrySet()) {
+            EmergencyAlertEntry emergencyAlertEntry = new EmergencyAlertEntry(record.getKey(), record.getValue());
+            int index = indexOf(record.getKey());
+            if (index >= 0) {
+                emergencyAlerts.set(index, emergencyAlertEntry);
+            } else {
+                emergencyAlerts.add(-index - 1, emergencyAlertEntry);
+            }
+        }
+    }
+
+}
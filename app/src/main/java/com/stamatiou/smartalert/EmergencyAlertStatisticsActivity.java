@@ -0,0 +1,194 @@
+// -------------------------------------------------------------
+//
+// This Activity is used to display user's emergency alert statistics.
+// Statistics are read only from the rollup counters, which are maintained
+// along with each Emergency Alert record, so loading costs O(days)
+// instead of a scan of the whole alerts history.
+// Rollups of alerts written before they were maintained are backfilled once,
+// before the statistics are first displayed.
+// Network permissions are required.
+//
+// Author: Aggelos Stamatiou, September 2020
+//
+// --------------------------------------------------------------
+
+package com.stamatiou.smartalert;
+
+import androidx.annotation.NonNull;
+import androidx.appcompat.app.AppCompatActivity;
+import androidx.recyclerview.widget.DefaultItemAnimator;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+
+import android.os.Bundle;
+import android.util.Log;
+import android.view.View;
+import android.widget.TextView;
+import android.widget.Toast;
+
+import com.google.firebase.auth.FirebaseAuth;
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.FirebaseDatabase;
+import com.google.firebase.database.ValueEventListener;
+import com.stamatiou.entities.EmergencyAlertStatistics;
+import com.stamatiou.entities.EmergencyAlertStatisticsAdapter;
+import com.stamatiou.entities.EmergencyAlertStatus;
+import com.stamatiou.entities.EmergencyAlertType;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class EmergencyAlertStatisticsActivity extends AppCompatActivity implements DeviceStateMonitor.Listener {
+
+    private static final int MAX_DAYS = 90;
+
+    private List<EmergencyAlertStatistics> emergencyAlertStatistics;
+    private EmergencyAlertStatisticsAdapter emergencyAlertStatisticsAdapter;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_emergency_alert_statistics);
+        DeviceStateMonitor.getInstance(this).subscribe(this);
+    }
+
+    // Emergency Alert Statistics initialization method.
+    // Rollups are backfilled first, if required. On backfill failure the statistics are still displayed.
+    private void emergencyAlertStatisticsInit() {
+        Log.i("message","EmergencyAlertStatisticsInit method started.");
+        try {
+            this.setTitle(getString(R.string.emergency_alert_statistics));
+            findViewById(R.id.progressBar_cyclic).setVisibility(View.VISIBLE);
+            RecyclerView recyclerView = findViewById(R.id.recyclerView);
+            recyclerView.setLayoutManager(new LinearLayoutManager(this));
+            recyclerView.setItemAnimator(new DefaultItemAnimator());
+
+            emergencyAlertStatistics = new ArrayList<>();
+            emergencyAlertStatisticsAdapter = new EmergencyAlertStatisticsAdapter(emergencyAlertStatistics);
+            recyclerView.setAdapter(emergencyAlertStatisticsAdapter);
+
+            String uid = FirebaseAuth.getInstance().getCurrentUser().getUid();
+            EmergencyAlertStatisticsBackfill.run(uid, new EmergencyAlertStatisticsBackfill.Callback() {
+                @Override
+                public void onBackfillCompleted() {
+                    loadStatistics(uid);
+                }
+
+                @Override
+                public void onBackfillFailed(Exception exception) {
+                    Log.i("message","Emergency alert statistics backfill failed:" + exception.getMessage());
+                    loadStatistics(uid);
+                }
+            });
+            Log.i("message","EmergencyAlertStatisticsInit method completed successfully.");
+        } catch (Exception e) {
+            e.printStackTrace();
+            Log.i("message","Exception during EmergencyAlertStatisticsInit method:" + e.getMessage());
+            Toast.makeText(this, getString(R.string.exception), Toast.LENGTH_SHORT).show();
+            findViewById(R.id.progressBar_cyclic).setVisibility(View.INVISIBLE);
+        }
+    }
+
+    // Totals rollup is displayed as the title, and the rollups of the latest days as the list, newest day first.
+    private void loadStatistics(String uid) {
+        Log.i("message","LoadStatistics method started.");
+        try {
+            DatabaseReference userStatisticsReference = FirebaseDatabase.getInstance().getReference("emergency_alert_stats/" + uid);
+            userStatisticsReference.child("totals").addListenerForSingleValueEvent(new ValueEventListener() {
+                @Override
+                public void onDataChange(@NonNull DataSnapshot dataSnapshot) {
+                    EmergencyAlertStatistics totals = toStatistics(null, dataSnapshot);
+                    if (totals.getTotal() == 0) {
+                        ((TextView) findViewById(R.id.titleView)).setText(getString(R.string.emergency_alerts_activity_no_alerts));
+                    } else {
+                        ((TextView) findViewById(R.id.titleView)).setText(EmergencyAlertStatisticsAdapter.formatTotal(getResources(), totals));
+                    }
+                }
+
+                @Override
+                public void onCancelled(@NonNull DatabaseError databaseError) {
+                    onStatisticsRetrievalFailed(databaseError);
+                }
+            });
+            userStatisticsReference.child("days").orderByKey().limitToLast(MAX_DAYS).addListenerForSingleValueEvent(new ValueEventListener() {
+                @Override
+                public void onDataChange(@NonNull DataSnapshot dataSnapshot) {
+                    emergencyAlertStatistics.clear();
+                    for (DataSnapshot day : dataSnapshot.getChildren()) {
+                        emergencyAlertStatistics.add(0, toStatistics(day.getKey(), day));
+                    }
+                    emergencyAlertStatisticsAdapter.notifyDataSetChanged();
+                    findViewById(R.id.progressBar_cyclic).setVisibility(View.INVISIBLE);
+                }
+
+                @Override
+                public void onCancelled(@NonNull DatabaseError databaseError) {
+                    onStatisticsRetrievalFailed(databaseError);
+                }
+            });
+            Log.i("message","LoadStatistics method completed successfully.");
+        } catch (Exception e) {
+            e.printStackTrace();
+            Log.i("message","Exception during LoadStatistics method:" + e.getMessage());
+            Toast.makeText(this, getString(R.string.exception), Toast.LENGTH_SHORT).show();
+            findViewById(R.id.progressBar_cyclic).setVisibility(View.INVISIBLE);
+        }
+    }
+
+    private void onStatisticsRetrievalFailed(DatabaseError databaseError) {
+        Log.i("message", "Failed to retrieve emergency alert statistics. Error: " + databaseError.toException());
+        Toast.makeText(getApplicationContext(), getString(R.string.emergency_alert_statistics_retrieval_failed), Toast.LENGTH_SHORT).show();
+        findViewById(R.id.progressBar_cyclic).setVisibility(View.INVISIBLE);
+    }
+
+    // Converts a rollup node ({type}/{status}/count) to statistics.
+    // Counters of unknown types or statuses are ignored.
+    private static EmergencyAlertStatistics toStatistics(String day, DataSnapshot dataSnapshot) {
+        EmergencyAlertStatistics statistics = new EmergencyAlertStatistics(day);
+        for (EmergencyAlertType type : EmergencyAlertType.values()) {
+            for (EmergencyAlertStatus status : EmergencyAlertStatus.values()) {
+                Long count = dataSnapshot.child(type.name()).child(status.name()).getValue(Long.class);
+                if (count != null) {
+                    statistics.setCount(type, status, count);
+                }
+            }
+        }
+        return statistics;
+    }
+
+    // Application listens to internet connectivity status, through the DeviceStateMonitor.
+    @Override
+    public void onDeviceStateChanged(DeviceStateMonitor.DeviceState previousState, DeviceStateMonitor.DeviceState state) {
+        if (previousState == null || !previousState.isConnected().equals(state.isConnected())) {
+            onInternetConnectivityChanged(state.isConnected());
+        }
+    }
+
+    // When internet provider is disabled, user is informed via a message box.
+    private void onInternetConnectivityChanged(boolean isConnected) {
+        Log.i("message","OnInternetConnectivityChanged method started.");
+        try {
+            if (isConnected) {
+                findViewById(R.id.recyclerView).setVisibility(View.VISIBLE);
+                emergencyAlertStatisticsInit();
+            } else {
+                findViewById(R.id.recyclerView).setVisibility(View.INVISIBLE);
+                ((TextView) findViewById(R.id.titleView)).setText(getString(R.string.internet_provider_disabled));
+            }
+            Log.i("message","OnInternetConnectivityChanged method completed successfully.");
+        } catch (Exception e) {
+            e.printStackTrace();
+            Log.i("message","Exception during OnInternetConnectivityChanged method:" + e.getMessage());
+            Toast.makeText(this, getString(R.string.exception), Toast.LENGTH_SHORT).show();
+        }
+    }
+
+    @Override
+    protected void onDestroy() {
+        DeviceStateMonitor.getInstance(this).unsubscribe(this);
+        super.onDestroy();
+    }
+
+}
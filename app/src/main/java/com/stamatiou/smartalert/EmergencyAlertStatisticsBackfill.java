@@ -0,0 +1,141 @@
+// -------------------------------------------------------------
+//
+// This auxiliary class backfills the emergency alert statistics rollups
+// of the alerts written before the rollups were maintained.
+// It runs once per user: the whole alerts history is read a single time,
+// alerts without an applied marker are counted, and their rollups, markers
+// and the backfilled flag are written with a single multi-path update.
+// Markers are guarded by the database rules, so an alert is never counted
+// by both the backfill and its own batch.
+//
+// Author: Aggelos Stamatiou, September 2020
+//
+// --------------------------------------------------------------
+
+package com.stamatiou.smartalert;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.FirebaseDatabase;
+import com.google.firebase.database.ValueEventListener;
+import com.stamatiou.entities.EmergencyAlert;
+
+import org.json.JSONException;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class EmergencyAlertStatisticsBackfill {
+
+    public interface Callback {
+
+        // Called once the rollups include every alert, immediately if they were already backfilled.
+        void onBackfillCompleted();
+
+        void onBackfillFailed(Exception exception);
+    }
+
+    private static final long BACKFILL_TIMEOUT = 30000;
+
+    private EmergencyAlertStatisticsBackfill() {}
+
+    // Backfills the rollups of the user, unless they are already backfilled. Callback is invoked on the main thread.
+    public static void run(String uid, Callback callback) {
+        DatabaseReference rootReference = FirebaseDatabase.getInstance().getReference();
+        DatabaseReference userStatisticsReference = rootReference.child("emergency_alert_stats/" + uid);
+        AtomicBoolean settled = new AtomicBoolean(false);
+        new Handler(Looper.getMainLooper()).postDelayed(() -> {
+            if (settled.compareAndSet(false, true)) {
+                callback.onBackfillFailed(new TimeoutException("Emergency alert statistics backfill timed out."));
+            }
+        }, BACKFILL_TIMEOUT);
+        Callback settledCallback = new Callback() {
+            @Override
+            public void onBackfillCompleted() {
+                if (settled.compareAndSet(false, true)) {
+                    callback.onBackfillCompleted();
+                }
+            }
+
+            @Override
+            public void onBackfillFailed(Exception exception) {
+                if (settled.compareAndSet(false, true)) {
+                    callback.onBackfillFailed(exception);
+                }
+            }
+        };
+        read(userStatisticsReference.child("backfilled"), settledCallback, backfilled -> {
+            if (Boolean.TRUE.equals(backfilled.getValue(Boolean.class))) {
+                settledCallback.onBackfillCompleted();
+                return;
+            }
+            read(userStatisticsReference.child("applied"), settledCallback, applied -> {
+                Set<String> appliedKeys = new HashSet<>();
+                for (DataSnapshot marker : applied.getChildren()) {
+                    appliedKeys.add(marker.getKey());
+                }
+                read(rootReference.child("emergency_alerts/" + uid), settledCallback, history -> {
+                    LinkedHashMap<String, EmergencyAlert> emergencyAlerts = new LinkedHashMap<>();
+                    for (DataSnapshot record : history.getChildren()) {
+                        EmergencyAlert emergencyAlert = record.getValue(EmergencyAlert.class);
+                        if (!appliedKeys.contains(record.getKey()) && emergencyAlert != null && emergencyAlert.getType() != null
+                                && emergencyAlert.getStatus() != null && emergencyAlert.getTimestamp() != null) {
+                            emergencyAlerts.put(record.getKey(), emergencyAlert);
+                        }
+                    }
+                    write(rootReference, uid, emergencyAlerts, settledCallback);
+                });
+            });
+        });
+    }
+
+    private interface SnapshotCallback {
+        void onSnapshot(DataSnapshot dataSnapshot);
+    }
+
+    private static void read(DatabaseReference reference, Callback callback, SnapshotCallback snapshotCallback) {
+        reference.addListenerForSingleValueEvent(new ValueEventListener() {
+            @Override
+            public void onDataChange(@NonNull DataSnapshot dataSnapshot) {
+                snapshotCallback.onSnapshot(dataSnapshot);
+            }
+
+            @Override
+            public void onCancelled(@NonNull DatabaseError databaseError) {
+                callback.onBackfillFailed(databaseError.toException());
+            }
+        });
+    }
+
+    private static void write(DatabaseReference rootReference, String uid, Map<String, EmergencyAlert> emergencyAlerts, Callback callback) {
+        Map<String, Object> updates = new HashMap<>();
+        try {
+            WriteBatch.addUpdates(WriteBatch.forEmergencyAlertStatisticsBackfill(uid, emergencyAlerts).toJSON(), updates);
+        } catch (JSONException e) {
+            callback.onBackfillFailed(e);
+            return;
+        }
+        rootReference.updateChildren(updates, (databaseError, databaseReference) -> {
+            if (databaseError != null) {
+                Log.i("message","Emergency alert statistics backfill failed. Error: " + databaseError.toException());
+                callback.onBackfillFailed(databaseError.toException());
+                return;
+            }
+            Log.i("message","Emergency alert statistics backfilled. Alerts: " + emergencyAlerts.size());
+            callback.onBackfillCompleted();
+        });
+    }
+
+}
@@ -0,0 +1,170 @@
+// -------------------------------------------------------------
+//
+// This auxiliary class imports Emergency Contact records in bulk, from
+// the device address book.
+// Phone rows of the Contacts provider are streamed with a cursor in the
+// background; numbers are normalized and validated by PhoneNumbers, and
+// deduplicated against the user's emergency contacts, as read from Firebase,
+// and the import itself.
+// Candidates are confirmed by the user, since every emergency contact is
+// notified on each alert, and only the selected ones are written with a
+// single multi-path update.
+// Contacts permissions are required.
+//
+// Author: Aggelos Stamatiou, September 2020
+//
+// --------------------------------------------------------------
+
+package com.stamatiou.smartalert;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.os.Handler;
+import android.os.Looper;
+import android.provider.ContactsContract;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.ValueEventListener;
+import com.stamatiou.entities.EmergencyContact;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class EmergencyContactImporter {
+
+    public interface Callback {
+
+        void onCandidatesFound(List<EmergencyContact> candidates, int skipped);
+
+        void onImportCompleted(int imported, int skipped);
+
+        void onImportFailed(Exception e);
+    }
+
+    private static final int MAX_FIELD_LENGTH = 50;
+    private static final long EXISTING_CONTACTS_READ_TIMEOUT = 15000;
+    private static final String[] PROJECTION = new String[] {
+            ContactsContract.CommonDataKinds.Phone.DISPLAY_NAME_PRIMARY,
+            ContactsContract.CommonDataKinds.Phone.NUMBER
+    };
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    private EmergencyContactImporter() {}
+
+    // Finds the address book contacts with valid mobile numbers, which are not emergency contacts yet.
+    // Existing emergency contacts are read from Firebase first, so the import never depends on
+    // whether a screen has already received them. Callback is invoked on the main thread.
+    public static void findCandidates(Context context, DatabaseReference userEmergencyContactsReference, Callback callback) {
+        Context applicationContext = context.getApplicationContext();
+        Handler mainHandler = new Handler(Looper.getMainLooper());
+        AtomicBoolean existingContactsReadSettled = new AtomicBoolean(false);
+        userEmergencyContactsReference.addListenerForSingleValueEvent(new ValueEventListener() {
+            @Override
+            public void onDataChange(@NonNull DataSnapshot dataSnapshot) {
+                if (!existingContactsReadSettled.compareAndSet(false, true)) {
+                    return;
+                }
+                Set<String> existingPhones = new HashSet<>();
+                for (DataSnapshot emergencyContact : dataSnapshot.getChildren()) {
+                    String phone = emergencyContact.child("phone").getValue(String.class);
+                    if (phone != null) {
+                        String normalizedPhone = PhoneNumbers.normalize(phone);
+                        existingPhones.add(normalizedPhone != null ? normalizedPhone : phone);
+                    }
+                }
+                executor.execute(() -> readAddressBook(applicationContext, existingPhones, mainHandler, callback));
+            }
+
+            @Override
+            public void onCancelled(@NonNull DatabaseError databaseError) {
+                if (existingContactsReadSettled.compareAndSet(false, true)) {
+                    callback.onImportFailed(databaseError.toException());
+                }
+            }
+        });
+        mainHandler.postDelayed(() -> {
+            if (existingContactsReadSettled.compareAndSet(false, true)) {
+                callback.onImportFailed(new TimeoutException("Existing emergency contacts read timed out."));
+            }
+        }, EXISTING_CONTACTS_READ_TIMEOUT);
+    }
+
+    // Writes the selected candidates, with a single multi-path update.
+    // Callback is invoked on the main thread.
+    public static void importContacts(DatabaseReference userEmergencyContactsReference, List<EmergencyContact> selectedContacts, int skipped, Callback callback) {
+        if (selectedContacts.isEmpty()) {
+            callback.onImportCompleted(0, skipped);
+            return;
+        }
+        Map<String, Object> updates = new HashMap<>();
+        for (EmergencyContact emergencyContact : selectedContacts) {
+            updates.put(userEmergencyContactsReference.push().getKey(), emergencyContact);
+        }
+        Log.i("message","Contacts import: " + updates.size() + " contacts to write, " + skipped + " skipped.");
+        userEmergencyContactsReference.updateChildren(updates, (databaseError, databaseReference) -> {
+            if (databaseError != null) {
+                callback.onImportFailed(databaseError.toException());
+            } else {
+                callback.onImportCompleted(selectedContacts.size(), skipped);
+            }
+        });
+    }
+
+    // Streams the address book phone rows, on the executor.
+    private static void readAddressBook(Context context, Set<String> existingPhones, Handler mainHandler, Callback callback) {
+        List<EmergencyContact> candidates = new ArrayList<>();
+        int skipped = 0;
+        try (Cursor cursor = context.getContentResolver().query(ContactsContract.CommonDataKinds.Phone.CONTENT_URI, PROJECTION, null, null, ContactsContract.CommonDataKinds.Phone.DISPLAY_NAME_PRIMARY)) {
+            if (cursor != null) {
+                int nameIndex = cursor.getColumnIndexOrThrow(ContactsContract.CommonDataKinds.Phone.DISPLAY_NAME_PRIMARY);
+                int numberIndex = cursor.getColumnIndexOrThrow(ContactsContract.CommonDataKinds.Phone.NUMBER);
+                Set<String> candidatePhones = new HashSet<>();
+                while (cursor.moveToNext()) {
+                    String phone = PhoneNumbers.normalize(cursor.getString(numberIndex));
+                    String displayName = cursor.getString(nameIndex);
+                    if (phone == null || displayName == null || displayName.trim().isEmpty()
+                            || existingPhones.contains(phone) || !candidatePhones.add(phone)) {
+                        skipped++;
+                        continue;
+                    }
+                    candidates.add(toEmergencyContact(displayName.trim(), phone));
+                }
+            }
+        } catch (Exception e) {
+            Log.i("message","Exception during contacts import:" + e.getMessage());
+            mainHandler.post(() -> callback.onImportFailed(e));
+            return;
+        }
+        int skippedContacts = skipped;
+        Log.i("message","Contacts import: " + candidates.size() + " candidates found, " + skippedContacts + " skipped.");
+        mainHandler.post(() -> callback.onCandidatesFound(candidates, skippedContacts));
+    }
+
+    // Display name is split to name (first word) and surname (the rest).
+    private static EmergencyContact toEmergencyContact(String displayName, String phone) {
+        String[] names = displayName.split("\\s+", 2);
+        return new EmergencyContact.Builder()
+                                   .withName(truncate(names[0]))
+                                   .withSurname(names.length > 1 ? truncate(names[1]) : "")
+                                   .withPhone(phone)
+                                   .build();
+    }
+
+    private static String truncate(String field) {
+        return field.length() > MAX_FIELD_LENGTH ? field.substring(0, MAX_FIELD_LENGTH) : field;
+    }
+
+}
@@ -0,0 +1,93 @@
+// -------------------------------------------------------------
+//
+// This auxiliary class implements the process-wide store of the user's
+// Emergency Contacts, indexed by Firebase key and by normalized phone.
+// Store is filled by the EmergencyContacts Activity listener, so screens
+// exchange only contact keys, and look contacts up in O(1).
+//
+// Author: Aggelos Stamatiou, September 2020
+//
+// --------------------------------------------------------------
+
+package com.stamatiou.smartalert;
+
+import com.stamatiou.entities.EmergencyContact;
+import com.stamatiou.entities.EmergencyContactEntry;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class EmergencyContactStore {
+
+    private static EmergencyContactStore instance;
+
+    private final Map<String, EmergencyContact> emergencyContactsByKey;
+    private final Map<String, String> keysByPhone;
+
+    private EmergencyContactStore() {
+        this.emergencyContactsByKey = new LinkedHashMap<>();
+        this.keysByPhone = new HashMap<>();
+    }
+
+    public static synchronized EmergencyContactStore getInstance() {
+        if (instance == null) {
+            instance = new EmergencyContactStore();
+        }
+        return instance;
+    }
+
+    // Replaces the stored contacts, e.g. with a fresh Firebase snapshot.
+    public synchronized void replaceAll(List<EmergencyContactEntry> emergencyContacts) {
+        emergencyContactsByKey.clear();
+        keysByPhone.clear();
+        for (EmergencyContactEntry emergencyContact : emergencyContacts) {
+            put(emergencyContact.getKey(), emergencyContact.getEmergencyContact());
+        }
+    }
+
+    public synchronized void put(String key, EmergencyContact emergencyContact) {
+        remove(key);
+        emergencyContactsByKey.put(key, emergencyContact);
+        keysByPhone.put(indexPhone(emergencyContact.getPhone()), key);
+    }
+
+    public synchronized void remove(String key) {
+        EmergencyContact emergencyContact = emergencyContactsByKey.remove(key);
+        if (emergencyContact != null && key.equals(keysByPhone.get(indexPhone(emergencyContact.getPhone())))) {
+            keysByPhone.remove(indexPhone(emergencyContact.getPhone()));
+        }
+    }
+
+    public synchronized EmergencyContact get(String key) {
+        return key != null ? emergencyContactsByKey.get(key) : null;
+    }
+
+    // Key of the contact with the phone, in any accepted format, or null.
+    public synchronized String findKeyByPhone(String phone) {
+        return keysByPhone.get(indexPhone(phone));
+    }
+
+    // Phones stored before normalization was introduced are indexed as they are.
+    private static String indexPhone(String phone) {
+        String normalizedPhone = PhoneNumbers.normalize(phone);
+        return normalizedPhone != null ? normalizedPhone : phone;
+    }
+
+    public synchronized List<EmergencyContactEntry> getAll() {
+        List<EmergencyContactEntry> emergencyContacts = new ArrayList<>();
+        for (Map.Entry<String, EmergencyContact> emergencyContact : emergencyContactsByKey.entrySet()) {
+            emergencyContacts.add(new EmergencyContactEntry(emergencyContact.getKey(), emergencyContact.getValue()));
+        }
+        return emergencyContacts;
+    }
+
+    // Clears the store, e.g. on sign out.
+    public synchronized void clear() {
+        emergencyContactsByKey.clear();
+        keysByPhone.clear();
+    }
+
+}
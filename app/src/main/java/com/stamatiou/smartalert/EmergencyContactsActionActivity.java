@@ -1,7 +1,11 @@
 // -------------------------------------------------------------
 //
 // This Activity is used to add, modify and delete Emergency Contact records.
-// Records are stored in Firebase.
+// Records are stored in Firebase, and are modified or removed by their key,
+// with a single write.
+// Selected record is looked up by key in the EmergencyContactStore, or read
+// once from Firebase by its key, when the store is empty after a process restart.
+// Phones are unique among the user's contacts, checked through the store's phone index.
 //
 // Author: Aggelos Stamatiou, September 2020
 //
@@ -16,28 +20,42 @@ import android.widget.EditText;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
 
 import com.google.firebase.auth.FirebaseAuth;
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
 import com.google.firebase.database.DatabaseReference;
 import com.google.firebase.database.FirebaseDatabase;
+import com.google.firebase.database.ValueEventListener;
 import com.stamatiou.entities.EmergencyContact;
 
-import java.util.ArrayList;
-import java.util.List;
-
 public class EmergencyContactsActionActivity extends AppCompatActivity {
 
     private DatabaseReference userEmergencyContactsReference;
-    private List<EmergencyContact> emergencyContacts;
+    private Integer mode;
+    private String emergencyContactKey;
+    private EmergencyContact emergencyContact;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_emergency_contacts_action);
-        Integer mode = (Integer) getIntent().getExtras().get("mode");
-        emergencyContacts = (ArrayList<EmergencyContact>) getIntent().getSerializableExtra("emergencyContacts");
+        mode = (Integer) getIntent().getExtras().get("mode");
+        emergencyContactKey = getIntent().getStringExtra("key");
+        emergencyContact = EmergencyContactStore.getInstance().get(emergencyContactKey);
         userEmergencyContactsReference = FirebaseDatabase.getInstance().getReference("emergency_contacts/" + FirebaseAuth.getInstance().getCurrentUser().getUid());
+        if (mode != 0 && emergencyContact == null) {
+            // Process was recreated, so the store is empty.
+            loadEmergencyContact();
+            return;
+        }
+        emergencyContactActionInit();
+    }
+
+    // Activity initialization, for the requested mode.
+    private void emergencyContactActionInit() {
         if (mode == 0) {
             addEmergencyContact();
         } else if (mode == 1) {
@@ -47,6 +65,34 @@ public class EmergencyContactsActionActivity extends AppCompatActivity {
         }
     }
 
+    // Selected Emergency Contact record is read once by its key.
+    // If record was removed meanwhile, or could not be read, Activity finishes.
+    private void loadEmergencyContact() {
+        Log.i("message","LoadEmergencyContact method started.");
+        findViewById(R.id.progressBar_cyclic).setVisibility(View.VISIBLE);
+        userEmergencyContactsReference.child(emergencyContactKey).addListenerForSingleValueEvent(new ValueEventListener() {
+            @Override
+            public void onDataChange(@NonNull DataSnapshot dataSnapshot) {
+                findViewById(R.id.progressBar_cyclic).setVisibility(View.INVISIBLE);
+                emergencyContact = dataSnapshot.getValue(EmergencyContact.class);
+                if (emergencyContact == null) {
+                    Log.i("message","Emergency Contact record no longer exists: " + emergencyContactKey);
+                    finish();
+                    return;
+                }
+                EmergencyContactStore.getInstance().put(emergencyContactKey, emergencyContact);
+                emergencyContactActionInit();
+            }
+
+            @Override
+            public void onCancelled(@NonNull DatabaseError databaseError) {
+                Log.i("message", "Failed to retrieve emergency contact. Error: " + databaseError.toException());
+                Toast.makeText(getApplicationContext(), getString(R.string.emergency_contacts_activity_retrieval_failed), Toast.LENGTH_SHORT).show();
+                finish();
+            }
+        });
+    }
+
     // Activity initialization method, for "Add Emergency Contact" mode.
     private void addEmergencyContact() {
         Log.i("message","AddEmergencyContact method started.");
@@ -79,7 +125,7 @@ public class EmergencyContactsActionActivity extends AppCompatActivity {
                 EmergencyContact emergencyContact = new EmergencyContact.Builder()
                                                                         .withName(((EditText) findViewById(R.id.nameEditText)).getText().toString())
                                                                         .withSurname(((EditText) findViewById(R.id.surnameEditText)).getText().toString())
-                                                                        .withPhone(((EditText) findViewById(R.id.phoneEditText)).getText().toString())
+                                                                        .withPhone(PhoneNumbers.normalize(((EditText) findViewById(R.id.phoneEditText)).getText().toString()))
                                                                         .build();
                 userEmergencyContactsReference.push().setValue(emergencyContact);
             } else {
@@ -101,9 +147,9 @@ public class EmergencyContactsActionActivity extends AppCompatActivity {
         Log.i("message","EditEmergencyContact method started.");
         try {
             this.setTitle(getString(R.string.emergency_contacts_action_edit));
-            ((EditText) findViewById(R.id.nameEditText)).setText((String) getIntent().getExtras().get("name"));
-            ((EditText) findViewById(R.id.surnameEditText)).setText((String) getIntent().getExtras().get("surname"));
-            ((EditText) findViewById(R.id.phoneEditText)).setText((String) getIntent().getExtras().get("phone"));
+            ((EditText) findViewById(R.id.nameEditText)).setText(emergencyContact.getName());
+            ((EditText) findViewById(R.id.surnameEditText)).setText(emergencyContact.getSurname());
+            ((EditText) findViewById(R.id.phoneEditText)).setText(emergencyContact.getPhone());
             findViewById(R.id.deleteMessageTextView).setVisibility(View.GONE);
             findViewById(R.id.submitButton).setOnClickListener(new View.OnClickListener() {
                 @Override
@@ -120,7 +166,7 @@ public class EmergencyContactsActionActivity extends AppCompatActivity {
     }
 
     // Application validates submitted fields.
-    // On successful fields validation, requested Emergency Contact record is modified.
+    // On successful fields validation, requested Emergency Contact record is replaced under its key.
     private void editEmergencyContactSubmitAction() {
         Log.i("message","EditEmergencyContactSubmitAction method started.");
         try {
@@ -128,26 +174,12 @@ public class EmergencyContactsActionActivity extends AppCompatActivity {
             Boolean formValidation = validateFormFields();
             if (formValidation) {
                 Log.i("message","Form Fields validation succeeded. Modifying record...");
-                EmergencyContact originalEmergencyContact = emergencyContacts.stream()
-                                                                             .filter(emergencyContact ->
-                                                                                        emergencyContact.getName().equals((String) getIntent().getExtras().get("name"))
-                                                                                        && emergencyContact.getSurname().equals((String) getIntent().getExtras().get("surname"))
-                                                                                        && emergencyContact.getPhone().equals((String) getIntent().getExtras().get("phone")))
-                                                                             .findAny()
-                                                                             .orElse(null);
-                if (originalEmergencyContact != null) {
-                    emergencyContacts.remove(originalEmergencyContact);
-                }
                 EmergencyContact newEmergencyContact = new EmergencyContact.Builder()
                                                                            .withName(((EditText) findViewById(R.id.nameEditText)).getText().toString())
                                                                            .withSurname(((EditText) findViewById(R.id.surnameEditText)).getText().toString())
-                                                                           .withPhone(((EditText) findViewById(R.id.phoneEditText)).getText().toString())
+                                                                           .withPhone(PhoneNumbers.normalize(((EditText) findViewById(R.id.phoneEditText)).getText().toString()))
                                                                            .build();
-                emergencyContacts.add(newEmergencyContact);
-                userEmergencyContactsReference.removeValue();
-                for (EmergencyContact emergencyContact : emergencyContacts) {
-                    userEmergencyContactsReference.push().setValue(emergencyContact);
-                }
+                userEmergencyContactsReference.child(emergencyContactKey).setValue(newEmergencyContact);
             } else {
                 Log.i("message","Form Fields validation failed.");
             }
@@ -168,9 +200,9 @@ public class EmergencyContactsActionActivity extends AppCompatActivity {
         try {
             this.setTitle(getString(R.string.emergency_contacts_action_delete));
             StringBuilder messageBuilder = new StringBuilder().append("Are you sure that you want to delete Emergency Contact: ")
-                                                              .append((String) getIntent().getExtras().get("name").toString())
-                                                              .append(" ").append((String) getIntent().getExtras().get("surname"))
-                                                              .append(" (").append((String) getIntent().getExtras().get("phone")).append(")?");
+                                                              .append(emergencyContact.getName())
+                                                              .append(" ").append(emergencyContact.getSurname())
+                                                              .append(" (").append(emergencyContact.getPhone()).append(")?");
             ((TextView) findViewById(R.id.deleteMessageTextView)).setText(messageBuilder.toString());
             findViewById(R.id.nameTextView).setVisibility(View.GONE);
             findViewById(R.id.nameEditText).setVisibility(View.GONE);
@@ -193,25 +225,12 @@ public class EmergencyContactsActionActivity extends AppCompatActivity {
     }
 
     // Application validates submitted fields.
-    // On successful fields validation, requested Emergency Contact record is removed.
+    // Requested Emergency Contact record is removed by its key.
     private void deleteEmergencyContactSubmitAction() {
         Log.i("message","DeleteEmergencyContactSubmitAction method started.");
         try {
             findViewById(R.id.progressBar_cyclic).setVisibility(View.VISIBLE);
-            EmergencyContact originalEmergencyContact = emergencyContacts.stream()
-                                                                         .filter(emergencyContact ->
-                                                                                     emergencyContact.getName().equals((String) getIntent().getExtras().get("name"))
-                                                                                     && emergencyContact.getSurname().equals((String) getIntent().getExtras().get("surname"))
-                                                                                     && emergencyContact.getPhone().equals((String) getIntent().getExtras().get("phone")))
-                                                                         .findAny()
-                                                                         .orElse(null);
-            if (originalEmergencyContact != null) {
-                emergencyContacts.remove(originalEmergencyContact);
-            }
-            userEmergencyContactsReference.removeValue();
-            for (EmergencyContact emergencyContact : emergencyContacts) {
-                userEmergencyContactsReference.push().setValue(emergencyContact);
-            }
+            userEmergencyContactsReference.child(emergencyContactKey).removeValue();
             Log.i("message","DeleteEmergencyContactSubmitAction method completed successfully.");
             finish();
         } catch (Exception e) {
@@ -224,7 +243,8 @@ public class EmergencyContactsActionActivity extends AppCompatActivity {
 
     // Validates User submitted Movie fields.
     // Fields cannot be empty and must have a specific length.
-    // 'Phone' field must also follow a specific pattern.
+    // 'Phone' field must also be a valid mobile number, possibly with country prefix and separators,
+    // which does not belong to another Emergency Contact.
     private Boolean validateFormFields() {
         Boolean valid = true;
         EditText nameEditText = findViewById(R.id.nameEditText);
@@ -247,9 +267,15 @@ public class EmergencyContactsActionActivity extends AppCompatActivity {
         if (phoneEditText.getText().toString().trim().length() == 0) {
             phoneEditText.setError(getString(R.string.emergency_contacts_action_validation_error_phone));
             valid = false;
-        } else if (!phoneEditText.getText().toString().matches("69[0-9]{8}")) {
+        } else if (!PhoneNumbers.isValid(phoneEditText.getText().toString())) {
             phoneEditText.setError(getString(R.string.emergency_contacts_action_validation_error_phone_pattern));
             valid = false;
+        } else {
+            String phoneKey = EmergencyContactStore.getInstance().findKeyByPhone(phoneEditText.getText().toString());
+            if (phoneKey != null && !phoneKey.equals(emergencyContactKey)) {
+                phoneEditText.setError(getString(R.string.emergency_contacts_action_validation_error_phone_duplicate));
+                valid = false;
+            }
         }
         return valid;
     }
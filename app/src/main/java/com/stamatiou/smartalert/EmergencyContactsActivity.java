@@ -2,6 +2,11 @@
 //
 // This Activity is used to display user's emergency contact records.
 // User can add/modify/delete records.
+// Records are published to the EmergencyContactStore, so the action screen
+// receives only the key of the selected record.
+// Records can also be imported in bulk from the device address book,
+// once the user selects which address book contacts to import.
+// Firebase listener is bound to the Activity lifecycle, through FirebaseSubscriptions.
 // Network permissions are required.
 //
 // Author: Aggelos Stamatiou, September 2020
@@ -11,12 +16,16 @@
 package com.stamatiou.smartalert;
 
 import androidx.annotation.NonNull;
+import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.core.app.ActivityCompat;
 import androidx.recyclerview.widget.DefaultItemAnimator;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
+import android.Manifest;
 import android.content.Intent;
+import android.content.pm.PackageManager;
 import android.os.Bundle;
 import android.util.Log;
 import android.view.Menu;
@@ -33,24 +42,25 @@ import com.google.firebase.database.FirebaseDatabase;
 import com.google.firebase.database.ValueEventListener;
 import com.stamatiou.entities.EmergencyContact;
 import com.stamatiou.entities.EmergencyContactAdapter;
-import com.treebo.internetavailabilitychecker.InternetAvailabilityChecker;
-import com.treebo.internetavailabilitychecker.InternetConnectivityListener;
+import com.stamatiou.entities.EmergencyContactEntry;
 
 import java.util.ArrayList;
 import java.util.List;
 
-public class EmergencyContactsActivity extends AppCompatActivity implements InternetConnectivityListener {
+public class EmergencyContactsActivity extends AppCompatActivity implements DeviceStateMonitor.Listener {
+
+    private final static int CONTACTS_REQ_CODE = 767;
 
     private DatabaseReference userEmergencyContactsReference;
-    private List<EmergencyContact> emergencyContacts;
+    private List<EmergencyContactEntry> emergencyContacts;
     private EmergencyContactAdapter emergencyContactsAdapter;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_emergency_contacts);
-        InternetAvailabilityChecker.init(this);
-        InternetAvailabilityChecker.getInstance().addInternetConnectivityListener(this);
+        userEmergencyContactsListInit();
+        DeviceStateMonitor.getInstance(this).subscribe(this);
     }
 
     @Override
@@ -61,15 +71,107 @@ public class EmergencyContactsActivity extends AppCompatActivity implements Inte
 
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
+        if (item.getItemId() == R.id.importContacts) {
+            checkContactsPermission();
+            return true;
+        }
         Intent intent = new Intent(this, EmergencyContactsActionActivity.class);
         intent.putExtra("mode", 0);
         startActivity(intent);
         return true;
     }
 
+    // Check contacts permissions, before importing.
+    // If permissions are not granted, application requests them.
+    private void checkContactsPermission() {
+        if (ActivityCompat.checkSelfPermission(this, Manifest.permission.READ_CONTACTS) != PackageManager.PERMISSION_GRANTED) {
+            ActivityCompat.requestPermissions(this, new String[]{Manifest.permission.READ_CONTACTS}, CONTACTS_REQ_CODE);
+        } else {
+            importEmergencyContacts();
+        }
+    }
+
+    @Override
+    public void onRequestPermissionsResult(int requestCode, @NonNull String[] permissions, @NonNull int[] grantResults) {
+        super.onRequestPermissionsResult(requestCode, permissions, grantResults);
+        if (requestCode == CONTACTS_REQ_CODE) {
+            if (ActivityCompat.checkSelfPermission(this, Manifest.permission.READ_CONTACTS) == PackageManager.PERMISSION_GRANTED) {
+                importEmergencyContacts();
+            } else {
+                Toast.makeText(this, getString(R.string.contacts_permission_not_granted), Toast.LENGTH_SHORT).show();
+            }
+        }
+    }
+
+    // Finds the address book contacts with valid mobile numbers, which are not emergency contacts yet,
+    // and lets the user select the ones to import.
+    // Imported records reach the list through the value event listener.
+    private void importEmergencyContacts() {
+        Log.i("message","ImportEmergencyContacts method started.");
+        try {
+            findViewById(R.id.progressBar_cyclic).setVisibility(View.VISIBLE);
+            EmergencyContactImporter.findCandidates(this, userEmergencyContactsReference, new EmergencyContactImporter.Callback() {
+                @Override
+                public void onCandidatesFound(List<EmergencyContact> candidates, int skipped) {
+                    findViewById(R.id.progressBar_cyclic).setVisibility(View.INVISIBLE);
+                    if (candidates.isEmpty()) {
+                        onImportCompleted(0, skipped);
+                    } else if (!isFinishing()) {
+                        selectEmergencyContacts(candidates, skipped, this);
+                    }
+                }
+
+                @Override
+                public void onImportCompleted(int imported, int skipped) {
+                    findViewById(R.id.progressBar_cyclic).setVisibility(View.INVISIBLE);
+                    Toast.makeText(getApplicationContext(), getString(R.string.contacts_import_completed, imported, skipped), Toast.LENGTH_LONG).show();
+                }
+
+                @Override
+                public void onImportFailed(Exception e) {
+                    Log.i("message","Contacts import failed. Error: " + e.getMessage());
+                    findViewById(R.id.progressBar_cyclic).setVisibility(View.INVISIBLE);
+                    Toast.makeText(getApplicationContext(), getString(R.string.contacts_import_failed), Toast.LENGTH_SHORT).show();
+                }
+            });
+            Log.i("message","ImportEmergencyContacts method completed successfully.");
+        } catch (Exception e) {
+            e.printStackTrace();
+            Log.i("message","Exception during ImportEmergencyContacts method:" + e.getMessage());
+            Toast.makeText(this, getString(R.string.exception), Toast.LENGTH_SHORT).show();
+            findViewById(R.id.progressBar_cyclic).setVisibility(View.INVISIBLE);
+        }
+    }
+
+    // Displays the candidates as a multiple choice list, with none selected.
+    // Only the selected candidates are imported.
+    private void selectEmergencyContacts(List<EmergencyContact> candidates, int skipped, EmergencyContactImporter.Callback callback) {
+        String[] labels = new String[candidates.size()];
+        boolean[] selected = new boolean[candidates.size()];
+        for (int i = 0; i < candidates.size(); i++) {
+            EmergencyContact candidate = candidates.get(i);
+            labels[i] = candidate.getName() + " " + candidate.getSurname() + " (" + candidate.getPhone() + ")";
+        }
+        new AlertDialog.Builder(this)
+                       .setTitle(getString(R.string.contacts_import_select))
+                       .setMultiChoiceItems(labels, selected, (dialog, which, isChecked) -> selected[which] = isChecked)
+                       .setPositiveButton(getString(R.string.contacts_import_confirm), (dialog, which) -> {
+                           List<EmergencyContact> selectedContacts = new ArrayList<>();
+                           for (int i = 0; i < candidates.size(); i++) {
+                               if (selected[i]) {
+                                   selectedContacts.add(candidates.get(i));
+                               }
+                           }
+                           findViewById(R.id.progressBar_cyclic).setVisibility(View.VISIBLE);
+                           EmergencyContactImporter.importContacts(userEmergencyContactsReference, selectedContacts, skipped, callback);
+                       })
+                       .setNegativeButton(android.R.string.cancel, null)
+                       .show();
+    }
+
     // User Emergency Contacts List initialization method.
-    // Firebase value event listener for the user's emergency contacts is created.
-    // Emergency Contacts list is refreshed in a live manner.
+    // Firebase value event listener for the user's emergency contacts is subscribed once, while the Activity is started.
+    // Emergency Contacts list and store are refreshed in a live manner.
     private void userEmergencyContactsListInit() {
         Log.i("message","UserEmergencyContactsListInit method started.");
         try {
@@ -84,13 +186,14 @@ public class EmergencyContactsActivity extends AppCompatActivity implements Inte
             recyclerView.setAdapter(emergencyContactsAdapter);
 
             userEmergencyContactsReference = FirebaseDatabase.getInstance().getReference("emergency_contacts/" + FirebaseAuth.getInstance().getCurrentUser().getUid());
-            userEmergencyContactsReference.addValueEventListener(new ValueEventListener() {
+            FirebaseSubscriptions.getInstance().subscribe(this, userEmergencyContactsReference, new ValueEventListener() {
                 @Override
                 public void onDataChange(@NonNull DataSnapshot dataSnapshot) {
                     emergencyContacts.clear();
                     for (DataSnapshot emergencyContact : dataSnapshot.getChildren()) {
-                        emergencyContacts.add(0, emergencyContact.getValue(EmergencyContact.class));
+                        emergencyContacts.add(0, new EmergencyContactEntry(emergencyContact.getKey(), emergencyContact.getValue(EmergencyContact.class)));
                     }
+                    EmergencyContactStore.getInstance().replaceAll(emergencyContacts);
                     refreshEmergencyContacts();
                     findViewById(R.id.progressBar_cyclic).setVisibility(View.INVISIBLE);
                 }
@@ -113,15 +216,22 @@ public class EmergencyContactsActivity extends AppCompatActivity implements Inte
         }
     }
 
-    // Application listens to internet connectivity status.
-    // When internet provider is disabled, user is informed via a message box.
+    // Application listens to internet connectivity status, through the DeviceStateMonitor.
     @Override
-    public void onInternetConnectivityChanged(boolean isConnected) {
+    public void onDeviceStateChanged(DeviceStateMonitor.DeviceState previousState, DeviceStateMonitor.DeviceState state) {
+        if (previousState == null || !previousState.isConnected().equals(state.isConnected())) {
+            onInternetConnectivityChanged(state.isConnected());
+        }
+    }
+
+    // When internet provider is disabled, user is informed via a message box.
+    private void onInternetConnectivityChanged(boolean isConnected) {
         Log.i("message","OnInternetConnectivityChanged method started.");
         try {
             if (isConnected) {
                 findViewById(R.id.recyclerView).setVisibility(View.VISIBLE);
-                userEmergencyContactsListInit();
+                ((TextView) findViewById(R.id.titleView)).setText("");
+                refreshEmergencyContacts();
             } else {
                 findViewById(R.id.recyclerView).setVisibility(View.INVISIBLE);
                 ((TextView) findViewById(R.id.titleView)).setText(getString(R.string.internet_provider_disabled));
@@ -142,4 +252,10 @@ public class EmergencyContactsActivity extends AppCompatActivity implements Inte
         emergencyContactsAdapter.notifyDataSetChanged();
     }
 
+    @Override
+    protected void onDestroy() {
+        DeviceStateMonitor.getInstance(this).unsubscribe(this);
+        super.onDestroy();
+    }
+
 }
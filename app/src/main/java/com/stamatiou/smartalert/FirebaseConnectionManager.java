@@ -0,0 +1,149 @@
+// -------------------------------------------------------------
+//
+// This auxiliary class keeps the Firebase realtime connection and
+// the user's authentication token warm, while monitoring is active.
+// Emergency contacts are kept synced, which keeps the connection open
+// and the contacts cached for the SMS send process.
+// Authentication token is refreshed before it expires, so the writes
+// of an Emergency Alert never wait for connection setup or token refresh.
+//
+// Author: Aggelos Stamatiou, September 2020
+//
+// --------------------------------------------------------------
+
+package com.stamatiou.smartalert;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.google.firebase.auth.FirebaseAuth;
+import com.google.firebase.auth.FirebaseUser;
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.FirebaseDatabase;
+import com.google.firebase.database.ValueEventListener;
+
+public class FirebaseConnectionManager {
+
+    private static final long TOKEN_REFRESH_MARGIN = 300000;
+    private static final long TOKEN_CHECK_INTERVAL = 600000;
+    private static final long MIN_TOKEN_CHECK_INTERVAL = 10000;
+    private static FirebaseConnectionManager instance;
+
+    private final Handler handler;
+    private final DatabaseReference connectedReference;
+    private final ValueEventListener connectedListener;
+    private DatabaseReference userEmergencyContactsReference;
+    private Boolean connected;
+    private int subscribers;
+    private long tokenExpirationTime;
+
+    private FirebaseConnectionManager() {
+        this.handler = new Handler(Looper.getMainLooper());
+        this.connectedReference = FirebaseDatabase.getInstance().getReference(".info/connected");
+        this.connected = false;
+        this.subscribers = 0;
+        this.tokenExpirationTime = 0;
+        this.connectedListener = new ValueEventListener() {
+            @Override
+            public void onDataChange(@NonNull DataSnapshot dataSnapshot) {
+                Boolean isConnected = dataSnapshot.getValue(Boolean.class);
+                connected = isConnected != null && isConnected;
+                Log.i("message","Firebase connection state changed. Connected: " + connected);
+            }
+
+            @Override
+            public void onCancelled(@NonNull DatabaseError databaseError) {
+                Log.i("message","Failed to monitor Firebase connection state. Error: " + databaseError.toException());
+            }
+        };
+    }
+
+    public static synchronized FirebaseConnectionManager getInstance() {
+        if (instance == null) {
+            instance = new FirebaseConnectionManager();
+        }
+        return instance;
+    }
+
+    // Starts keeping the connection warm, when monitoring starts.
+    // Without an authenticated user nothing is started, so the caller is not counted as a subscriber.
+    public synchronized void start() {
+        Log.i("message","FirebaseConnectionManager start method started.");
+        FirebaseUser user = FirebaseAuth.getInstance().getCurrentUser();
+        if (user == null) {
+            Log.i("message","No authenticated user. Connection will not be kept warm.");
+            return;
+        }
+        subscribers++;
+        if (subscribers > 1) {
+            return;
+        }
+        FirebaseDatabase.getInstance().goOnline();
+        connectedReference.addValueEventListener(connectedListener);
+        userEmergencyContactsReference = FirebaseDatabase.getInstance().getReference("emergency_contacts/" + user.getUid());
+        userEmergencyContactsReference.keepSynced(true);
+        refreshToken(false);
+        Log.i("message","FirebaseConnectionManager start method completed successfully.");
+    }
+
+    // Stops keeping the connection warm, when monitoring stops.
+    public synchronized void stop() {
+        Log.i("message","FirebaseConnectionManager stop method started.");
+        if (subscribers == 0 || --subscribers > 0) {
+            return;
+        }
+        handler.removeCallbacksAndMessages(null);
+        connectedReference.removeEventListener(connectedListener);
+        if (userEmergencyContactsReference != null) {
+            userEmergencyContactsReference.keepSynced(false);
+            userEmergencyContactsReference = null;
+        }
+        Log.i("message","FirebaseConnectionManager stop method completed successfully.");
+    }
+
+    // Warms the connection up, as soon as an emergency countdown starts.
+    // Connection is re-opened if it was dropped, and token is refreshed if it is about to expire.
+    public void warm() {
+        Log.i("message","Warming Firebase connection. Connected: " + connected);
+        if (!connected) {
+            FirebaseDatabase.getInstance().goOnline();
+        }
+        if (tokenExpirationTime - System.currentTimeMillis() < TOKEN_REFRESH_MARGIN) {
+            refreshToken(true);
+        }
+    }
+
+    public Boolean isConnected() {
+        return connected;
+    }
+
+    // Refreshes the authentication token and schedules the next refresh before its expiration.
+    private void refreshToken(Boolean forceRefresh) {
+        FirebaseUser user = FirebaseAuth.getInstance().getCurrentUser();
+        if (user == null) {
+            return;
+        }
+        user.getIdToken(forceRefresh).addOnCompleteListener(task -> {
+            long nextCheckDelay = TOKEN_CHECK_INTERVAL;
+            if (task.isSuccessful() && task.getResult() != null) {
+                tokenExpirationTime = task.getResult().getExpirationTimestamp() * 1000;
+                nextCheckDelay = Math.max(MIN_TOKEN_CHECK_INTERVAL, Math.min(TOKEN_CHECK_INTERVAL, tokenExpirationTime - System.currentTimeMillis() - TOKEN_REFRESH_MARGIN));
+                Log.i("message","Authentication token is valid until: " + tokenExpirationTime);
+            } else {
+                Log.i("message","Authentication token refresh failed: " + task.getException());
+            }
+            synchronized (FirebaseConnectionManager.this) {
+                if (subscribers > 0) {
+                    handler.removeCallbacksAndMessages(null);
+                    handler.postDelayed(() -> refreshToken(tokenExpirationTime - System.currentTimeMillis() < TOKEN_REFRESH_MARGIN), nextCheckDelay);
+                }
+            }
+        });
+    }
+
+}
@@ -0,0 +1,76 @@
+// -------------------------------------------------------------
+//
+// This ImageUploader streams files to Firebase Storage.
+// Firebase uploads files in chunks over a resumable session, whose URI
+// is reported as soon as it is available, so an interrupted upload can
+// continue from its last acknowledged chunk.
+// Authorization and missing bucket or project errors are reported as
+// permanent failures, since retrying them never succeeds.
+//
+// Author: Aggelos Stamatiou, September 2020
+//
+// --------------------------------------------------------------
+
+package com.stamatiou.smartalert;
+
+import android.net.Uri;
+
+import androidx.annotation.NonNull;
+
+import com.google.android.gms.tasks.OnFailureListener;
+import com.google.android.gms.tasks.OnSuccessListener;
+import com.google.firebase.storage.FirebaseStorage;
+import com.google.firebase.storage.OnProgressListener;
+import com.google.firebase.storage.StorageException;
+import com.google.firebase.storage.StorageMetadata;
+import com.google.firebase.storage.StorageReference;
+import com.google.firebase.storage.UploadTask;
+
+import java.io.File;
+
+public class FirebaseImageUploader implements ImageUploader {
+
+    @Override
+    public void upload(File file, String storagePath, String sessionUri, Listener listener) {
+        StorageReference imageRef = FirebaseStorage.getInstance().getReference(storagePath);
+        StorageMetadata metadata = new StorageMetadata.Builder().setContentType("image/jpeg").build();
+        UploadTask uploadTask = sessionUri != null
+                                ? imageRef.putFile(Uri.fromFile(file), metadata, Uri.parse(sessionUri))
+                                : imageRef.putFile(Uri.fromFile(file), metadata);
+        uploadTask.addOnProgressListener(new OnProgressListener<UploadTask.TaskSnapshot>() {
+            private Boolean sessionReported = false;
+
+            @Override
+            public void onProgress(@NonNull UploadTask.TaskSnapshot taskSnapshot) {
+                Uri uploadSessionUri = taskSnapshot.getUploadSessionUri();
+                if (!sessionReported && uploadSessionUri != null) {
+                    sessionReported = true;
+                    listener.onSessionStarted(uploadSessionUri.toString());
+                }
+                listener.onProgress(taskSnapshot.getBytesTransferred(), taskSnapshot.getTotalByteCount());
+            }
+        }).addOnFailureListener(new OnFailureListener() {
+            @Override
+            public void onFailure(@NonNull Exception exception) {
+                listener.onFailure(exception, isPermanent(exception));
+            }
+        }).addOnSuccessListener(new OnSuccessListener<UploadTask.TaskSnapshot>() {
+            @Override
+            public void onSuccess(UploadTask.TaskSnapshot taskSnapshot) {
+                listener.onSuccess();
+            }
+        });
+    }
+
+    private static Boolean isPermanent(Exception exception) {
+        if (!(exception instanceof StorageException)) {
+            return false;
+        }
+        int errorCode = ((StorageException) exception).getErrorCode();
+        return errorCode == StorageException.ERROR_NOT_AUTHORIZED
+               || errorCode == StorageException.ERROR_NOT_AUTHENTICATED
+               || errorCode == StorageException.ERROR_BUCKET_NOT_FOUND
+               || errorCode == StorageException.ERROR_PROJECT_NOT_FOUND;
+    }
+
+}
@@ -0,0 +1,146 @@
+// -------------------------------------------------------------
+//
+// This auxiliary class manages the Firebase value subscriptions of the
+// application's screens and of the AccelerometerListener.
+// Subscriptions are either bound to a screen's lifecycle: listeners are attached
+// on start, detached on stop and forgotten on destroy, so they never stack up,
+// or attached and detached explicitly by their owner.
+// Subscriptions are keyed by query, path along with its parameters, so
+// subscriptions of the same query share a single Firebase listener, and a new
+// subscriber receives the latest snapshot immediately.
+// A cancelled subscription is forgotten, so the next attach starts a new one.
+// Child listeners of the EmergencyAlertHistoryPager and the connection listener
+// of the FirebaseConnectionManager are not value subscriptions, and are kept
+// by their owners.
+// Methods must be called on the main thread.
+//
+// Author: Aggelos Stamatiou, September 2020
+//
+// --------------------------------------------------------------
+
+package com.stamatiou.smartalert;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.lifecycle.Lifecycle;
+import androidx.lifecycle.LifecycleEventObserver;
+import androidx.lifecycle.LifecycleOwner;
+
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.Query;
+import com.google.firebase.database.ValueEventListener;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+public class FirebaseSubscriptions {
+
+    private static FirebaseSubscriptions instance;
+
+    private final Map<String, SharedSubscription> subscriptions;
+
+    // Single Firebase listener of a query, which fans out to its subscribers.
+    private class SharedSubscription implements ValueEventListener {
+
+        private final String key;
+        private final Query query;
+        private final Set<ValueEventListener> listeners;
+        private DataSnapshot lastSnapshot;
+
+        private SharedSubscription(String key, Query query) {
+            this.key = key;
+            this.query = query;
+            this.listeners = new LinkedHashSet<>();
+        }
+
+        @Override
+        public void onDataChange(@NonNull DataSnapshot dataSnapshot) {
+            lastSnapshot = dataSnapshot;
+            for (ValueEventListener listener : new ArrayList<>(listeners)) {
+                listener.onDataChange(dataSnapshot);
+            }
+        }
+
+        // Firebase removes a cancelled listener, so the subscription is forgotten along with it.
+        @Override
+        public void onCancelled(@NonNull DatabaseError databaseError) {
+            lastSnapshot = null;
+            if (subscriptions.get(key) == this) {
+                subscriptions.remove(key);
+                Log.i("message","Firebase subscription cancelled: " + key + " " + databaseError.getMessage());
+            }
+            for (ValueEventListener listener : new ArrayList<>(listeners)) {
+                listener.onCancelled(databaseError);
+            }
+        }
+    }
+
+    private FirebaseSubscriptions() {
+        this.subscriptions = new HashMap<>();
+    }
+
+    public static synchronized FirebaseSubscriptions getInstance() {
+        if (instance == null) {
+            instance = new FirebaseSubscriptions();
+        }
+        return instance;
+    }
+
+    // Subscribes the listener to the query, while the owner is started.
+    public void subscribe(LifecycleOwner owner, Query query, ValueEventListener listener) {
+        if (owner.getLifecycle().getCurrentState() == Lifecycle.State.DESTROYED) {
+            return;
+        }
+        owner.getLifecycle().addObserver(new LifecycleEventObserver() {
+            @Override
+            public void onStateChanged(@NonNull LifecycleOwner source, @NonNull Lifecycle.Event event) {
+                if (event == Lifecycle.Event.ON_START) {
+                    attach(query, listener);
+                } else if (event == Lifecycle.Event.ON_STOP) {
+                    detach(query, listener);
+                } else if (event == Lifecycle.Event.ON_DESTROY) {
+                    source.getLifecycle().removeObserver(this);
+                }
+            }
+        });
+    }
+
+    // Attaches the listener to the shared subscription of the query.
+    // Attaching the same listener twice has no effect.
+    public void attach(Query query, ValueEventListener listener) {
+        String key = keyOf(query);
+        SharedSubscription subscription = subscriptions.get(key);
+        if (subscription == null) {
+            subscription = new SharedSubscription(key, query);
+            subscriptions.put(key, subscription);
+            query.addValueEventListener(subscription);
+            Log.i("message","Firebase subscription started: " + key);
+        }
+        if (subscription.listeners.add(listener) && subscription.lastSnapshot != null) {
+            listener.onDataChange(subscription.lastSnapshot);
+        }
+    }
+
+    // Detaches the listener. Firebase listener of the query is removed along with its last subscriber.
+    public void detach(Query query, ValueEventListener listener) {
+        String key = keyOf(query);
+        SharedSubscription subscription = subscriptions.get(key);
+        if (subscription == null || !subscription.listeners.remove(listener) || !subscription.listeners.isEmpty()) {
+            return;
+        }
+        subscription.query.removeEventListener(subscription);
+        subscriptions.remove(key);
+        Log.i("message","Firebase subscription stopped: " + key);
+    }
+
+    // Query specification consists of the path and the query parameters, such as ordering and bounds.
+    private static String keyOf(Query query) {
+        return query.getSpec().toString();
+    }
+
+}
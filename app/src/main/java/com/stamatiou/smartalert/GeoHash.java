@@ -0,0 +1,58 @@
+// -------------------------------------------------------------
+//
+// This auxiliary class encodes coordinates into geohash strings,
+// used as keys of the location based index entries.
+// Close locations share a common geohash prefix.
+//
+// Author: Aggelos Stamatiou, September 2020
+//
+// --------------------------------------------------------------
+
+package com.stamatiou.smartalert;
+
+public class GeoHash {
+
+    private static final char[] BASE32 = "0123456789bcdefghjkmnpqrstuvwxyz".toCharArray();
+
+    private GeoHash() {}
+
+    // Encodes latitude and longitude into a geohash of the requested precision,
+    // by interleaving longitude and latitude bisection bits.
+    public static String encode(double latitude, double longitude, int precision) {
+        double minLatitude = -90, maxLatitude = 90;
+        double minLongitude = -180, maxLongitude = 180;
+        StringBuilder geohash = new StringBuilder(precision);
+        boolean evenBit = true;
+        int bit = 0;
+        int index = 0;
+        while (geohash.length() < precision) {
+            if (evenBit) {
+                double middle = (minLongitude + maxLongitude) / 2;
+                if (longitude >= middle) {
+                    index = (index << 1) | 1;
+                    minLongitude = middle;
+                } else {
+                    index = index << 1;
+                    maxLongitude = middle;
+                }
+            } else {
+                double middle = (minLatitude + maxLatitude) / 2;
+                if (latitude >= middle) {
+                    index = (index << 1) | 1;
+                    minLatitude = middle;
+                } else {
+                    index = index << 1;
+                    maxLatitude = middle;
+                }
+            }
+            evenBit = !evenBit;
+            if (++bit == 5) {
+                geohash.append(BASE32[index]);
+                bit = 0;
+                index = 0;
+            }
+        }
+        return geohash.toString();
+    }
+
+}
@@ -0,0 +1,292 @@
+// -------------------------------------------------------------
+//
+// This auxiliary class implements a persistent queue of fire image
+// uploads, which is independent of any Activity.
+// Each upload is stored on disk along with its local file, storage path,
+// upload session URI and the key of its fire Emergency Alert, so after a
+// process restart or a connectivity loss the upload resumes from its session.
+// Alert is dispatched before the upload starts, and its record is patched
+// with the image path, through the AlertOutbox, once the upload completes.
+// Upload progress is reported to the registered listeners, and completion
+// to the caller that enqueued the upload, while the process is alive.
+// Session bookkeeping is implemented by ImageUploadSessions, while this
+// class provides its on-disk storage, retries and connectivity handling.
+// Upload failures are reported to the user once per upload, and only while
+// one of the application's screens is visible.
+//
+// Author: Aggelos Stamatiou, September 2020
+//
+// --------------------------------------------------------------
+
+package com.stamatiou.smartalert;
+
+import android.app.Activity;
+import android.app.Application;
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.AtomicFile;
+import android.util.Log;
+import android.widget.Toast;
+
+import androidx.annotation.NonNull;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+public class ImageUploadQueue implements ImageUploadSessions.Listener {
+
+    public interface ProgressListener {
+        void onUploadProgress(String uploadId, long bytesTransferred, long totalBytes);
+    }
+
+    public interface CompletionListener {
+        // Called once the file is stored under its storage path.
+        void onUploadCompleted(String storagePath);
+    }
+
+    private static final String QUEUE_FILE_NAME = "image_uploads.json";
+    private static final long INITIAL_RETRY_DELAY = 5000;
+    private static final long MAX_RETRY_DELAY = 300000;
+    private static ImageUploadQueue instance;
+
+    private final Context context;
+    private final Handler handler;
+    private final ImageUploadSessions imageUploadSessions;
+    private final List<ProgressListener> progressListeners;
+    private final Map<String, CompletionListener> completionListeners;
+    private final Set<String> reportedUploads;
+    private int failedAttempts;
+    private int startedActivities;
+    private Boolean retryScheduled;
+
+    // Queue can be created with a stand-in ImageUploader, e.g. targeting a local storage server.
+    ImageUploadQueue(Context context, ImageUploader imageUploader) {
+        this.context = context;
+        this.handler = new Handler(Looper.getMainLooper());
+        this.progressListeners = new ArrayList<>();
+        this.completionListeners = new HashMap<>();
+        this.reportedUploads = new HashSet<>();
+        this.failedAttempts = 0;
+        this.startedActivities = 0;
+        this.retryScheduled = false;
+        this.imageUploadSessions = new ImageUploadSessions(imageUploader, new FileStore(new AtomicFile(new File(context.getFilesDir(), QUEUE_FILE_NAME))), this);
+        ((Application) context).registerActivityLifecycleCallbacks(new VisibilityCallbacks());
+        ((ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE)).registerDefaultNetworkCallback(new ConnectivityManager.NetworkCallback() {
+            @Override
+            public void onAvailable(@NonNull Network network) {
+                handler.post(ImageUploadQueue.this::resume);
+            }
+        });
+    }
+
+    public static synchronized ImageUploadQueue getInstance(Context context) {
+        if (instance == null) {
+            instance = new ImageUploadQueue(context.getApplicationContext(), new FirebaseImageUploader());
+        }
+        return instance;
+    }
+
+    public synchronized void addProgressListener(ProgressListener progressListener) {
+        progressListeners.add(progressListener);
+    }
+
+    public synchronized void removeProgressListener(ProgressListener progressListener) {
+        progressListeners.remove(progressListener);
+    }
+
+    // Enqueues the upload of a fire image and starts it.
+    // Emergency Alert record of the given key is patched with the image path, once the upload completes.
+    // Completion listener is optional, and is not restored after a process restart.
+    public String enqueue(File file, String storagePath, String uid, String emergencyAlertKey, CompletionListener completionListener) {
+        String uploadId = UUID.randomUUID().toString();
+        try {
+            JSONObject upload = new JSONObject()
+                                              .put("id", uploadId)
+                                              .put("file", file.getAbsolutePath())
+                                              .put("storagePath", storagePath)
+                                              .put("uid", uid)
+                                              .put("emergencyAlertKey", emergencyAlertKey);
+            if (completionListener != null) {
+                synchronized (this) {
+                    completionListeners.put(uploadId, completionListener);
+                }
+            }
+            imageUploadSessions.add(upload);
+            Log.i("message","Image upload enqueued: " + uploadId);
+        } catch (JSONException e) {
+            Log.i("message","Exception during image upload enqueue:" + e.getMessage());
+        }
+        resume();
+        return uploadId;
+    }
+
+    // Starts every pending upload which is not already running.
+    public void resume() {
+        imageUploadSessions.resume();
+    }
+
+    @Override
+    public void onUploadProgress(String uploadId, long bytesTransferred, long totalBytes) {
+        List<ProgressListener> listeners;
+        synchronized (this) {
+            listeners = new ArrayList<>(progressListeners);
+        }
+        for (ProgressListener progressListener : listeners) {
+            progressListener.onUploadProgress(uploadId, bytesTransferred, totalBytes);
+        }
+    }
+
+    @Override
+    public void onUploadCompleted(String uploadId, JSONObject upload) {
+        CompletionListener completionListener;
+        synchronized (this) {
+            completionListener = completionListeners.remove(uploadId);
+            failedAttempts = 0;
+        }
+        try {
+            AlertOutbox.getInstance(context).append(WriteBatch.forEmergencyAlertImage(upload.getString("uid"), upload.getString("emergencyAlertKey"), upload.getString("storagePath")));
+        } catch (JSONException e) {
+            Log.i("message","Exception during Emergency Alert image patch:" + e.getMessage());
+        }
+        if (!new File(upload.optString("file")).delete()) {
+            Log.i("message","Uploaded image file could not be deleted: " + uploadId);
+        }
+        if (completionListener != null) {
+            completionListener.onUploadCompleted(upload.optString("storagePath"));
+        }
+    }
+
+    // Failed uploads remain queued and are retried with exponential backoff, or when connectivity returns.
+    @Override
+    public void onUploadFailed(String uploadId, Exception exception) {
+        synchronized (this) {
+            failedAttempts++;
+            scheduleRetry();
+        }
+        reportFailure(uploadId);
+    }
+
+    // Dropped uploads are not retried. Their files are already deleted.
+    @Override
+    public void onUploadDropped(String uploadId, Exception exception) {
+        synchronized (this) {
+            completionListeners.remove(uploadId);
+        }
+        if (exception != null) {
+            reportFailure(uploadId);
+        }
+    }
+
+    // Informs the user about the failure of an upload, once, if a screen is visible.
+    private void reportFailure(String uploadId) {
+        handler.post(() -> {
+            synchronized (ImageUploadQueue.this) {
+                if (startedActivities == 0 || !reportedUploads.add(uploadId)) {
+                    return;
+                }
+            }
+            Toast.makeText(context, context.getString(R.string.exception_file_upload), Toast.LENGTH_SHORT).show();
+        });
+    }
+
+    private synchronized void scheduleRetry() {
+        if (retryScheduled) {
+            return;
+        }
+        retryScheduled = true;
+        long delay = Math.min(MAX_RETRY_DELAY, INITIAL_RETRY_DELAY << Math.min(failedAttempts - 1, 16));
+        handler.postDelayed(() -> {
+            synchronized (ImageUploadQueue.this) {
+                retryScheduled = false;
+            }
+            resume();
+        }, delay);
+    }
+
+    // Counts the started Activities of the application, i.e. whether a screen is visible.
+    private class VisibilityCallbacks implements Application.ActivityLifecycleCallbacks {
+
+        @Override
+        public void onActivityStarted(@NonNull Activity activity) {
+            synchronized (ImageUploadQueue.this) {
+                startedActivities++;
+            }
+        }
+
+        @Override
+        public void onActivityStopped(@NonNull Activity activity) {
+            synchronized (ImageUploadQueue.this) {
+                startedActivities = Math.max(0, startedActivities - 1);
+            }
+        }
+
+        @Override
+        public void onActivityCreated(@NonNull Activity activity, Bundle savedInstanceState) {}
+
+        @Override
+        public void onActivityResumed(@NonNull Activity activity) {}
+
+        @Override
+        public void onActivityPaused(@NonNull Activity activity) {}
+
+        @Override
+        public void onActivitySaveInstanceState(@NonNull Activity activity, @NonNull Bundle outState) {}
+
+        @Override
+        public void onActivityDestroyed(@NonNull Activity activity) {}
+    }
+
+    // Stores the pending uploads in a file, which is atomically replaced on every change.
+    private static class FileStore implements ImageUploadSessions.Store {
+
+        private final AtomicFile queueFile;
+
+        private FileStore(AtomicFile queueFile) {
+            this.queueFile = queueFile;
+        }
+
+        @Override
+        public List<JSONObject> read() throws IOException, JSONException {
+            JSONArray uploads = new JSONArray(new String(queueFile.readFully(), StandardCharsets.UTF_8));
+            List<JSONObject> result = new ArrayList<>();
+            for (int i = 0; i < uploads.length(); i++) {
+                result.add(uploads.getJSONObject(i));
+            }
+            return result;
+        }
+
+        @Override
+        public void write(Collection<JSONObject> uploads) throws IOException {
+            FileOutputStream outputStream = null;
+            try {
+                outputStream = queueFile.startWrite();
+                outputStream.write(new JSONArray(uploads).toString().getBytes(StandardCharsets.UTF_8));
+                queueFile.finishWrite(outputStream);
+            } catch (IOException e) {
+                if (outputStream != null) {
+                    queueFile.failWrite(outputStream);
+                }
+                throw e;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,222 @@
+// -------------------------------------------------------------
+//
+// This auxiliary class implements the bookkeeping of the ImageUploadQueue.
+// Pending uploads are kept along with their upload session URI, which is
+// stored as soon as the uploader reports it, so a later attempt, even after
+// a process restart, resumes the session instead of starting over.
+// Attempts are counted per upload: an upload which fails permanently, or
+// fails too many times, is dropped and its file is deleted.
+// Storage of the uploads and the upload outcome handling are provided by
+// the queue, so this class can be exercised with stand-in implementations.
+//
+// Author: Aggelos Stamatiou, September 2020
+//
+// --------------------------------------------------------------
+
+package com.stamatiou.smartalert;
+
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+
+class ImageUploadSessions {
+
+    interface Store {
+        // Returns the stored uploads. IOException is thrown when nothing is stored yet.
+        List<JSONObject> read() throws IOException, JSONException;
+
+        // Replaces the stored uploads.
+        void write(Collection<JSONObject> uploads) throws IOException;
+    }
+
+    interface Listener {
+
+        void onUploadProgress(String uploadId, long bytesTransferred, long totalBytes);
+
+        void onUploadCompleted(String uploadId, JSONObject upload);
+
+        // Called when a failed upload remains pending, to be retried.
+        void onUploadFailed(String uploadId, Exception exception);
+
+        // Called when an upload is dropped, after its last failure, or with no exception if its file is missing.
+        void onUploadDropped(String uploadId, Exception exception);
+    }
+
+    private static final int PROGRESS_LOG_STEP = 10;
+    private static final int MAX_ATTEMPTS = 10;
+
+    private final ImageUploader imageUploader;
+    private final Store store;
+    private final Listener listener;
+    private final LinkedHashMap<String, JSONObject> pendingUploads;
+    private final Set<String> runningUploads;
+
+    ImageUploadSessions(ImageUploader imageUploader, Store store, Listener listener) {
+        this.imageUploader = imageUploader;
+        this.store = store;
+        this.listener = listener;
+        this.pendingUploads = new LinkedHashMap<>();
+        this.runningUploads = new HashSet<>();
+        restore();
+    }
+
+    // Adds an upload, described by its id, file, storage path and any caller specific fields.
+    synchronized void add(JSONObject upload) throws JSONException {
+        pendingUploads.put(upload.getString("id"), upload);
+        persist();
+    }
+
+    synchronized int size() {
+        return pendingUploads.size();
+    }
+
+    // Starts every pending upload which is not already running.
+    // Uploads with a stored session URI continue from their last acknowledged chunk.
+    synchronized void resume() {
+        for (JSONObject upload : new ArrayList<>(pendingUploads.values())) {
+            String uploadId = upload.optString("id");
+            if (runningUploads.contains(uploadId)) {
+                continue;
+            }
+            File file = new File(upload.optString("file"));
+            if (!file.exists()) {
+                Log.i("message","Dropping image upload, file is missing: " + uploadId);
+                pendingUploads.remove(uploadId);
+                persist();
+                listener.onUploadDropped(uploadId, null);
+                continue;
+            }
+            runningUploads.add(uploadId);
+            String sessionUri = upload.optString("sessionUri", null);
+            Log.i("message","Image upload " + (sessionUri != null ? "resumed: " : "started: ") + uploadId);
+            imageUploader.upload(file, upload.optString("storagePath"), sessionUri, new UploadListener(uploadId, sessionUri != null));
+        }
+    }
+
+    // Uploader events of a single upload.
+    private class UploadListener implements ImageUploader.Listener {
+
+        private final String uploadId;
+        private final Boolean resumed;
+        private long bytesTransferred;
+        private int loggedPercentage;
+
+        private UploadListener(String uploadId, Boolean resumed) {
+            this.uploadId = uploadId;
+            this.resumed = resumed;
+            this.bytesTransferred = 0;
+            this.loggedPercentage = -PROGRESS_LOG_STEP;
+        }
+
+        @Override
+        public void onSessionStarted(String sessionUri) {
+            synchronized (ImageUploadSessions.this) {
+                JSONObject upload = pendingUploads.get(uploadId);
+                if (upload != null && !sessionUri.equals(upload.optString("sessionUri", null))) {
+                    try {
+                        upload.put("sessionUri", sessionUri);
+                        persist();
+                    } catch (JSONException e) {
+                        Log.i("message","Exception during upload session storing:" + e.getMessage());
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void onProgress(long bytesTransferred, long totalBytes) {
+            this.bytesTransferred = bytesTransferred;
+            int percentage = totalBytes > 0 ? (int) (100 * bytesTransferred / totalBytes) : 0;
+            if (percentage >= loggedPercentage + PROGRESS_LOG_STEP) {
+                loggedPercentage = percentage;
+                Log.i("message","Image upload " + uploadId + " progress: " + percentage + "%");
+            }
+            listener.onUploadProgress(uploadId, bytesTransferred, totalBytes);
+        }
+
+        @Override
+        public void onSuccess() {
+            Log.i("message","Image upload completed successfully: " + uploadId);
+            JSONObject upload;
+            synchronized (ImageUploadSessions.this) {
+                runningUploads.remove(uploadId);
+                upload = pendingUploads.remove(uploadId);
+                persist();
+            }
+            if (upload != null) {
+                listener.onUploadCompleted(uploadId, upload);
+            }
+        }
+
+        // Failed uploads remain pending, until the next resume, unless they failed permanently or too many times.
+        // A resumed session which made no progress is considered expired, so the next attempt starts a new one.
+        @Override
+        public void onFailure(Exception exception, Boolean permanent) {
+            Log.i("message","Exception during image upload " + uploadId + ":" + exception.getMessage());
+            JSONObject droppedUpload = null;
+            synchronized (ImageUploadSessions.this) {
+                runningUploads.remove(uploadId);
+                JSONObject upload = pendingUploads.get(uploadId);
+                if (upload == null) {
+                    return;
+                }
+                int attempts = upload.optInt("attempts", 0) + 1;
+                if (permanent || attempts >= MAX_ATTEMPTS) {
+                    droppedUpload = pendingUploads.remove(uploadId);
+                } else {
+                    try {
+                        upload.put("attempts", attempts);
+                    } catch (JSONException e) {
+                        Log.i("message","Exception during upload attempts storing:" + e.getMessage());
+                    }
+                    if (resumed && bytesTransferred == 0) {
+                        upload.remove("sessionUri");
+                    }
+                }
+                persist();
+            }
+            if (droppedUpload == null) {
+                listener.onUploadFailed(uploadId, exception);
+                return;
+            }
+            Log.i("message","Dropping image upload " + uploadId + (permanent ? ", failed permanently." : ", too many failed attempts."));
+            if (!new File(droppedUpload.optString("file")).delete()) {
+                Log.i("message","Dropped image file could not be deleted: " + uploadId);
+            }
+            listener.onUploadDropped(uploadId, exception);
+        }
+    }
+
+    // Restores the uploads of previous sessions.
+    private synchronized void restore() {
+        try {
+            for (JSONObject upload : store.read()) {
+                pendingUploads.put(upload.getString("id"), upload);
+            }
+            Log.i("message","Image upload queue restored. Pending uploads: " + pendingUploads.size());
+        } catch (IOException e) {
+            Log.i("message","No image upload queue to restore.");
+        } catch (JSONException e) {
+            Log.i("message","Exception during image upload queue restore:" + e.getMessage());
+        }
+    }
+
+    private void persist() {
+        try {
+            store.write(pendingUploads.values());
+        } catch (IOException e) {
+            Log.i("message","Exception during image upload queue persist:" + e.getMessage());
+        }
+    }
+
+}
@@ -0,0 +1,34 @@
+// -------------------------------------------------------------
+//
+// This interface defines the transport of the ImageUploadQueue.
+// Uploads are resumable: an upload session URI is reported once the
+// session is created, and can be passed back to continue the upload
+// from the last byte acknowledged by the storage server.
+// Stand-in implementations can target a local storage server.
+//
+// Author: Aggelos Stamatiou, September 2020
+//
+// --------------------------------------------------------------
+
+package com.stamatiou.smartalert;
+
+import java.io.File;
+
+public interface ImageUploader {
+
+    interface Listener {
+
+        void onSessionStarted(String sessionUri);
+
+        void onProgress(long bytesTransferred, long totalBytes);
+
+        void onSuccess();
+
+        // Permanent failures (e.g. denied by the storage rules) are not retried.
+        void onFailure(Exception exception, Boolean permanent);
+    }
+
+    // Uploads the file to the storage path, resuming the session if a session URI is provided.
+    void upload(File file, String storagePath, String sessionUri, Listener listener);
+
+}
@@ -0,0 +1,66 @@
+// -------------------------------------------------------------
+//
+// This AlertChannel posts a local notification on the device,
+// informing bystanders and the user that an Emergency Alert was raised.
+//
+// Author: Aggelos Stamatiou, September 2020
+//
+// --------------------------------------------------------------
+
+package com.stamatiou.smartalert;
+
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.content.Context;
+import android.os.Build;
+import android.util.Log;
+
+import androidx.core.app.NotificationCompat;
+import androidx.core.app.NotificationManagerCompat;
+
+import com.stamatiou.entities.EmergencyAlert;
+import com.stamatiou.entities.EmergencyContact;
+
+import java.util.List;
+
+public class LocalAlertChannel implements AlertChannel {
+
+    private static final String NOTIFICATION_CHANNEL_ID = "emergency_alert";
+    private final Context context;
+
+    public LocalAlertChannel(Context context) {
+        this.context = context.getApplicationContext();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            NotificationChannel notificationChannel = new NotificationChannel(NOTIFICATION_CHANNEL_ID, context.getString(R.string.emergency_alert_channel), NotificationManager.IMPORTANCE_HIGH);
+            ((NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE)).createNotificationChannel(notificationChannel);
+        }
+    }
+
+    @Override
+    public String getName() {
+        return "local";
+    }
+
+    @Override
+    public Boolean notifiesContacts() {
+        return false;
+    }
+
+    // Posts the local notification.
+    // Channel succeeds if notifications are enabled for the application.
+    @Override
+    public void send(String emergencyAlertKey, EmergencyAlert emergencyAlert, List<EmergencyContact> emergencyContacts, Callback callback) {
+        Log.i("message","Local channel send started.");
+        NotificationManagerCompat notificationManager = NotificationManagerCompat.from(context);
+        String message = SmsPayloadEncoder.encode(context, emergencyAlert.getType(), emergencyAlert.getLatitude(), emergencyAlert.getLongitude());
+        notificationManager.notify(emergencyAlertKey, 0, new NotificationCompat.Builder(context, NOTIFICATION_CHANNEL_ID)
+                                                                               .setSmallIcon(R.mipmap.ic_launcher)
+                                                                               .setContentTitle(context.getString(R.string.emergency_alert_submitted))
+                                                                               .setContentText(message)
+                                                                               .setPriority(NotificationCompat.PRIORITY_HIGH)
+                                                                               .setCategory(NotificationCompat.CATEGORY_ALARM)
+                                                                               .build());
+        callback.onComplete(notificationManager.areNotificationsEnabled());
+    }
+
+}
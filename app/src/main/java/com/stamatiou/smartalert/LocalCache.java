@@ -0,0 +1,158 @@
+// -------------------------------------------------------------
+//
+// This auxiliary class implements the on-device SQLite cache of the
+// user's Firebase data, so screens render local data immediately,
+// also while offline, and merge remote updates in the background.
+// Cached collections: emergency alerts.
+// Database access runs on a single background executor.
+//
+// Author: Aggelos Stamatiou, September 2020
+//
+// --------------------------------------------------------------
+
+package com.stamatiou.smartalert;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.stamatiou.entities.EmergencyAlert;
+import com.stamatiou.entities.EmergencyAlertStatus;
+import com.stamatiou.entities.EmergencyAlertType;
+
+import java.util.Date;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class LocalCache extends SQLiteOpenHelper {
+
+    private static final String DATABASE_NAME = "smartalert_cache.db";
+    private static final int DATABASE_VERSION = 3;
+    private static LocalCache instance;
+
+    private final ExecutorService executor;
+    private final Handler mainHandler;
+    private final CachedCollection<EmergencyAlert> emergencyAlerts;
+
+    private LocalCache(Context context) {
+        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        this.executor = Executors.newSingleThreadExecutor();
+        this.mainHandler = new Handler(Looper.getMainLooper());
+        this.emergencyAlerts = new CachedCollection<>(this, "emergency_alerts", new EmergencyAlertMapper());
+    }
+
+    public static synchronized LocalCache getInstance(Context context) {
+        if (instance == null) {
+            instance = new LocalCache(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    public CachedCollection<EmergencyAlert> getEmergencyAlerts() {
+        return emergencyAlerts;
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase database) {
+        emergencyAlerts.createTable(database);
+        database.execSQL("CREATE TABLE sync_state (collection TEXT NOT NULL, uid TEXT NOT NULL, start_reached INTEGER NOT NULL, PRIMARY KEY (collection, uid))");
+    }
+
+    // Cached data can always be fetched again, so upgrades simply recreate the database.
+    // Version 2 dropped the unused emergency contacts table, version 3 added the location fix columns.
+    @Override
+    public void onUpgrade(SQLiteDatabase database, int oldVersion, int newVersion) {
+        emergencyAlerts.dropTable(database);
+        database.execSQL("DROP TABLE IF EXISTS emergency_contacts");
+        database.execSQL("DROP TABLE IF EXISTS sync_state");
+        onCreate(database);
+    }
+
+    void execute(Runnable runnable) {
+        executor.execute(runnable);
+    }
+
+    void postToMain(Runnable runnable) {
+        mainHandler.post(runnable);
+    }
+
+    void postToMainDelayed(Runnable runnable, long delay) {
+        mainHandler.postDelayed(runnable, delay);
+    }
+
+    Boolean isStartReached(String collection, String uid) {
+        try (Cursor cursor = getReadableDatabase().query("sync_state", new String[] {"start_reached"}, "collection = ? AND uid = ?", new String[] {collection, uid}, null, null, null)) {
+            return cursor.moveToFirst() && cursor.getInt(0) == 1;
+        }
+    }
+
+    void setStartReached(String collection, String uid) {
+        ContentValues contentValues = new ContentValues();
+        contentValues.put("collection", collection);
+        contentValues.put("uid", uid);
+        contentValues.put("start_reached", 1);
+        getWritableDatabase().insertWithOnConflict("sync_state", null, contentValues, SQLiteDatabase.CONFLICT_REPLACE);
+    }
+
+    private static class EmergencyAlertMapper implements CachedCollection.Mapper<EmergencyAlert> {
+
+        @Override
+        public String getColumnsDefinition() {
+            return "type TEXT, status TEXT, latitude REAL, longitude REAL, timestamp INTEGER, image_path TEXT, count_down_policy TEXT, fire_confidence REAL, location_age INTEGER, location_accuracy REAL";
+        }
+
+        @Override
+        public ContentValues toContentValues(EmergencyAlert emergencyAlert) {
+            ContentValues contentValues = new ContentValues();
+            contentValues.put("type", emergencyAlert.getType() != null ? emergencyAlert.getType().name() : null);
+            contentValues.put("status", emergencyAlert.getStatus() != null ? emergencyAlert.getStatus().name() : null);
+            contentValues.put("latitude", emergencyAlert.getLatitude());
+            contentValues.put("longitude", emergencyAlert.getLongitude());
+            contentValues.put("timestamp", emergencyAlert.getTimestamp() != null ? emergencyAlert.getTimestamp().getTime() : null);
+            contentValues.put("image_path", emergencyAlert.getImagePath());
+            contentValues.put("count_down_policy", emergencyAlert.getCountDownPolicy());
+            contentValues.put("fire_confidence", emergencyAlert.getFireConfidence());
+            contentValues.put("location_age", emergencyAlert.getLocationAge());
+            contentValues.put("location_accuracy", emergencyAlert.getLocationAccuracy());
+            return contentValues;
+        }
+
+        @Override
+        public EmergencyAlert fromCursor(Cursor cursor) {
+            return new EmergencyAlert.Builder()
+                                     .withEmergencyAlertType(enumValue(EmergencyAlertType.class, cursor, "type"))
+                                     .withEmergencyAlertStatus(enumValue(EmergencyAlertStatus.class, cursor, "status"))
+                                     .withLatitude(doubleValue(cursor, "latitude"))
+                                     .withLongitude(doubleValue(cursor, "longitude"))
+                                     .withTimestamp(isNull(cursor, "timestamp") ? null : new Date(cursor.getLong(cursor.getColumnIndexOrThrow("timestamp"))))
+                                     .withImagePath(cursor.getString(cursor.getColumnIndexOrThrow("image_path")))
+                                     .withCountDownPolicy(cursor.getString(cursor.getColumnIndexOrThrow("count_down_policy")))
+                                     .withFireConfidence(doubleValue(cursor, "fire_confidence"))
+                                     .withLocationAge(isNull(cursor, "location_age") ? null : cursor.getLong(cursor.getColumnIndexOrThrow("location_age")))
+                                     .withLocationAccuracy(doubleValue(cursor, "location_accuracy"))
+                                     .build();
+        }
+
+        @Override
+        public Class<EmergencyAlert> getType() {
+            return EmergencyAlert.class;
+        }
+    }
+
+    private static Boolean isNull(Cursor cursor, String column) {
+        return cursor.isNull(cursor.getColumnIndexOrThrow(column));
+    }
+
+    private static Double doubleValue(Cursor cursor, String column) {
+        return isNull(cursor, column) ? null : cursor.getDouble(cursor.getColumnIndexOrThrow(column));
+    }
+
+    private static <E extends Enum<E>> E enumValue(Class<E> type, Cursor cursor, String column) {
+        return isNull(cursor, column) ? null : Enum.valueOf(type, cursor.getString(cursor.getColumnIndexOrThrow(column)));
+    }
+
+}
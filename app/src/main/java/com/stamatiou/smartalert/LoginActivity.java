@@ -254,6 +254,7 @@ public class LoginActivity extends AppCompatActivity {
         super.onRestart();
         ((EditText) findViewById(R.id.passwordEditText)).getText().clear();
         FirebaseAuth.getInstance().signOut();
+        EmergencyContactStore.getInstance().clear();
     }
 
 }
@@ -0,0 +1,42 @@
+// -------------------------------------------------------------
+//
+// This auxiliary class normalizes and validates emergency contact
+// phone numbers, with a precompiled pattern.
+// Numbers are accepted in national form (69XXXXXXXX), or with the
+// +30/0030 country prefix and common separators (spaces, dashes,
+// dots, parentheses), and are stored in national form.
+//
+// Author: Aggelos Stamatiou, September 2020
+//
+// --------------------------------------------------------------
+
+package com.stamatiou.smartalert;
+
+import java.util.regex.Pattern;
+
+public class PhoneNumbers {
+
+    private static final Pattern MOBILE_PATTERN = Pattern.compile("69[0-9]{8}");
+    private static final Pattern SEPARATORS_PATTERN = Pattern.compile("[\\s\\-.()/]");
+
+    private PhoneNumbers() {}
+
+    // Returns the number in national form, or null if it is not a valid mobile number.
+    public static String normalize(String phone) {
+        if (phone == null) {
+            return null;
+        }
+        String normalizedPhone = SEPARATORS_PATTERN.matcher(phone).replaceAll("");
+        if (normalizedPhone.startsWith("+30")) {
+            normalizedPhone = normalizedPhone.substring(3);
+        } else if (normalizedPhone.startsWith("0030")) {
+            normalizedPhone = normalizedPhone.substring(4);
+        }
+        return MOBILE_PATTERN.matcher(normalizedPhone).matches() ? normalizedPhone : null;
+    }
+
+    public static Boolean isValid(String phone) {
+        return normalize(phone) != null;
+    }
+
+}
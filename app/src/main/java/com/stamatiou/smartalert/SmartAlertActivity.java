@@ -5,7 +5,9 @@
 //      1. AccelerometerListener: SensorEventListener used to monitor falls and earthquakes.
 //      2. FireListener: Activity used to access user's camera for submitting a fire photograph.
 // User can navigate to rest application activities using the top right menu.
-// Location permissions are required.
+// User's location is acquired by the AlertLocationManager, at balanced power
+// while idle, and at high accuracy only while a countdown is running.
+// Location and SMS permissions are required.
 //
 // Author: Aggelos Stamatiou, September 2020
 //
@@ -16,9 +18,6 @@ package com.stamatiou.smartalert;
 import android.Manifest;
 import android.content.Intent;
 import android.content.pm.PackageManager;
-import android.location.Location;
-import android.location.LocationListener;
-import android.location.LocationManager;
 import android.os.Bundle;
 import android.util.Log;
 import android.view.Menu;
@@ -32,16 +31,17 @@ import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.app.ActivityCompat;
 
-import com.google.android.gms.location.LocationServices;
-import com.google.android.gms.tasks.OnSuccessListener;
 import com.stamatiou.listener.AccelerometerListener;
 import com.stamatiou.listener.FireListener;
 
-public class SmartAlertActivity extends AppCompatActivity implements LocationListener {
+public class SmartAlertActivity extends AppCompatActivity implements AlertLocationManager.Listener {
 
     private final static int REQ_CODE = 765;
+    private final static int SMS_REQ_CODE = 766;
+    private final static int FIRE_REPORT_REQ_CODE = 767;
     private AccelerometerListener accelerometerListener;
-    private static ProgressBar progressBar;
+    private ProgressBar progressBar;
+    private Boolean smsPermissionRequested = false;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -64,6 +64,8 @@ public class SmartAlertActivity extends AppCompatActivity implements LocationLis
             intent = new Intent(this, EmergencyContactsActivity.class);
         } else if (id == R.id.userEmergencyAlertsHistory) {
             intent = new Intent(this, UserEmergencyAlertsHistoryActivity.class);
+        } else if (id == R.id.emergencyAlertStatistics) {
+            intent = new Intent(this, EmergencyAlertStatisticsActivity.class);
         } else {
             finish();
         }
@@ -74,13 +76,18 @@ public class SmartAlertActivity extends AppCompatActivity implements LocationLis
     }
 
     // Activity initialization method.
+    // Pending AlertOutbox records and image uploads of previous sessions are resumed.
     // AccelerometerListener and FireListener are initialized.
-    // Application checks appropriate location permissions.
+    // Alarm sound is preloaded after the first frame is drawn.
+    // Application checks appropriate location and SMS permissions.
     private void smartAlertInit() {
         Log.i("message","SmartAlertInit method started.");
         try {
             progressBar = findViewById(R.id.progressBar_cyclic);
+            AlertOutbox.getInstance(this).flush();
+            ImageUploadQueue.getInstance(this).resume();
             accelerometerListenerInit();
+            getWindow().getDecorView().post(() -> accelerometerListener.preloadAlarm());
             checkLocationPermission();
             fireListenerInit();
             findViewById(R.id.abortButton).setOnClickListener(new View.OnClickListener() {
@@ -112,6 +119,7 @@ public class SmartAlertActivity extends AppCompatActivity implements LocationLis
 
     // FireListener initialization method.
     // Fire listener is bound to the fire button.
+    // Progress bar is shown until the FireListener returns its result.
     private void fireListenerInit() {
         Log.i("message","FireListenerInit method started.");
         try {
@@ -121,7 +129,7 @@ public class SmartAlertActivity extends AppCompatActivity implements LocationLis
                     progressBar.setVisibility(View.VISIBLE);
                     Intent intent = new Intent(getApplicationContext(), FireListener.class);
                     intent.putExtra("location", accelerometerListener.getLocation());
-                    startActivity(intent);
+                    startActivityForResult(intent, FIRE_REPORT_REQ_CODE);
                 }
             });
             Log.i("message","FireListenerInit method completed successfully.");
@@ -132,8 +140,14 @@ public class SmartAlertActivity extends AppCompatActivity implements LocationLis
         }
     }
 
-    public static void disableProgressBar() {
-        progressBar.setVisibility(View.INVISIBLE);
+    // FireListener result processing.
+    // Fire report has either been dispatched or cancelled, so the progress bar is hidden.
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        super.onActivityResult(requestCode, resultCode, data);
+        if (requestCode == FIRE_REPORT_REQ_CODE) {
+            progressBar.setVisibility(View.INVISIBLE);
+        }
     }
 
     // Check location permissions.
@@ -146,15 +160,8 @@ public class SmartAlertActivity extends AppCompatActivity implements LocationLis
                     && ActivityCompat.checkSelfPermission(this, Manifest.permission.ACCESS_COARSE_LOCATION) != PackageManager.PERMISSION_GRANTED) {
                 ActivityCompat.requestPermissions(this, new String[]{Manifest.permission.ACCESS_FINE_LOCATION, Manifest.permission.ACCESS_COARSE_LOCATION}, REQ_CODE);
             } else {
-                ((LocationManager) getSystemService(LOCATION_SERVICE)).requestLocationUpdates(LocationManager.GPS_PROVIDER, 0, 0, this);
-                LocationServices.getFusedLocationProviderClient(this).getLastLocation().addOnSuccessListener(this, new OnSuccessListener<Location>() {
-                    @Override
-                    public void onSuccess(Location location) {
-                        if (location != null) {
-                            accelerometerListener.setLocation(location);
-                        }
-                    }
-                });
+                startLocationUpdates();
+                checkSMSPermission();
             }
             Log.i("message","CheckLocationPermission method completed successfully.");
         } catch (Exception e) {
@@ -164,25 +171,40 @@ public class SmartAlertActivity extends AppCompatActivity implements LocationLis
         }
     }
 
+    // Check SMS permissions, once location permissions are granted.
+    // Permissions are requested upfront, since emergency alerts are dispatched in the background,
+    // where no permission request can be made.
+    private void checkSMSPermission() {
+        Log.i("message","CheckSMSPermission method started.");
+        try {
+            if (!smsPermissionRequested && ActivityCompat.checkSelfPermission(this, Manifest.permission.SEND_SMS) != PackageManager.PERMISSION_GRANTED) {
+                smsPermissionRequested = true;
+                ActivityCompat.requestPermissions(this, new String[]{Manifest.permission.SEND_SMS}, SMS_REQ_CODE);
+            }
+            Log.i("message","CheckSMSPermission method completed successfully.");
+        } catch (Exception e) {
+            e.printStackTrace();
+            Log.i("message","Exception during CheckSMSPermission method:" + e.getMessage());
+            Toast.makeText(this, getString(R.string.exception), Toast.LENGTH_SHORT).show();
+        }
+    }
+
     @Override
     public void onRequestPermissionsResult(int requestCode, @NonNull String[] permissions, @NonNull int[] grantResults) {
         Log.i("message","OnRequestPermissionsResult method started.");
         try {
             super.onRequestPermissionsResult(requestCode, permissions, grantResults);
-            if (ActivityCompat.checkSelfPermission(this, Manifest.permission.ACCESS_FINE_LOCATION) != PackageManager.PERMISSION_GRANTED
+            if (requestCode == SMS_REQ_CODE) {
+                if (ActivityCompat.checkSelfPermission(this, Manifest.permission.SEND_SMS) != PackageManager.PERMISSION_GRANTED) {
+                    ((TextView) findViewById(R.id.messageView)).setText(getString(R.string.sms_permission_not_granted));
+                }
+            } else if (ActivityCompat.checkSelfPermission(this, Manifest.permission.ACCESS_FINE_LOCATION) != PackageManager.PERMISSION_GRANTED
                     && ActivityCompat.checkSelfPermission(this, Manifest.permission.ACCESS_COARSE_LOCATION) != PackageManager.PERMISSION_GRANTED) {
                 ((TextView) findViewById(R.id.messageView)).setText(getString(R.string.location_permission_not_granted));
                 checkLocationPermission();
             } else {
-                ((LocationManager) getSystemService(LOCATION_SERVICE)).requestLocationUpdates(LocationManager.GPS_PROVIDER, 0, 0, this);
-                LocationServices.getFusedLocationProviderClient(this).getLastLocation().addOnSuccessListener(this, new OnSuccessListener<Location>() {
-                    @Override
-                    public void onSuccess(Location location) {
-                        if (location != null) {
-                            accelerometerListener.setLocation(location);
-                        }
-                    }
-                });
+                startLocationUpdates();
+                checkSMSPermission();
             }
             Log.i("message","OnRequestPermissionsResult method completed successfully.");
         } catch (Exception e) {
@@ -192,68 +214,42 @@ public class SmartAlertActivity extends AppCompatActivity implements LocationLis
         }
     }
 
-    // On location changed, AccelerometerListener location is updated.
-    @Override
-    public void onLocationChanged(Location location) {
-        //Log.i("message","OnLocationChanged method started.");
-        try {
-            accelerometerListener.setLocation(location);
-            //Log.i("message","OnLocationChanged method completed successfully.");
-        } catch (Exception e) {
-            e.printStackTrace();
-            Log.i("message","Exception during OnLocationChanged method:" + e.getMessage());
-            Toast.makeText(this, getString(R.string.exception), Toast.LENGTH_SHORT).show();
-        }
-    }
-
-    // On Location Provider status changed, user is informed via a message box.
-    @Override
-    public void onStatusChanged(String provider, int status, Bundle extras) {
-        Log.i("message","OnStatusChanged method started.");
-        try {
-            ((TextView) findViewById(R.id.messageView)).setText(getString(R.string.location_provider_status_changed));
-            Log.i("message","OnStatusChanged method completed successfully.");
-        } catch (Exception e) {
-            e.printStackTrace();
-            Log.i("message","Exception during OnStatusChanged method:" + e.getMessage());
-            Toast.makeText(this, getString(R.string.exception), Toast.LENGTH_SHORT).show();
-        }
+    // Starts the location updates, once location permissions are granted.
+    // AlertLocationManager ignores repeated starts, so updates are never registered twice.
+    private void startLocationUpdates() {
+        AlertLocationManager alertLocationManager = AlertLocationManager.getInstance(this);
+        alertLocationManager.setListener(this);
+        alertLocationManager.start();
     }
 
-    // On Location provider enable, application checks for appropriate permissions.
+    // On location availability changes, user is informed via a message box.
     @Override
-    public void onProviderEnabled(String provider) {
-        Log.i("message","OnProviderEnabled method started.");
+    public void onLocationAvailabilityChanged(Boolean available) {
+        Log.i("message","OnLocationAvailabilityChanged method started. Available: " + available);
         try {
-            ((TextView) findViewById(R.id.messageView)).setText(null);
-            checkLocationPermission();
-            Log.i("message","OnProviderEnabled method completed successfully.");
+            ((TextView) findViewById(R.id.messageView)).setText(available ? null : getString(R.string.location_provider_disabled));
+            Log.i("message","OnLocationAvailabilityChanged method completed successfully.");
         } catch (Exception e) {
             e.printStackTrace();
-            Log.i("message","Exception during OnProviderEnabled method:" + e.getMessage());
+            Log.i("message","Exception during OnLocationAvailabilityChanged method:" + e.getMessage());
             Toast.makeText(this, getString(R.string.exception), Toast.LENGTH_SHORT).show();
         }
     }
 
-    // On Location Provider disable, user is informed via a message box.
-    @Override
-    public void onProviderDisabled(String provider) {
-        Log.i("message","OnProviderDisabled method started.");
-        try {
-            ((TextView) findViewById(R.id.messageView)).setText(getString(R.string.location_provider_disabled));
-            Log.i("message","OnProviderDisabled method completed successfully.");
-        } catch (Exception e) {
-            e.printStackTrace();
-            Log.i("message","Exception during OnProviderDisabled method:" + e.getMessage());
-            Toast.makeText(this, getString(R.string.exception), Toast.LENGTH_SHORT).show();
-        }
-    }
-
-    // On Back press, AccelerometerListener is disabled.
+    // On Back press, AccelerometerListener and location updates are disabled.
     @Override
     public void onBackPressed() {
         accelerometerListener.stopListener();
+        AlertLocationManager.getInstance(this).setListener(null);
+        AlertLocationManager.getInstance(this).stop();
         super.onBackPressed();
     }
 
+    // AlertLocationManager outlives the Activity, so it must not keep a reference to it.
+    @Override
+    protected void onDestroy() {
+        AlertLocationManager.getInstance(this).removeListener(this);
+        super.onDestroy();
+    }
+
 }
@@ -0,0 +1,106 @@
+// -------------------------------------------------------------
+//
+// This AlertChannel notifies user's emergency contacts via SMS.
+// Payload is built by the SmsPayloadEncoder and messages are sent
+// by the SmsDispatcher.
+// Channel succeeds as soon as the first message is sent, while the time
+// until every emergency contact reached a final SMS state is recorded
+// as a separate alert metric.
+// SMS permissions are required.
+//
+// Author: Aggelos Stamatiou, September 2020
+//
+// --------------------------------------------------------------
+
+package com.stamatiou.smartalert;
+
+import android.Manifest;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.os.SystemClock;
+import android.util.Log;
+import android.widget.Toast;
+
+import androidx.core.app.ActivityCompat;
+
+import com.google.firebase.database.DatabaseReference;
+import com.stamatiou.entities.EmergencyAlert;
+import com.stamatiou.entities.EmergencyContact;
+
+import org.json.JSONException;
+
+import java.util.List;
+
+public class SmsAlertChannel implements AlertChannel {
+
+    private final Context context;
+    private final String uid;
+    private final DatabaseReference smsOutcomesReference;
+
+    public SmsAlertChannel(Context context, String uid, DatabaseReference smsOutcomesReference) {
+        this.context = context.getApplicationContext();
+        this.uid = uid;
+        this.smsOutcomesReference = smsOutcomesReference;
+    }
+
+    @Override
+    public String getName() {
+        return "sms";
+    }
+
+    @Override
+    public Boolean notifiesContacts() {
+        return true;
+    }
+
+    // Sends SMS messages to user's emergency contacts.
+    // Channel succeeds once the first emergency contact's message is sent, and fails if none was sent.
+    @Override
+    public void send(String emergencyAlertKey, EmergencyAlert emergencyAlert, List<EmergencyContact> emergencyContacts, Callback callback) {
+        Log.i("message","SMS channel send started.");
+        if (ActivityCompat.checkSelfPermission(context, Manifest.permission.SEND_SMS) != PackageManager.PERMISSION_GRANTED) {
+            Log.i("message","SMS permission not granted.");
+            Toast.makeText(context, context.getString(R.string.sms_permission_not_granted), Toast.LENGTH_SHORT).show();
+            callback.onComplete(false);
+            return;
+        }
+        long startTime = SystemClock.elapsedRealtime();
+        String message = SmsPayloadEncoder.encode(context, emergencyAlert.getType(), emergencyAlert.getLatitude(), emergencyAlert.getLongitude());
+        SmsDispatcher smsDispatcher = new SmsDispatcher(context, smsOutcomesReference, new SmsDispatcher.Callback() {
+            @Override
+            public void onFirstMessageSent() {
+                callback.onComplete(true);
+            }
+
+            @Override
+            public void onDispatchCompleted(int sent, int failed) {
+                if (failed == 0) {
+                    Toast.makeText(context, context.getString(R.string.sms_success), Toast.LENGTH_SHORT).show();
+                } else {
+                    Toast.makeText(context, context.getString(R.string.sms_failure, failed), Toast.LENGTH_LONG).show();
+                }
+                if (sent == 0) {
+                    callback.onComplete(false);
+                }
+                recordCompletion(emergencyAlertKey, SystemClock.elapsedRealtime() - startTime, sent, failed);
+            }
+        });
+        smsDispatcher.dispatch(emergencyContacts, message);
+    }
+
+    // Records the time until every emergency contact reached a final SMS state, through the AlertOutbox.
+    private void recordCompletion(String emergencyAlertKey, long completion, int sent, int failed) {
+        Log.i("message","Metric sms_completion_ms=" + completion + " sent=" + sent + " failed=" + failed);
+        try {
+            String metricsPath = "alert_metrics/" + uid + "/" + emergencyAlertKey + "/channels/" + getName();
+            WriteBatch writeBatch = new WriteBatch("sms_metrics_" + emergencyAlertKey)
+                                                 .put(metricsPath + "/completion", completion)
+                                                 .put(metricsPath + "/sent", sent)
+                                                 .put(metricsPath + "/failed", failed);
+            AlertOutbox.getInstance(context).append(writeBatch);
+        } catch (JSONException e) {
+            Log.i("message","Exception during SMS metrics recording:" + e.getMessage());
+        }
+    }
+
+}
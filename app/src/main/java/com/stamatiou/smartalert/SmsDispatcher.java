@@ -0,0 +1,289 @@
+// -------------------------------------------------------------
+//
+// This auxiliary class implements the SMS dispatch queue, used to
+// notify user's emergency contacts for an Emergency Alert.
+// Messages are split into multiple parts when needed, while sent and
+// delivered reports are tracked per emergency contact.
+// Failed messages are retried with an increasing backoff, and messages
+// sent through the same carrier are rate limited.
+// Final outcome of each emergency contact is recorded against the alert.
+//
+// Author: Aggelos Stamatiou, September 2020
+//
+// --------------------------------------------------------------
+
+package com.stamatiou.smartalert;
+
+import android.app.Activity;
+import android.app.PendingIntent;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.telephony.SmsManager;
+import android.telephony.TelephonyManager;
+import android.util.Log;
+
+import com.google.firebase.database.DatabaseReference;
+import com.stamatiou.entities.EmergencyContact;
+import com.stamatiou.entities.SmsOutcome;
+import com.stamatiou.entities.SmsOutcomeStatus;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class SmsDispatcher extends BroadcastReceiver {
+
+    private static final String SMS_SENT_ACTION = "com.stamatiou.smartalert.SMS_SENT";
+    private static final String SMS_DELIVERED_ACTION = "com.stamatiou.smartalert.SMS_DELIVERED";
+    private static final int MAX_ATTEMPTS = 3;
+    private static final long INITIAL_BACKOFF = 2000;
+    private static final long CARRIER_SEND_INTERVAL = 1000;
+    private static final long DELIVERY_REPORT_TIMEOUT = 60000;
+    private static final Map<String, Long> carrierNextSendTimes = new HashMap<>();
+    private static int requestCodeSequence = 0;
+
+    private final Context context;
+    private final SmsManager smsManager;
+    private final Handler handler;
+    private final String carrier;
+    private final DatabaseReference smsOutcomesReference;
+    private final Callback callback;
+    private final List<Dispatch> dispatches;
+    private ArrayList<String> messageParts;
+    private Boolean firstMessageSent;
+    private Boolean completed;
+
+    // Callback used to inform the caller when the first message is sent,
+    // and when every emergency contact reached a final SMS state.
+    public interface Callback {
+        void onFirstMessageSent();
+
+        void onDispatchCompleted(int sent, int failed);
+    }
+
+    // Dispatch state of a single emergency contact message.
+    private static class Dispatch {
+
+        private final int index;
+        private final EmergencyContact emergencyContact;
+        private SmsOutcomeStatus status;
+        private int attempts;
+        private int resolvedParts;
+        private int deliveredParts;
+        private Integer errorCode;
+
+        private Dispatch(int index, EmergencyContact emergencyContact) {
+            this.index = index;
+            this.emergencyContact = emergencyContact;
+        }
+    }
+
+    public SmsDispatcher(Context context, DatabaseReference smsOutcomesReference, Callback callback) {
+        this.context = context.getApplicationContext();
+        this.smsManager = SmsManager.getDefault();
+        this.handler = new Handler(Looper.getMainLooper());
+        String networkOperator = ((TelephonyManager) this.context.getSystemService(Context.TELEPHONY_SERVICE)).getNetworkOperator();
+        this.carrier = networkOperator != null ? networkOperator : "";
+        this.smsOutcomesReference = smsOutcomesReference;
+        this.callback = callback;
+        this.dispatches = new ArrayList<>();
+        this.firstMessageSent = false;
+        this.completed = false;
+    }
+
+    // Enqueues the message for every emergency contact.
+    // Message is divided into parts once, since its content is the same for all emergency contacts.
+    public void dispatch(List<EmergencyContact> emergencyContacts, String message) {
+        Log.i("message","Dispatch method started.");
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(SMS_SENT_ACTION);
+        filter.addAction(SMS_DELIVERED_ACTION);
+        context.registerReceiver(this, filter);
+        messageParts = smsManager.divideMessage(message);
+        for (EmergencyContact emergencyContact : emergencyContacts) {
+            Dispatch dispatch = new Dispatch(dispatches.size(), emergencyContact);
+            dispatches.add(dispatch);
+            scheduleSend(dispatch, 0);
+        }
+        Log.i("message","Dispatch method completed successfully. Messages queued: " + dispatches.size() + ", parts per message: " + messageParts.size());
+    }
+
+    // Schedules a message send, respecting the carrier rate limit.
+    private void scheduleSend(Dispatch dispatch, long delay) {
+        synchronized (carrierNextSendTimes) {
+            long now = SystemClock.uptimeMillis();
+            Long carrierNextSendTime = carrierNextSendTimes.get(carrier);
+            long sendTime = Math.max(now + delay, carrierNextSendTime != null ? carrierNextSendTime : now);
+            carrierNextSendTimes.put(carrier, sendTime + CARRIER_SEND_INTERVAL * messageParts.size());
+            handler.postAtTime(() -> send(dispatch), sendTime);
+        }
+    }
+
+    // Sends the message to the emergency contact, attaching a sent and a delivered intent per message part.
+    private void send(Dispatch dispatch) {
+        dispatch.attempts++;
+        dispatch.resolvedParts = 0;
+        dispatch.deliveredParts = 0;
+        dispatch.errorCode = null;
+        Log.i("message","Sending SMS message to emergency contact " + dispatch.index + ", attempt " + dispatch.attempts + "...");
+        ArrayList<PendingIntent> sentIntents = new ArrayList<>();
+        ArrayList<PendingIntent> deliveryIntents = new ArrayList<>();
+        for (int i = 0; i < messageParts.size(); i++) {
+            sentIntents.add(reportIntent(SMS_SENT_ACTION, dispatch));
+            deliveryIntents.add(reportIntent(SMS_DELIVERED_ACTION, dispatch));
+        }
+        try {
+            if (messageParts.size() == 1) {
+                smsManager.sendTextMessage(dispatch.emergencyContact.getPhone(), null, messageParts.get(0), sentIntents.get(0), deliveryIntents.get(0));
+            } else {
+                smsManager.sendMultipartTextMessage(dispatch.emergencyContact.getPhone(), null, messageParts, sentIntents, deliveryIntents);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            Log.i("message","Exception during SMS message send:" + e.getMessage());
+            dispatch.resolvedParts = messageParts.size();
+            dispatch.errorCode = SmsManager.RESULT_ERROR_GENERIC_FAILURE;
+            onAttemptResolved(dispatch);
+        }
+    }
+
+    private PendingIntent reportIntent(String action, Dispatch dispatch) {
+        Intent intent = new Intent(action);
+        intent.setPackage(context.getPackageName());
+        intent.putExtra("index", dispatch.index);
+        intent.putExtra("attempt", dispatch.attempts);
+        return PendingIntent.getBroadcast(context, requestCodeSequence++, intent, PendingIntent.FLAG_UPDATE_CURRENT);
+    }
+
+    // Sent and delivered reports processing.
+    // Reports of previous attempts are ignored.
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        try {
+            int index = intent.getIntExtra("index", -1);
+            int attempt = intent.getIntExtra("attempt", -1);
+            if (index < 0 || index >= dispatches.size() || dispatches.get(index).attempts != attempt) {
+                return;
+            }
+            Dispatch dispatch = dispatches.get(index);
+            if (SMS_SENT_ACTION.equals(intent.getAction())) {
+                dispatch.resolvedParts++;
+                if (getResultCode() != Activity.RESULT_OK) {
+                    dispatch.errorCode = getResultCode();
+                }
+                if (dispatch.resolvedParts == messageParts.size()) {
+                    onAttemptResolved(dispatch);
+                }
+            } else if (SMS_DELIVERED_ACTION.equals(intent.getAction()) && dispatch.status == SmsOutcomeStatus.SENT) {
+                dispatch.deliveredParts++;
+                if (dispatch.deliveredParts == messageParts.size()) {
+                    dispatch.status = SmsOutcomeStatus.DELIVERED;
+                    Log.i("message","SMS message delivered to emergency contact " + dispatch.index + ".");
+                    recordOutcome(dispatch);
+                    if (isDelivered()) {
+                        release();
+                    }
+                }
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            Log.i("message","Exception during SMS report processing:" + e.getMessage());
+        }
+    }
+
+    // All message parts of an attempt have been resolved.
+    // Failed attempts are retried with exponential backoff, until attempts limit is reached.
+    // Caller is informed of the first sent message, since delivery reports always follow it.
+    private void onAttemptResolved(Dispatch dispatch) {
+        if (dispatch.errorCode == null) {
+            dispatch.status = SmsOutcomeStatus.SENT;
+            Log.i("message","SMS message sent to emergency contact " + dispatch.index + ".");
+            if (!firstMessageSent) {
+                firstMessageSent = true;
+                if (callback != null) {
+                    callback.onFirstMessageSent();
+                }
+            }
+        } else if (dispatch.attempts < MAX_ATTEMPTS) {
+            long backoff = INITIAL_BACKOFF << (dispatch.attempts - 1);
+            Log.i("message","SMS message to emergency contact " + dispatch.index + " failed with error " + dispatch.errorCode + ". Retrying in " + backoff + "ms.");
+            scheduleSend(dispatch, backoff);
+            return;
+        } else {
+            dispatch.status = SmsOutcomeStatus.FAILED;
+            Log.i("message","SMS message to emergency contact " + dispatch.index + " failed with error " + dispatch.errorCode + ". Attempts exhausted.");
+        }
+        recordOutcome(dispatch);
+        checkCompleted();
+    }
+
+    // Final outcome of the emergency contact is recorded against the alert.
+    private void recordOutcome(Dispatch dispatch) {
+        if (smsOutcomesReference == null) {
+            return;
+        }
+        SmsOutcome smsOutcome = new SmsOutcome.Builder()
+                                              .withPhone(dispatch.emergencyContact.getPhone())
+                                              .withStatus(dispatch.status)
+                                              .withAttempts(dispatch.attempts)
+                                              .withErrorCode(dispatch.errorCode)
+                                              .withTimestamp(new Date())
+                                              .build();
+        smsOutcomesReference.child(String.valueOf(dispatch.index)).setValue(smsOutcome);
+    }
+
+    // When every message has been sent or failed, caller is informed.
+    // Receiver remains registered for delivery reports, until they all arrive or timeout expires.
+    private void checkCompleted() {
+        int sent = 0;
+        int failed = 0;
+        for (Dispatch dispatch : dispatches) {
+            if (dispatch.status == null) {
+                return;
+            } else if (dispatch.status == SmsOutcomeStatus.FAILED) {
+                failed++;
+            } else {
+                sent++;
+            }
+        }
+        if (!completed) {
+            completed = true;
+            Log.i("message","SMS dispatch completed. Sent: " + sent + ", failed: " + failed);
+            if (callback != null) {
+                callback.onDispatchCompleted(sent, failed);
+            }
+            if (isDelivered()) {
+                release();
+            } else {
+                handler.postDelayed(this::release, DELIVERY_REPORT_TIMEOUT);
+            }
+        }
+    }
+
+    private Boolean isDelivered() {
+        for (Dispatch dispatch : dispatches) {
+            if (dispatch.status != SmsOutcomeStatus.DELIVERED && dispatch.status != SmsOutcomeStatus.FAILED) {
+                return false;
+            }
+        }
+        return completed;
+    }
+
+    // Unregisters the receiver, once no more reports are expected.
+    private void release() {
+        try {
+            handler.removeCallbacksAndMessages(null);
+            context.unregisterReceiver(this);
+        } catch (IllegalArgumentException e) {
+            Log.i("message","SMS dispatcher receiver already released.");
+        }
+    }
+
+}
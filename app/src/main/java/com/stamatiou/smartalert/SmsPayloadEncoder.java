@@ -0,0 +1,149 @@
+// -------------------------------------------------------------
+//
+// This auxiliary class builds the Emergency Alert SMS payload.
+// Message templates are precomputed once per alert type and locale,
+// in their original form and in a GSM-7 compatible form (Greek text
+// is mapped to GSM-7 capitals, Cyrillic text is transliterated).
+// Location is appended as a compact geo URI, and the template form
+// requiring the fewest SMS segments is selected, preferring the
+// original text when both fit in a single segment.
+//
+// Author: Aggelos Stamatiou, September 2020
+//
+// --------------------------------------------------------------
+
+package com.stamatiou.smartalert;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.stamatiou.entities.EmergencyAlertType;
+
+import java.text.Normalizer;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+public class SmsPayloadEncoder {
+
+    private static final String GSM7_BASIC_CHARACTERS = "@£$¥èéùìòÇ\nØø\rÅåΔ_ΦΓΛΩΠΨΣΘΞÆæßÉ !\"#¤%&'()*+,-./0123456789:;<=>?"
+                                                        + "¡ABCDEFGHIJKLMNOPQRSTUVWXYZÄÖÑÜ§¿abcdefghijklmnopqrstuvwxyzäöñüà";
+    private static final String GSM7_EXTENSION_CHARACTERS = "\f^{}\\[~]|€";
+    private static final String GREEK_CAPITALS = "ΑΒΕΖΗΙΚΜΝΟΡΤΥΧ";
+    private static final String GREEK_CAPITALS_GSM7 = "ABEZHIKMNOPTYX";
+    private static final String CYRILLIC_LETTERS = "абвгдеёжзийклмнопрстуфхцчшщъыьэюя";
+    private static final String[] CYRILLIC_TRANSLITERATIONS = {"a", "b", "v", "g", "d", "e", "e", "zh", "z", "i", "y", "k", "l", "m", "n", "o", "p",
+                                                               "r", "s", "t", "u", "f", "kh", "ts", "ch", "sh", "shch", "", "y", "", "e", "yu", "ya"};
+    private static final int GSM7_SINGLE_SEGMENT = 160;
+    private static final int GSM7_MULTIPART_SEGMENT = 153;
+    private static final int UCS2_SINGLE_SEGMENT = 70;
+    private static final int UCS2_MULTIPART_SEGMENT = 67;
+    private static final Map<String, Template> templates = new HashMap<>();
+
+    // Precomputed template forms of an alert type and locale.
+    private static class Template {
+
+        private final String original;
+        private final String gsm7;
+        private final Boolean originalIsGsm7;
+
+        private Template(String original) {
+            this.original = original;
+            this.originalIsGsm7 = septets(original) >= 0;
+            this.gsm7 = originalIsGsm7 ? original : toGsm7(original);
+        }
+    }
+
+    private SmsPayloadEncoder() {}
+
+    // Builds the SMS payload of an Emergency Alert.
+    public static String encode(Context context, EmergencyAlertType type, double latitude, double longitude) {
+        Template template = template(context, type);
+        String location = String.format(Locale.US, "geo:%.5f,%.5f", latitude, longitude);
+        String original = template.original + location;
+        String payload = original;
+        if (!template.originalIsGsm7 && template.gsm7 != null) {
+            String gsm7 = template.gsm7 + location;
+            if (segments(gsm7) < segments(original)) {
+                payload = gsm7;
+            }
+        }
+        Log.i("message","SMS payload encoded. Length: " + payload.length() + ", segments: " + segments(payload));
+        return payload;
+    }
+
+    // Returns the precomputed template of the alert type, for the current locale.
+    private static Template template(Context context, EmergencyAlertType type) {
+        Locale locale = context.getResources().getConfiguration().getLocales().get(0);
+        String key = locale.toString() + "_" + type.name();
+        synchronized (templates) {
+            Template template = templates.get(key);
+            if (template == null) {
+                StringBuilder sb = new StringBuilder().append(context.getString(R.string.sos));
+                if (type.equals(EmergencyAlertType.FALL)) {
+                    sb.append(context.getString(R.string.sos_fallen));
+                } else if (type.equals(EmergencyAlertType.FIRE)) {
+                    sb.append(context.getString(R.string.sos_fire));
+                } else {
+                    sb.append(context.getString(R.string.sos_earthquake));
+                }
+                template = new Template(sb.toString());
+                templates.put(key, template);
+            }
+            return template;
+        }
+    }
+
+    // Number of SMS segments required for the text.
+    static int segments(String text) {
+        int septets = septets(text);
+        if (septets >= 0) {
+            return septets <= GSM7_SINGLE_SEGMENT ? 1 : (septets + GSM7_MULTIPART_SEGMENT - 1) / GSM7_MULTIPART_SEGMENT;
+        }
+        return text.length() <= UCS2_SINGLE_SEGMENT ? 1 : (text.length() + UCS2_MULTIPART_SEGMENT - 1) / UCS2_MULTIPART_SEGMENT;
+    }
+
+    // Number of GSM-7 septets required for the text, or -1 if text cannot be encoded in GSM-7.
+    static int septets(String text) {
+        int septets = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (GSM7_BASIC_CHARACTERS.indexOf(c) >= 0) {
+                septets++;
+            } else if (GSM7_EXTENSION_CHARACTERS.indexOf(c) >= 0) {
+                septets += 2;
+            } else {
+                return -1;
+            }
+        }
+        return septets;
+    }
+
+    // Converts the text to a GSM-7 compatible form, or null if that is not possible.
+    // Greek letters are capitalized without accents, using the Latin look-alikes where GSM-7 lacks a Greek capital.
+    // Cyrillic letters are transliterated to Latin.
+    static String toGsm7(String text) {
+        String unaccented = Normalizer.normalize(text, Normalizer.Form.NFD).replaceAll("\\p{M}", "");
+        StringBuilder sb = new StringBuilder(unaccented.length());
+        for (int i = 0; i < unaccented.length(); i++) {
+            char c = unaccented.charAt(i);
+            if (c >= 'Α' && c <= 'ω' || c == 'ς') {
+                char capital = c == 'ς' ? 'Σ' : Character.toUpperCase(c);
+                int index = GREEK_CAPITALS.indexOf(capital);
+                sb.append(index >= 0 ? GREEK_CAPITALS_GSM7.charAt(index) : capital);
+            } else if (c >= 'А' && c <= 'я' || c == 'ё' || c == 'Ё') {
+                int index = CYRILLIC_LETTERS.indexOf(Character.toLowerCase(c));
+                String transliteration = CYRILLIC_TRANSLITERATIONS[index];
+                if (Character.isUpperCase(c) && !transliteration.isEmpty()) {
+                    transliteration = Character.toUpperCase(transliteration.charAt(0)) + transliteration.substring(1);
+                }
+                sb.append(transliteration);
+            } else {
+                sb.append(c);
+            }
+        }
+        String gsm7 = sb.toString();
+        return septets(gsm7) >= 0 ? gsm7 : null;
+    }
+
+}
@@ -1,7 +1,15 @@
 // -------------------------------------------------------------
 //
 // This Activity is used to monitor user's emergency alerts history.
-// When a new emergency alert is created, list is refreshed.
+// Alerts are loaded in bounded keyset pages by the EmergencyAlertHistoryPager,
+// as the list is scrolled, so open time and memory do not depend on the
+// history size. Newest page is live, so a new emergency alert costs a
+// single list insert.
+// Alerts are rendered from the LocalCache first, so the history opens
+// immediately and remains browsable offline; the cache is synchronized
+// incrementally once internet connectivity is available.
+// Live listener is detached while the Activity is stopped, and the cache is
+// synchronized again when it is restarted.
 // Network permissions are required.
 //
 // Author: Aggelos Stamatiou, September 2020
@@ -23,35 +31,34 @@ import android.widget.TextView;
 import android.widget.Toast;
 
 import com.google.firebase.auth.FirebaseAuth;
-import com.google.firebase.database.DataSnapshot;
-import com.google.firebase.database.DatabaseError;
 import com.google.firebase.database.DatabaseReference;
 import com.google.firebase.database.FirebaseDatabase;
-import com.google.firebase.database.ValueEventListener;
-import com.stamatiou.entities.EmergencyAlert;
 import com.stamatiou.entities.EmergencyAlertAdapter;
-import com.treebo.internetavailabilitychecker.InternetAvailabilityChecker;
-import com.treebo.internetavailabilitychecker.InternetConnectivityListener;
+import com.stamatiou.entities.EmergencyAlertEntry;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
-public class UserEmergencyAlertsHistoryActivity extends AppCompatActivity implements InternetConnectivityListener {
+public class UserEmergencyAlertsHistoryActivity extends AppCompatActivity implements DeviceStateMonitor.Listener {
 
-    private DatabaseReference userEmergencyAlertsReference;
-    private List<EmergencyAlert> emergencyAlerts;
+    private EmergencyAlertHistoryPager emergencyAlertHistoryPager;
+    private List<EmergencyAlertEntry> emergencyAlerts;
     private EmergencyAlertAdapter emergencyAlertsAdapter;
+    private Boolean refreshPending = false;
+    private Boolean connected = true;
+    private Boolean stopped = false;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_user_emergency_alerts_history);
-        InternetAvailabilityChecker.init(this);
-        InternetAvailabilityChecker.getInstance().addInternetConnectivityListener(this);
+        userEmergencyAlertsHistoryInit();
+        DeviceStateMonitor.getInstance(this).subscribe(this);
     }
 
     // User Emergency Alerts List initialization method.
-    // Firebase value event listener for the user's emergency alerts is created.
+    // Pager of the user's emergency alerts is started from the local cache, and informed about the visible range while scrolling.
     // Emergency Alerts list is refreshed in a live manner.
     private void userEmergencyAlertsHistoryInit() {
         Log.i("message","UserEmergencyAlertsHistoryInit method started.");
@@ -59,34 +66,43 @@ public class UserEmergencyAlertsHistoryActivity extends AppCompatActivity implem
             this.setTitle(getString(R.string.user_emergency_alerts_history));
             findViewById(R.id.progressBar_cyclic).setVisibility(View.VISIBLE);
             RecyclerView recyclerView = findViewById(R.id.recyclerView);
-            recyclerView.setLayoutManager(new LinearLayoutManager(this));
+            LinearLayoutManager layoutManager = new LinearLayoutManager(this);
+            recyclerView.setLayoutManager(layoutManager);
             recyclerView.setItemAnimator(new DefaultItemAnimator());
 
             emergencyAlerts = new ArrayList<>();
-            emergencyAlertsAdapter = new EmergencyAlertAdapter(emergencyAlerts);
+            emergencyAlertsAdapter = new EmergencyAlertAdapter();
             recyclerView.setAdapter(emergencyAlertsAdapter);
+            recyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+                @Override
+                public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+                    emergencyAlertHistoryPager.onVisibleRangeChanged(layoutManager.findFirstVisibleItemPosition(), layoutManager.findLastVisibleItemPosition());
+                }
+            });
 
-            userEmergencyAlertsReference = FirebaseDatabase.getInstance().getReference("emergency_alerts/" + FirebaseAuth.getInstance().getCurrentUser().getUid());
-            userEmergencyAlertsReference.addValueEventListener(new ValueEventListener() {
+            String uid = FirebaseAuth.getInstance().getCurrentUser().getUid();
+            DatabaseReference userEmergencyAlertsReference = FirebaseDatabase.getInstance().getReference("emergency_alerts/" + uid);
+            emergencyAlertHistoryPager = new EmergencyAlertHistoryPager(userEmergencyAlertsReference, LocalCache.getInstance(this).getEmergencyAlerts(), uid, new EmergencyAlertHistoryPager.Listener() {
                 @Override
-                public void onDataChange(@NonNull DataSnapshot dataSnapshot) {
+                public void onEmergencyAlertsChanged(List<EmergencyAlertEntry> loadedEmergencyAlerts) {
                     emergencyAlerts.clear();
-                    for (DataSnapshot emergencyAlert : dataSnapshot.getChildren()) {
-                        emergencyAlerts.add(0, emergencyAlert.getValue(EmergencyAlert.class));
-                    }
+                    emergencyAlerts.addAll(loadedEmergencyAlerts);
                     refreshEmergencyAlerts();
+                }
+
+                @Override
+                public void onInitialLoadCompleted() {
                     findViewById(R.id.progressBar_cyclic).setVisibility(View.INVISIBLE);
                 }
 
                 @Override
-                public void onCancelled(@NonNull DatabaseError databaseError) {
-                    Log.i("message", "Failed to retrieve user emergency alerts. Error: " + databaseError.toException());
-                    emergencyAlerts.clear();
-                    refreshEmergencyAlerts();
+                public void onLoadFailed(Exception exception) {
+                    Log.i("message", "Failed to retrieve user emergency alerts. Error: " + exception);
                     Toast.makeText(getApplicationContext(), getString(R.string.emergency_alerts_activity_retrieval_failed), Toast.LENGTH_SHORT).show();
                     findViewById(R.id.progressBar_cyclic).setVisibility(View.INVISIBLE);
                 }
             });
+            emergencyAlertHistoryPager.start();
             Log.i("message","UserEmergencyAlertsHistoryInit method completed successfully.");
         } catch (Exception e) {
             e.printStackTrace();
@@ -96,17 +112,30 @@ public class UserEmergencyAlertsHistoryActivity extends AppCompatActivity implem
         }
     }
 
-    // Application listens to internet connectivity status.
-    // When internet provider is disabled, user is informed via a message box.
+    // Application listens to internet connectivity status, through the DeviceStateMonitor.
     @Override
-    public void onInternetConnectivityChanged(boolean isConnected) {
+    public void onDeviceStateChanged(DeviceStateMonitor.DeviceState previousState, DeviceStateMonitor.DeviceState state) {
+        if (previousState == null || !previousState.isConnected().equals(state.isConnected())) {
+            onInternetConnectivityChanged(state.isConnected());
+        }
+    }
+
+    // When internet provider is disabled, user is informed via a message box, while cached alerts remain displayed.
+    // When it is enabled again, cached alerts are synchronized with Firebase.
+    private void onInternetConnectivityChanged(boolean isConnected) {
         Log.i("message","OnInternetConnectivityChanged method started.");
         try {
+            Boolean reconnected = isConnected && !connected;
+            connected = isConnected;
             if (isConnected) {
-                findViewById(R.id.recyclerView).setVisibility(View.VISIBLE);
-                userEmergencyAlertsHistoryInit();
+                if (!emergencyAlerts.isEmpty()) {
+                    refreshEmergencyAlerts();
+                }
+                if (reconnected && !stopped) {
+                    emergencyAlertHistoryPager.sync();
+                }
             } else {
-                findViewById(R.id.recyclerView).setVisibility(View.INVISIBLE);
+                findViewById(R.id.progressBar_cyclic).setVisibility(View.INVISIBLE);
                 ((TextView) findViewById(R.id.titleView)).setText(getString(R.string.internet_provider_disabled));
             }
             Log.i("message","OnInternetConnectivityChanged method completed successfully.");
@@ -117,12 +146,54 @@ public class UserEmergencyAlertsHistoryActivity extends AppCompatActivity implem
         }
     }
 
-    // Refreshes Activity displayed list.
+    @Override
+    protected void onStart() {
+        super.onStart();
+        if (stopped && emergencyAlertHistoryPager != null) {
+            stopped = false;
+            emergencyAlertHistoryPager.sync();
+        }
+    }
+
+    @Override
+    protected void onStop() {
+        stopped = true;
+        if (emergencyAlertHistoryPager != null) {
+            emergencyAlertHistoryPager.stop();
+        }
+        super.onStop();
+    }
+
+    @Override
+    protected void onDestroy() {
+        DeviceStateMonitor.getInstance(this).unsubscribe(this);
+        if (emergencyAlertHistoryPager != null) {
+            emergencyAlertHistoryPager.stop();
+        }
+        super.onDestroy();
+    }
+
+    // Refreshes Activity displayed list, newest alert first.
+    // Changes of the same frame are coalesced into a single submitted list,
+    // which the adapter diffs against the displayed one off the main thread.
     private void refreshEmergencyAlerts() {
-        if (emergencyAlerts.isEmpty()) {
-            ((TextView) findViewById(R.id.titleView)).setText(getString(R.string.emergency_alerts_activity_no_alerts));
+        if (refreshPending) {
+            return;
         }
-        emergencyAlertsAdapter.notifyDataSetChanged();
+        refreshPending = true;
+        findViewById(R.id.recyclerView).post(() -> {
+            refreshPending = false;
+            List<EmergencyAlertEntry> displayedEmergencyAlerts = new ArrayList<>(emergencyAlerts);
+            Collections.reverse(displayedEmergencyAlerts);
+            emergencyAlertsAdapter.submitList(displayedEmergencyAlerts);
+            if (!connected) {
+                ((TextView) findViewById(R.id.titleView)).setText(getString(R.string.internet_provider_disabled));
+            } else if (emergencyAlerts.isEmpty()) {
+                ((TextView) findViewById(R.id.titleView)).setText(getString(R.string.emergency_alerts_activity_no_alerts));
+            } else {
+                ((TextView) findViewById(R.id.titleView)).setText("");
+            }
+        });
     }
 
 }
@@ -0,0 +1,229 @@
+// -------------------------------------------------------------
+//
+// This auxiliary class assembles all the Firebase writes of a single
+// event (e.g. an Emergency Alert record and its index entries) into a
+// multi-path update, so they are written atomically in one round-trip.
+// Batches are serializable, so AlertOutbox can persist them on disk.
+// Serialized batches carry a format version, so entries of unknown
+// versions are rejected instead of being misread.
+// Alert statistics rollups are maintained in the same update, through
+// server side increments, so statistics never require a history scan.
+//
+// Author: Aggelos Stamatiou, September 2020
+//
+// --------------------------------------------------------------
+
+package com.stamatiou.smartalert;
+
+import com.google.firebase.database.ServerValue;
+import com.stamatiou.entities.Detection;
+import com.stamatiou.entities.EmergencyAlert;
+import com.stamatiou.entities.EmergencyAlertStatus;
+import com.stamatiou.entities.EmergencyAlertType;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+public class WriteBatch {
+
+    static final int FORMAT_VERSION = 1;
+
+    private static final String ALERT_WRITE = "alert";
+    private static final String DETECTION_WRITE = "detection";
+    private static final String VALUE_WRITE = "value";
+    private static final String INCREMENT_WRITE = "increment";
+    private static final int GEOHASH_INDEX_PRECISION = 5;
+
+    private final String key;
+    private final JSONArray writes;
+
+    // Batch key is used as the idempotency key of the whole batch.
+    public WriteBatch(String key) {
+        this.key = key;
+        this.writes = new JSONArray();
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    // Adds an Emergency Alert record to the batch.
+    public WriteBatch put(String path, EmergencyAlert emergencyAlert) throws JSONException {
+        JSONObject value = new JSONObject();
+        value.put("type", emergencyAlert.getType().name());
+        value.put("status", emergencyAlert.getStatus().name());
+        value.put("latitude", emergencyAlert.getLatitude());
+        value.put("longitude", emergencyAlert.getLongitude());
+        value.put("timestamp", emergencyAlert.getTimestamp().getTime());
+        value.putOpt("imagePath", emergencyAlert.getImagePath());
+        value.putOpt("countDownPolicy", emergencyAlert.getCountDownPolicy());
+        value.putOpt("fireConfidence", emergencyAlert.getFireConfidence());
+        value.putOpt("locationAge", emergencyAlert.getLocationAge());
+        value.putOpt("locationAccuracy", emergencyAlert.getLocationAccuracy());
+        return put(path, ALERT_WRITE, value);
+    }
+
+    // Adds a Detection record to the batch.
+    public WriteBatch put(String path, Detection detection) throws JSONException {
+        JSONObject value = new JSONObject();
+        value.put("uid", detection.getUid());
+        value.put("latitude", detection.getLatitude());
+        value.put("longitude", detection.getLongitude());
+        value.put("timestamp", detection.getTimestamp());
+        return put(path, DETECTION_WRITE, value);
+    }
+
+    // Adds a plain value (String, Number or Boolean) to the batch, e.g. an index entry.
+    public WriteBatch put(String path, Object value) throws JSONException {
+        return put(path, VALUE_WRITE, new JSONObject().put("value", value));
+    }
+
+    // Adds a server side increment of a counter to the batch.
+    public WriteBatch increment(String path, long delta) throws JSONException {
+        return put(path, INCREMENT_WRITE, new JSONObject().put("value", delta));
+    }
+
+    private WriteBatch put(String path, String type, JSONObject value) throws JSONException {
+        writes.put(new JSONObject().put("path", path).put("type", type).put("value", value));
+        return this;
+    }
+
+    // Creates the batch of an Emergency Alert event.
+    // Alert record is written along with its per-day and geohash index entries,
+    // and the user's per-day and total rollup counters of its type and status are incremented.
+    // Rollups are applied once per alert: the batch also writes the alert's applied marker, which the
+    // database rules accept only if it does not exist, so a batch replayed after a lost acknowledgement
+    // is rejected as a whole (and dropped by the AlertOutbox) instead of being counted again.
+    public static WriteBatch forEmergencyAlert(String uid, String emergencyAlertKey, EmergencyAlert emergencyAlert) throws JSONException {
+        String day = new SimpleDateFormat("yyyyMMdd", Locale.US).format(emergencyAlert.getTimestamp());
+        String geohash = GeoHash.encode(emergencyAlert.getLatitude(), emergencyAlert.getLongitude(), GEOHASH_INDEX_PRECISION);
+        String counter = emergencyAlert.getType().name() + "/" + emergencyAlert.getStatus().name();
+        return new WriteBatch(emergencyAlertKey)
+                             .put("emergency_alerts/" + uid + "/" + emergencyAlertKey, emergencyAlert)
+                             .put("emergency_alerts_by_day/" + uid + "/" + day + "/" + emergencyAlertKey, true)
+                             .put("emergency_alerts_by_geohash/" + geohash + "/" + uid + "_" + emergencyAlertKey, emergencyAlert.getTimestamp().getTime())
+                             .put("emergency_alert_stats/" + uid + "/applied/" + emergencyAlertKey, true)
+                             .increment("emergency_alert_stats/" + uid + "/days/" + day + "/" + counter, 1)
+                             .increment("emergency_alert_stats/" + uid + "/totals/" + counter, 1);
+    }
+
+    // Creates the batch which backfills the rollups of Emergency Alerts written before the rollups were maintained.
+    // Counters are aggregated per path, and the applied marker of every alert is written along with them,
+    // so the batch is rejected as a whole if any of the alerts is already counted.
+    public static WriteBatch forEmergencyAlertStatisticsBackfill(String uid, Map<String, EmergencyAlert> emergencyAlerts) throws JSONException {
+        WriteBatch writeBatch = new WriteBatch("stats_backfill_" + uid);
+        Map<String, Long> counters = new HashMap<>();
+        SimpleDateFormat dayFormat = new SimpleDateFormat("yyyyMMdd", Locale.US);
+        for (Map.Entry<String, EmergencyAlert> emergencyAlert : emergencyAlerts.entrySet()) {
+            String day = dayFormat.format(emergencyAlert.getValue().getTimestamp());
+            String counter = emergencyAlert.getValue().getType().name() + "/" + emergencyAlert.getValue().getStatus().name();
+            writeBatch.put("emergency_alert_stats/" + uid + "/applied/" + emergencyAlert.getKey(), true);
+            counters.merge("emergency_alert_stats/" + uid + "/days/" + day + "/" + counter, 1L, Long::sum);
+            counters.merge("emergency_alert_stats/" + uid + "/totals/" + counter, 1L, Long::sum);
+        }
+        for (Map.Entry<String, Long> counter : counters.entrySet()) {
+            writeBatch.increment(counter.getKey(), counter.getValue());
+        }
+        return writeBatch.put("emergency_alert_stats/" + uid + "/backfilled", true);
+    }
+
+    // Creates the batch which patches an Emergency Alert record with its uploaded image path.
+    public static WriteBatch forEmergencyAlertImage(String uid, String emergencyAlertKey, String imagePath) throws JSONException {
+        return new WriteBatch("image_" + emergencyAlertKey)
+                             .put("emergency_alerts/" + uid + "/" + emergencyAlertKey + "/imagePath", imagePath);
+    }
+
+    // Creates the batch which patches an Emergency Alert record with the on-device fire pre-screen confidence.
+    public static WriteBatch forEmergencyAlertFireConfidence(String uid, String emergencyAlertKey, double fireConfidence) throws JSONException {
+        return new WriteBatch("fire_confidence_" + emergencyAlertKey)
+                             .put("emergency_alerts/" + uid + "/" + emergencyAlertKey + "/fireConfidence", fireConfidence);
+    }
+
+    // Creates the batch of a Detection event.
+    // Detection record is written along with its geohash index entry.
+    public static WriteBatch forDetection(String detectionKey, Detection detection) throws JSONException {
+        String geohash = GeoHash.encode(detection.getLatitude(), detection.getLongitude(), GEOHASH_INDEX_PRECISION);
+        return new WriteBatch(detectionKey)
+                             .put("detections/" + detectionKey, detection)
+                             .put("detections_by_geohash/" + geohash + "/" + detectionKey, detection.getTimestamp());
+    }
+
+    // Serializes the batch, to be stored in the AlertOutbox log.
+    JSONObject toJSON() throws JSONException {
+        return new JSONObject().put("version", FORMAT_VERSION).put("key", key).put("writes", writes);
+    }
+
+    // Validates the format version of a serialized batch.
+    static void checkVersion(JSONObject batch) throws JSONException {
+        int version = batch.optInt("version", 0);
+        if (version != FORMAT_VERSION) {
+            throw new JSONException("Unknown outbox entry version: " + version);
+        }
+    }
+
+    // Adds the writes of a serialized batch to a multi-path update.
+    // Writes are added only if the whole batch is valid, and none of its paths overlaps
+    // a path already in the update (e.g. a record and a later patch of the same record),
+    // since Firebase rejects such updates. Returns whether the batch was added.
+    static Boolean addUpdates(JSONObject batch, Map<String, Object> updates) throws JSONException {
+        JSONArray batchWrites = batch.getJSONArray("writes");
+        Map<String, Object> batchUpdates = new HashMap<>();
+        for (int i = 0; i < batchWrites.length(); i++) {
+            JSONObject write = batchWrites.getJSONObject(i);
+            String path = write.getString("path");
+            for (String updatePath : updates.keySet()) {
+                if (overlaps(path, updatePath)) {
+                    return false;
+                }
+            }
+            batchUpdates.put(path, toValue(write));
+        }
+        updates.putAll(batchUpdates);
+        return true;
+    }
+
+    // Whether one path equals, or is an ancestor of, the other.
+    private static Boolean overlaps(String path, String otherPath) {
+        return path.equals(otherPath) || path.startsWith(otherPath + "/") || otherPath.startsWith(path + "/");
+    }
+
+    // Rebuilds the value to be written, from its serialized form.
+    private static Object toValue(JSONObject write) throws JSONException {
+        JSONObject value = write.getJSONObject("value");
+        String type = write.getString("type");
+        if (ALERT_WRITE.equals(type)) {
+            return new EmergencyAlert.Builder()
+                                     .withEmergencyAlertType(EmergencyAlertType.valueOf(value.getString("type")))
+                                     .withEmergencyAlertStatus(EmergencyAlertStatus.valueOf(value.getString("status")))
+                                     .withLatitude(value.getDouble("latitude"))
+                                     .withLongitude(value.getDouble("longitude"))
+                                     .withTimestamp(new Date(value.getLong("timestamp")))
+                                     .withImagePath(value.optString("imagePath", null))
+                                     .withCountDownPolicy(value.optString("countDownPolicy", null))
+                                     .withFireConfidence(value.has("fireConfidence") ? value.getDouble("fireConfidence") : null)
+                                     .withLocationAge(value.has("locationAge") ? value.getLong("locationAge") : null)
+                                     .withLocationAccuracy(value.has("locationAccuracy") ? value.getDouble("locationAccuracy") : null)
+                                     .build();
+        } else if (DETECTION_WRITE.equals(type)) {
+            return new Detection.Builder()
+                                .withUid(value.getString("uid"))
+                                .withLatitude(value.getDouble("latitude"))
+                                .withLongitude(value.getDouble("longitude"))
+                                .withTimestamp(value.getString("timestamp"))
+                                .build();
+        } else if (VALUE_WRITE.equals(type)) {
+            return value.get("value");
+        } else if (INCREMENT_WRITE.equals(type)) {
+            return ServerValue.increment(value.getLong("value"));
+        }
+        throw new JSONException("Unknown write type: " + type);
+    }
+
+}
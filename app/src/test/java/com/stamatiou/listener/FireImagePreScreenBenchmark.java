@@ -0,0 +1,58 @@
+package com.stamatiou.listener;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Locale;
+
+import javax.imageio.ImageIO;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * JVM benchmark of the fire/smoke pre-screen, over a folder of sample images.
+ * Each image must be scored within the time budget, and its confidence must lie in [0, 1].
+ * Folder is passed with the FIRE_SAMPLES_DIR environment variable (or the fire.samples.dir system property),
+ * and the benchmark is skipped when it is not set. Run with:
+ * FIRE_SAMPLES_DIR=/path/to/images ./gradlew :app:testDebugUnitTest --tests '*FireImagePreScreenBenchmark'
+ */
+public class FireImagePreScreenBenchmark {
+
+    private static final int WARMUP_ITERATIONS = 50;
+    private static final int MEASURED_ITERATIONS = 200;
+    private static final double MAX_AVERAGE_MICROS = 5000;
+
+    @Test
+    public void benchmarkSampleImages() throws IOException {
+        String samplesDirectory = System.getProperty("fire.samples.dir", System.getenv("FIRE_SAMPLES_DIR"));
+        Assume.assumeTrue("Sample images folder not set.", samplesDirectory != null);
+        File[] files = new File(samplesDirectory).listFiles((dir, name) -> name.toLowerCase(Locale.US).matches(".*\\.(jpe?g|png|bmp)"));
+        Assume.assumeTrue("No sample images found.", files != null && files.length > 0);
+        Arrays.sort(files);
+        FireImagePreScreen fireImagePreScreen = new FireImagePreScreen();
+        for (File file : files) {
+            BufferedImage image = ImageIO.read(file);
+            if (image == null) {
+                continue;
+            }
+            int width = image.getWidth();
+            int height = image.getHeight();
+            int[] pixels = image.getRGB(0, 0, width, height, null, 0, width);
+            double confidence = 0;
+            for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+                confidence = fireImagePreScreen.score(pixels, width, height);
+            }
+            long startTime = System.nanoTime();
+            for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+                confidence = fireImagePreScreen.score(pixels, width, height);
+            }
+            double averageMicros = (System.nanoTime() - startTime) / 1000.0 / MEASURED_ITERATIONS;
+            assertTrue(String.format(Locale.US, "%s confidence=%.3f", file.getName(), confidence), confidence >= 0 && confidence <= 1);
+            assertTrue(String.format(Locale.US, "%s %dx%d time=%.1fus", file.getName(), width, height, averageMicros), averageMicros <= MAX_AVERAGE_MICROS);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.stamatiou.listener;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * FireImagePreScreen tests, over synthetic images of flame, smoke, sky and dark pixels.
+ */
+public class FireImagePreScreenTest {
+
+    private static final double DELTA = 1e-9;
+    private static final int FLAME = 0xffff8c00;
+    private static final int SMOKE = 0xff808080;
+    private static final int SKY = 0xff285ac8;
+    private static final int DARK = 0xff000000;
+
+    private static int[] image(int color, int length) {
+        int[] pixels = new int[length];
+        Arrays.fill(pixels, color);
+        return pixels;
+    }
+
+    @Test
+    public void flameScoresFlameAndWarmHue() {
+        int length = FireImagePreScreen.SAMPLE_WIDTH * FireImagePreScreen.SAMPLE_HEIGHT;
+        assertEquals(0.85, new FireImagePreScreen().scoreSample(image(FLAME, length), length), DELTA);
+    }
+
+    @Test
+    public void smokeScoresSmokeOnly() {
+        int length = FireImagePreScreen.SAMPLE_WIDTH * FireImagePreScreen.SAMPLE_HEIGHT;
+        assertEquals(0.15, new FireImagePreScreen().scoreSample(image(SMOKE, length), length), DELTA);
+    }
+
+    @Test
+    public void skyAndDarkScoreZero() {
+        int length = FireImagePreScreen.SAMPLE_WIDTH * FireImagePreScreen.SAMPLE_HEIGHT;
+        FireImagePreScreen fireImagePreScreen = new FireImagePreScreen();
+        assertEquals(0, fireImagePreScreen.scoreSample(image(SKY, length), length), DELTA);
+        assertEquals(0, fireImagePreScreen.scoreSample(image(DARK, length), length), DELTA);
+        assertEquals(0, fireImagePreScreen.scoreSample(new int[0], 0), DELTA);
+    }
+
+    @Test
+    public void smallFlameInSkyScoresPartially() {
+        int length = 1000;
+        int[] pixels = image(SKY, length);
+        Arrays.fill(pixels, 0, 30, FLAME);
+        // Flame ratio 0.03 of the 0.05 saturation, and a 3% warm share of the saturated pixels.
+        assertEquals(0.6 * 0.6 + 0.25 * 0.03, new FireImagePreScreen().scoreSample(pixels, length), DELTA);
+    }
+
+    @Test
+    public void downsampledImageScoresLikeItsSample() {
+        int width = 640;
+        int height = 480;
+        int[] pixels = image(SKY, width * height);
+        for (int y = height / 2; y < height; y++) {
+            Arrays.fill(pixels, y * width, y * width + width / 2, FLAME);
+        }
+        FireImagePreScreen fireImagePreScreen = new FireImagePreScreen();
+        int length = FireImagePreScreen.SAMPLE_WIDTH * FireImagePreScreen.SAMPLE_HEIGHT;
+        int[] sample = image(SKY, length);
+        for (int y = FireImagePreScreen.SAMPLE_HEIGHT / 2; y < FireImagePreScreen.SAMPLE_HEIGHT; y++) {
+            Arrays.fill(sample, y * FireImagePreScreen.SAMPLE_WIDTH, y * FireImagePreScreen.SAMPLE_WIDTH + FireImagePreScreen.SAMPLE_WIDTH / 2, FLAME);
+        }
+        assertEquals(fireImagePreScreen.scoreSample(sample, length), fireImagePreScreen.score(pixels, width, height), DELTA);
+    }
+
+    @Test
+    public void buffersAreResetBetweenScores() {
+        int length = FireImagePreScreen.SAMPLE_WIDTH * FireImagePreScreen.SAMPLE_HEIGHT;
+        FireImagePreScreen fireImagePreScreen = new FireImagePreScreen();
+        double flameScore = fireImagePreScreen.scoreSample(image(FLAME, length), length);
+        assertEquals(0, fireImagePreScreen.scoreSample(image(SKY, length), length), DELTA);
+        assertEquals(flameScore, fireImagePreScreen.scoreSample(image(FLAME, length), length), DELTA);
+        assertTrue(flameScore > fireImagePreScreen.scoreSample(image(SMOKE, length), length));
+    }
+}
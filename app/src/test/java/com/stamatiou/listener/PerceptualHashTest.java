@@ -0,0 +1,85 @@
+package com.stamatiou.listener;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * PerceptualHash tests, over synthetic images of grey blocks laid out on the 9x8 hash grid.
+ */
+public class PerceptualHashTest {
+
+    private static final int WIDTH = 90;
+    private static final int HEIGHT = 80;
+    private static final int MAX_DISTANCE = 10;
+
+    // Image of 10x10 grey blocks, where neighbouring blocks always differ in brightness.
+    private static int[] blocks(long seed) {
+        Random random = new Random(seed);
+        int[] greys = new int[9 * 8];
+        for (int i = 0; i < greys.length; i++) {
+            do {
+                greys[i] = 32 * random.nextInt(8);
+            } while (i % 9 > 0 && greys[i] == greys[i - 1]);
+        }
+        int[] pixels = new int[WIDTH * HEIGHT];
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                pixels[y * WIDTH + x] = grey(greys[(y / 10) * 9 + x / 10]);
+            }
+        }
+        return pixels;
+    }
+
+    private static int grey(int value) {
+        int clamped = Math.max(0, Math.min(255, value));
+        return 0xff000000 | (clamped << 16) | (clamped << 8) | clamped;
+    }
+
+    @Test
+    public void identicalImagesHashEqually() {
+        long hash = PerceptualHash.dHash(blocks(1), WIDTH, HEIGHT);
+        assertEquals(hash, PerceptualHash.dHash(blocks(1), WIDTH, HEIGHT));
+        assertEquals(0, PerceptualHash.distance(hash, PerceptualHash.dHash(blocks(1), WIDTH, HEIGHT)));
+    }
+
+    @Test
+    public void slightlyAlteredImageStaysWithinDistance() {
+        int[] pixels = blocks(2);
+        int[] altered = pixels.clone();
+        Random random = new Random(3);
+        for (int i = 0; i < altered.length; i++) {
+            altered[i] = grey((altered[i] & 0xff) + random.nextInt(9) - 4);
+        }
+        int distance = PerceptualHash.distance(PerceptualHash.dHash(pixels, WIDTH, HEIGHT), PerceptualHash.dHash(altered, WIDTH, HEIGHT));
+        assertTrue("distance " + distance, distance <= MAX_DISTANCE);
+    }
+
+    @Test
+    public void invertedImageDiffersInEveryBit() {
+        int[] pixels = blocks(4);
+        int[] inverted = new int[pixels.length];
+        for (int i = 0; i < pixels.length; i++) {
+            inverted[i] = grey(255 - (pixels[i] & 0xff));
+        }
+        assertEquals(64, PerceptualHash.distance(PerceptualHash.dHash(pixels, WIDTH, HEIGHT), PerceptualHash.dHash(inverted, WIDTH, HEIGHT)));
+    }
+
+    @Test
+    public void uniformImageHashesToZero() {
+        int[] pixels = new int[WIDTH * HEIGHT];
+        Arrays.fill(pixels, grey(128));
+        assertEquals(0L, PerceptualHash.dHash(pixels, WIDTH, HEIGHT));
+    }
+
+    @Test
+    public void distanceCountsDifferingBits() {
+        assertEquals(0, PerceptualHash.distance(0x5aL, 0x5aL));
+        assertEquals(3, PerceptualHash.distance(0b1011L, 0L));
+        assertEquals(64, PerceptualHash.distance(0L, -1L));
+    }
+}
@@ -0,0 +1,55 @@
+package com.stamatiou.listener;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * RecentImageIndex tests, for the distance threshold and time window boundaries.
+ */
+public class RecentImageIndexTest {
+
+    private static final long WINDOW = 1000;
+    private static final int MAX_DISTANCE = 10;
+    private static final long HASH = 0x0123456789abcdefL;
+
+    // Hash differing from HASH in its lowest bits.
+    private static long flipped(int bits) {
+        return HASH ^ ((1L << bits) - 1);
+    }
+
+    @Test
+    public void emptyIndexHasNoDuplicate() {
+        assertNull(new RecentImageIndex(WINDOW, MAX_DISTANCE).findNearDuplicate(HASH, 0));
+    }
+
+    @Test
+    public void distanceThresholdIsInclusive() {
+        RecentImageIndex recentImageIndex = new RecentImageIndex(WINDOW, MAX_DISTANCE);
+        recentImageIndex.add(HASH, "images/uid/a.jpg", 0);
+        assertEquals("images/uid/a.jpg", recentImageIndex.findNearDuplicate(HASH, 0));
+        assertEquals("images/uid/a.jpg", recentImageIndex.findNearDuplicate(flipped(MAX_DISTANCE), 0));
+        assertNull(recentImageIndex.findNearDuplicate(flipped(MAX_DISTANCE + 1), 0));
+    }
+
+    @Test
+    public void closestImageIsReturned() {
+        RecentImageIndex recentImageIndex = new RecentImageIndex(WINDOW, MAX_DISTANCE);
+        recentImageIndex.add(flipped(8), "images/uid/far.jpg", 0);
+        recentImageIndex.add(flipped(2), "images/uid/close.jpg", 0);
+        recentImageIndex.add(flipped(5), "images/uid/middle.jpg", 0);
+        assertEquals("images/uid/close.jpg", recentImageIndex.findNearDuplicate(HASH, 0));
+    }
+
+    @Test
+    public void imagesExpireAfterWindow() {
+        RecentImageIndex recentImageIndex = new RecentImageIndex(WINDOW, MAX_DISTANCE);
+        recentImageIndex.add(HASH, "images/uid/old.jpg", 0);
+        recentImageIndex.add(flipped(1), "images/uid/new.jpg", 500);
+        assertEquals("images/uid/old.jpg", recentImageIndex.findNearDuplicate(HASH, WINDOW));
+        assertEquals("images/uid/new.jpg", recentImageIndex.findNearDuplicate(HASH, WINDOW + 1));
+        assertEquals("images/uid/new.jpg", recentImageIndex.findNearDuplicate(HASH, 500 + WINDOW));
+        assertNull(recentImageIndex.findNearDuplicate(HASH, 500 + WINDOW + 1));
+    }
+}
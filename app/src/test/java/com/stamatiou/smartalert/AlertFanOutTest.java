@@ -0,0 +1,142 @@
+package com.stamatiou.smartalert;
+
+import com.stamatiou.entities.EmergencyAlert;
+import com.stamatiou.entities.EmergencyContact;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * AlertFanOut tests, using local stand-in channels which succeed, fail or never complete.
+ */
+public class AlertFanOutTest {
+
+    private static final long TIMEOUT = 200;
+
+    // Stand-in channel, which completes synchronously with the given result, or never if the result is null.
+    private static class FakeChannel implements AlertChannel {
+
+        private final String name;
+        private final Boolean notifiesContacts;
+        private final Boolean result;
+        private Callback callback;
+
+        private FakeChannel(String name, Boolean notifiesContacts, Boolean result) {
+            this.name = name;
+            this.notifiesContacts = notifiesContacts;
+            this.result = result;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public Boolean notifiesContacts() {
+            return notifiesContacts;
+        }
+
+        @Override
+        public void send(String emergencyAlertKey, EmergencyAlert emergencyAlert, List<EmergencyContact> emergencyContacts, Callback callback) {
+            this.callback = callback;
+            if (result != null) {
+                callback.onComplete(result);
+            }
+        }
+    }
+
+    // Collects the fan out completion.
+    private static class Completion implements AlertFanOut.Callback {
+
+        private final CountDownLatch latch = new CountDownLatch(1);
+        private final AtomicInteger calls = new AtomicInteger();
+        private final AtomicReference<Long> timeToNotify = new AtomicReference<>();
+        private final AtomicReference<String> firstChannel = new AtomicReference<>();
+        private final AtomicReference<List<AlertFanOut.ChannelResult>> results = new AtomicReference<>();
+
+        @Override
+        public void onFanOutCompleted(Long timeToNotify, String firstChannel, List<AlertFanOut.ChannelResult> results) {
+            this.timeToNotify.set(timeToNotify);
+            this.firstChannel.set(firstChannel);
+            this.results.set(results);
+            calls.incrementAndGet();
+            latch.countDown();
+        }
+
+        private void await() throws InterruptedException {
+            assertTrue("Fan out did not complete.", latch.await(TIMEOUT * 10, TimeUnit.MILLISECONDS));
+        }
+    }
+
+    @Test
+    public void completesWhenEveryChannelCompletes() throws InterruptedException {
+        Completion completion = new Completion();
+        new AlertFanOut(Arrays.asList(new FakeChannel("sms", true, false), new FakeChannel("database", true, true)), TIMEOUT)
+                .dispatch("key", null, new ArrayList<>(), completion);
+        completion.await();
+        assertEquals("database", completion.firstChannel.get());
+        assertFalse(completion.results.get().get(0).getSuccess());
+        assertTrue(completion.results.get().get(1).getSuccess());
+        assertFalse(completion.results.get().get(1).getTimedOut());
+    }
+
+    @Test
+    public void localChannelDoesNotDefineTimeToNotify() throws InterruptedException {
+        Completion completion = new Completion();
+        new AlertFanOut(Arrays.asList(new FakeChannel("local", false, true), new FakeChannel("sms", true, false)), TIMEOUT)
+                .dispatch("key", null, new ArrayList<>(), completion);
+        completion.await();
+        assertNull(completion.timeToNotify.get());
+        assertNull(completion.firstChannel.get());
+        assertTrue(completion.results.get().get(0).getSuccess());
+    }
+
+    @Test
+    public void pendingChannelsFailOnTimeout() throws InterruptedException {
+        Completion completion = new Completion();
+        FakeChannel pendingChannel = new FakeChannel("database", true, null);
+        new AlertFanOut(Arrays.asList(new FakeChannel("sms", true, true), pendingChannel), TIMEOUT)
+                .dispatch("key", null, new ArrayList<>(), completion);
+        completion.await();
+        assertEquals("sms", completion.firstChannel.get());
+        AlertFanOut.ChannelResult pendingResult = completion.results.get().get(1);
+        assertFalse(pendingResult.getSuccess());
+        assertTrue(pendingResult.getTimedOut());
+        assertTrue(pendingResult.getLatency() >= TIMEOUT);
+
+        // Late results are ignored.
+        pendingChannel.callback.onComplete(true);
+        Thread.sleep(TIMEOUT);
+        assertEquals(1, completion.calls.get());
+        assertFalse(completion.results.get().get(1).getSuccess());
+    }
+
+    @Test
+    public void throwingChannelFails() throws InterruptedException {
+        Completion completion = new Completion();
+        AlertChannel throwingChannel = new FakeChannel("sms", true, true) {
+            @Override
+            public void send(String emergencyAlertKey, EmergencyAlert emergencyAlert, List<EmergencyContact> emergencyContacts, Callback callback) {
+                throw new IllegalStateException();
+            }
+        };
+        new AlertFanOut(Arrays.asList(throwingChannel), TIMEOUT).dispatch("key", null, new ArrayList<>(), completion);
+        completion.await();
+        assertFalse(completion.results.get().get(0).getSuccess());
+        assertFalse(completion.results.get().get(0).getTimedOut());
+        assertEquals(1, completion.calls.get());
+    }
+}
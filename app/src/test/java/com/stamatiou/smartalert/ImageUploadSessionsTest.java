@@ -0,0 +1,223 @@
+package com.stamatiou.smartalert;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * ImageUploadSessions tests, using a stand-in uploader which fails in the middle of its upload session.
+ */
+public class ImageUploadSessionsTest {
+
+    private static final String SESSION_URI = "https://storage.example/upload?session=1";
+
+    // Stand-in uploader, which starts a session, transfers half of the file and fails, until it is allowed to succeed.
+    private static class FailingUploader implements ImageUploader {
+
+        private final List<String> sessionUris = new ArrayList<>();
+        private Boolean succeed = false;
+
+        @Override
+        public void upload(File file, String storagePath, String sessionUri, Listener listener) {
+            sessionUris.add(sessionUri);
+            if (sessionUri == null) {
+                listener.onSessionStarted(SESSION_URI);
+            }
+            listener.onProgress(file.length() / 2, file.length());
+            if (succeed) {
+                listener.onProgress(file.length(), file.length());
+                listener.onSuccess();
+            } else {
+                listener.onFailure(new IOException("Connection reset."), false);
+            }
+        }
+    }
+
+    // In-memory store, which outlives the sessions instances like the queue file does.
+    private static class MemoryStore implements ImageUploadSessions.Store {
+
+        private List<JSONObject> uploads;
+
+        @Override
+        public List<JSONObject> read() throws IOException, JSONException {
+            if (uploads == null) {
+                throw new IOException("Nothing stored.");
+            }
+            List<JSONObject> result = new ArrayList<>();
+            for (JSONObject upload : uploads) {
+                result.add(new JSONObject(upload.toString()));
+            }
+            return result;
+        }
+
+        @Override
+        public void write(Collection<JSONObject> uploads) {
+            this.uploads = new ArrayList<>(uploads);
+        }
+    }
+
+    // Counts the upload outcomes.
+    private static class Outcomes implements ImageUploadSessions.Listener {
+
+        private int completed;
+        private int failed;
+        private int dropped;
+
+        @Override
+        public void onUploadProgress(String uploadId, long bytesTransferred, long totalBytes) {
+        }
+
+        @Override
+        public void onUploadCompleted(String uploadId, JSONObject upload) {
+            completed++;
+        }
+
+        @Override
+        public void onUploadFailed(String uploadId, Exception exception) {
+            failed++;
+        }
+
+        @Override
+        public void onUploadDropped(String uploadId, Exception exception) {
+            dropped++;
+        }
+    }
+
+    private File file;
+
+    @Before
+    public void createFile() throws IOException {
+        file = File.createTempFile("fire", ".jpg");
+        Files.write(file.toPath(), new byte[1024]);
+    }
+
+    @After
+    public void deleteFile() {
+        file.delete();
+    }
+
+    private JSONObject upload() throws JSONException {
+        return new JSONObject().put("id", "upload").put("file", file.getAbsolutePath()).put("storagePath", "images/fire.jpg");
+    }
+
+    @Test
+    public void resumesFromStoredSessionAfterFailure() throws JSONException {
+        FailingUploader uploader = new FailingUploader();
+        Outcomes outcomes = new Outcomes();
+        ImageUploadSessions imageUploadSessions = new ImageUploadSessions(uploader, new MemoryStore(), outcomes);
+        imageUploadSessions.add(upload());
+        imageUploadSessions.resume();
+        uploader.succeed = true;
+        imageUploadSessions.resume();
+
+        assertEquals(2, uploader.sessionUris.size());
+        assertNull(uploader.sessionUris.get(0));
+        assertEquals(SESSION_URI, uploader.sessionUris.get(1));
+        assertEquals(1, outcomes.failed);
+        assertEquals(1, outcomes.completed);
+        assertEquals(0, imageUploadSessions.size());
+    }
+
+    @Test
+    public void resumesFromStoredSessionAfterRestart() throws JSONException {
+        FailingUploader uploader = new FailingUploader();
+        MemoryStore store = new MemoryStore();
+        ImageUploadSessions imageUploadSessions = new ImageUploadSessions(uploader, store, new Outcomes());
+        imageUploadSessions.add(upload());
+        imageUploadSessions.resume();
+
+        // A new instance over the same store stands for the restarted process.
+        Outcomes outcomes = new Outcomes();
+        uploader.succeed = true;
+        ImageUploadSessions restoredSessions = new ImageUploadSessions(uploader, store, outcomes);
+        assertEquals(1, restoredSessions.size());
+        restoredSessions.resume();
+
+        assertEquals(SESSION_URI, uploader.sessionUris.get(1));
+        assertEquals(1, outcomes.completed);
+        assertEquals(0, restoredSessions.size());
+    }
+
+    @Test
+    public void expiredSessionIsDiscarded() throws JSONException {
+        MemoryStore store = new MemoryStore();
+        List<String> sessionUris = new ArrayList<>();
+        // Resumed sessions fail without progress, as the storage server no longer knows them.
+        ImageUploader uploader = (file, storagePath, sessionUri, listener) -> {
+            sessionUris.add(sessionUri);
+            if (sessionUri == null) {
+                listener.onSessionStarted(SESSION_URI);
+                listener.onProgress(file.length() / 2, file.length());
+            }
+            listener.onFailure(new IOException("Session expired."), false);
+        };
+        ImageUploadSessions imageUploadSessions = new ImageUploadSessions(uploader, store, new Outcomes());
+        imageUploadSessions.add(upload());
+        imageUploadSessions.resume();
+        imageUploadSessions.resume();
+        imageUploadSessions.resume();
+
+        assertNull(sessionUris.get(0));
+        assertEquals(SESSION_URI, sessionUris.get(1));
+        assertNull(sessionUris.get(2));
+    }
+
+    @Test
+    public void permanentFailureDropsUpload() throws JSONException {
+        List<String> sessionUris = new ArrayList<>();
+        ImageUploader uploader = (file, storagePath, sessionUri, listener) -> {
+            sessionUris.add(sessionUri);
+            listener.onFailure(new IOException("Not authorized."), true);
+        };
+        Outcomes outcomes = new Outcomes();
+        ImageUploadSessions imageUploadSessions = new ImageUploadSessions(uploader, new MemoryStore(), outcomes);
+        imageUploadSessions.add(upload());
+        imageUploadSessions.resume();
+        imageUploadSessions.resume();
+
+        assertEquals(1, sessionUris.size());
+        assertEquals(0, outcomes.failed);
+        assertEquals(1, outcomes.dropped);
+        assertEquals(0, imageUploadSessions.size());
+        assertFalse(file.exists());
+    }
+
+    @Test
+    public void attemptsAreCappedAcrossRestarts() throws JSONException {
+        FailingUploader uploader = new FailingUploader();
+        MemoryStore store = new MemoryStore();
+        Outcomes outcomes = new Outcomes();
+        ImageUploadSessions imageUploadSessions = new ImageUploadSessions(uploader, store, outcomes);
+        imageUploadSessions.add(upload());
+        for (int i = 0; i < 5; i++) {
+            imageUploadSessions.resume();
+        }
+        assertTrue(file.exists());
+
+        // Attempts are stored with the upload, so a restart does not reset them.
+        ImageUploadSessions restoredSessions = new ImageUploadSessions(uploader, store, outcomes);
+        for (int i = 0; i < 10; i++) {
+            restoredSessions.resume();
+        }
+
+        assertEquals(10, uploader.sessionUris.size());
+        assertEquals(9, outcomes.failed);
+        assertEquals(1, outcomes.dropped);
+        assertEquals(0, restoredSessions.size());
+        assertFalse(file.exists());
+    }
+}
@@ -0,0 +1,69 @@
+package com.stamatiou.smartalert;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * SmsPayloadEncoder tests, for the GSM-7 conversion of the localized templates and the SMS segment boundaries.
+ */
+public class SmsPayloadEncoderTest {
+
+    private static final String LOCATION = "geo:37.97534,23.73618";
+
+    private static String repeat(String text, int count) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            sb.append(text);
+        }
+        return sb.toString();
+    }
+
+    // Template exceeds a single UCS-2 segment, but its GSM-7 form fits a single segment.
+    @Test
+    public void greekTemplateFitsSingleGsm7Segment() {
+        String original = "ΣΥΝΘΗΜΑ ΚΙΝΔΥΝΟΥ! Βλέπω φωτιά κοντά στο σπίτι μου, στείλτε βοήθεια στο: ";
+        assertEquals(-1, SmsPayloadEncoder.septets(original));
+        assertEquals(2, SmsPayloadEncoder.segments(original + LOCATION));
+        String gsm7 = SmsPayloadEncoder.toGsm7(original);
+        assertEquals("ΣYNΘHMA KINΔYNOY! BΛEΠΩ ΦΩTIA KONTA ΣTO ΣΠITI MOY, ΣTEIΛTE BOHΘEIA ΣTO: ", gsm7);
+        assertEquals(1, SmsPayloadEncoder.segments(gsm7 + LOCATION));
+    }
+
+    @Test
+    public void cyrillicTemplateIsTransliterated() {
+        assertEquals("SOS! Ya vizhu pozhar: ", SmsPayloadEncoder.toGsm7("СОС! Я вижу пожар: "));
+        assertEquals("Zemletryasenie proiskhodit v: ", SmsPayloadEncoder.toGsm7("Землетрясение происходит в: "));
+    }
+
+    @Test
+    public void textOutsideGsm7IsNotConverted() {
+        assertNull(SmsPayloadEncoder.toGsm7("SOS! 火事"));
+    }
+
+    @Test
+    public void extensionCharactersCountAsTwoSeptets() {
+        assertEquals(1, SmsPayloadEncoder.septets("é"));
+        assertEquals(2, SmsPayloadEncoder.septets("€"));
+        assertEquals(6, SmsPayloadEncoder.septets("a{b}"));
+        assertEquals(1, SmsPayloadEncoder.segments(repeat("a", 158) + "€"));
+        assertEquals(2, SmsPayloadEncoder.segments(repeat("a", 159) + "€"));
+    }
+
+    @Test
+    public void gsm7SegmentBoundaries() {
+        assertEquals(1, SmsPayloadEncoder.segments(repeat("a", 160)));
+        assertEquals(2, SmsPayloadEncoder.segments(repeat("a", 161)));
+        assertEquals(2, SmsPayloadEncoder.segments(repeat("a", 306)));
+        assertEquals(3, SmsPayloadEncoder.segments(repeat("a", 307)));
+    }
+
+    @Test
+    public void ucs2SegmentBoundaries() {
+        assertEquals(1, SmsPayloadEncoder.segments(repeat("ж", 70)));
+        assertEquals(2, SmsPayloadEncoder.segments(repeat("ж", 71)));
+        assertEquals(2, SmsPayloadEncoder.segments(repeat("ж", 134)));
+        assertEquals(3, SmsPayloadEncoder.segments(repeat("ж", 135)));
+    }
+}